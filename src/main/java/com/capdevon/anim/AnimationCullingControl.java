@@ -0,0 +1,312 @@
+package com.capdevon.anim;
+
+import com.capdevon.anim.fsm.AnimatorController;
+import com.capdevon.anim.fsm.AnimatorControllerAsset;
+import com.capdevon.anim.fsm.AnimatorControllerLayer;
+import com.capdevon.anim.fsm.AnimatorInstance;
+import com.jme3.anim.AnimComposer;
+import com.jme3.anim.SkinningControl;
+import com.jme3.anim.tween.action.Action;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.FastMath;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.Camera.FrustumIntersect;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+
+/**
+ * Culls the animation of a character that is off-screen or far from the
+ * camera.
+ * <p>
+ * The control takes over the update of the AnimComposer, the SkinningControl
+ * and the animator (an {@link AnimatorController} or an
+ * {@link AnimatorInstance}) of the character: they are disabled and updated
+ * by this control, in that order, with the time accumulated since their last
+ * update. A visible character is updated every frame, or every 2nd, 4th or
+ * 8th frame beyond the {@link #rateDistances}; the skinning is done only in
+ * the frames where the pose changed. What happens to an invisible character
+ * depends on the {@link CullingMode}.
+ * <p>
+ * An AnimatorInstance registered to an AnimatorSystemAppState is still
+ * evaluated every frame by the system, also when it is registered after this
+ * control was added. Add this control after the animator.
+ *
+ * @author capdevon
+ */
+public class AnimationCullingControl extends AbstractControl {
+
+    public enum CullingMode {
+        // Always animate the entire character, even when it is off-screen.
+        AlwaysAnimate,
+        // The state machine and the animation time advance when the character is off-screen, the pose is not evaluated.
+        CullUpdateTransforms,
+        // The animation is completely stopped when the character is off-screen.
+        CullCompletely
+    }
+
+    // the largest update interval, in frames.
+    private static final int MAX_INTERVAL = 8;
+
+    // distances from the camera beyond which the animation is updated every 2nd, 4th and 8th frame.
+    public float[] rateDistances = {20f, 40f, 80f};
+
+    private final Camera camera;
+    private CullingMode cullingMode = CullingMode.CullUpdateTransforms;
+
+    private AnimComposer animComposer;
+    private SkinningControl skinningControl;
+    // the animator updated by this control (null if none).
+    private AbstractControl animator;
+    // the AnimatorInstance of the character (null if none): it may be registered to a system later.
+    private AnimatorInstance instance;
+    private String[] layerNames;
+
+    private boolean visible;
+    // the pose changed in this frame: the skinning is rendered.
+    private boolean skinningDue;
+    private int interval = 1;
+    // the frame counter, started at a random phase to spread the updates of a crowd.
+    private int frame;
+    // the time elapsed since the last update of the animator and of the pose.
+    private float animatorTime;
+    private float poseTime;
+
+    /**
+     * Constructor.
+     *
+     * @param camera - the viewer the visibility and the distances are measured from
+     */
+    public AnimationCullingControl(Camera camera) {
+        this.camera = camera;
+        this.frame = FastMath.nextRandomInt(0, MAX_INTERVAL - 1);
+    }
+
+    @Override
+    public void setSpatial(Spatial sp) {
+        if (spatial != null) {
+            release();
+        }
+        super.setSpatial(sp);
+        if (spatial != null) {
+            animComposer = AnimUtils.getAnimControl(spatial);
+            skinningControl = AnimUtils.getSkeletonControl(spatial);
+            findAnimator();
+            if (isEnabled()) {
+                acquire();
+            }
+        }
+    }
+
+    private void findAnimator() {
+        instance = spatial.getControl(AnimatorInstance.class);
+        AnimatorController controller = spatial.getControl(AnimatorController.class);
+        if (instance != null) {
+            AnimatorControllerAsset asset = instance.getAsset();
+            layerNames = new String[asset.getLayerCount()];
+            for (int i = 0; i < layerNames.length; i++) {
+                layerNames[i] = asset.getLayerName(i);
+            }
+            // the system evaluates it every frame.
+            animator = (instance.getSystem() == null) ? instance : null;
+        } else if (controller != null) {
+            layerNames = controller.getLayers().stream().map(AnimatorControllerLayer::getName).toArray(String[]::new);
+            animator = controller;
+        } else {
+            layerNames = new String[]{AnimComposer.DEFAULT_LAYER};
+            animator = null;
+        }
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (spatial != null && enabled != isEnabled()) {
+            if (enabled) {
+                acquire();
+            } else {
+                release();
+            }
+        }
+        super.setEnabled(enabled);
+    }
+
+    /**
+     * The controls are updated by this control from now on.
+     */
+    private void acquire() {
+        if (animator != null) {
+            animator.setEnabled(false);
+        }
+        animComposer.setEnabled(false);
+        skinningControl.setEnabled(false);
+        animatorTime = 0;
+        poseTime = 0;
+        // the first frame updates everything.
+        visible = false;
+    }
+
+    /**
+     * The controls update themselves again.
+     */
+    private void release() {
+        if (animator != null) {
+            animator.setEnabled(true);
+        }
+        animComposer.setEnabled(true);
+        skinningControl.setEnabled(true);
+    }
+
+    /**
+     * Follows the AnimatorInstance when it is registered to or unregistered
+     * from an AnimatorSystemAppState: the system evaluates only the enabled
+     * instances.
+     */
+    private void checkSystem() {
+        if (instance == null) {
+            return;
+        }
+        boolean bySystem = (instance.getSystem() != null);
+        if (bySystem && animator != null) {
+            animator = null;
+            instance.setEnabled(true);
+        } else if (!bySystem && animator == null) {
+            animator = instance;
+            instance.setEnabled(false);
+        }
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        checkSystem();
+
+        boolean wasVisible = visible;
+        visible = (cullingMode == CullingMode.AlwaysAnimate) || isInFrustum();
+        interval = visible ? updateInterval() : MAX_INTERVAL;
+        frame++;
+
+        animatorTime += tpf;
+        poseTime += tpf;
+        // a character that comes into view is updated at once.
+        boolean due = (frame % interval == 0) || (visible && !wasVisible);
+
+        if (visible) {
+            if (due) {
+                updateAnimator();
+                update(animComposer, poseTime);
+                poseTime = 0;
+            }
+            // the skinning only follows a new pose.
+            skinningDue = due;
+            if (due) {
+                update(skinningControl, tpf);
+            }
+
+        } else {
+            skinningDue = false;
+            if (cullingMode == CullingMode.CullUpdateTransforms) {
+                if (due) {
+                    updateAnimator();
+                }
+                advanceTime(poseTime);
+            } else {
+                // CullCompletely: the time does not advance.
+                animatorTime = 0;
+            }
+            poseTime = 0;
+        }
+    }
+
+    private boolean isInFrustum() {
+        BoundingVolume bound = spatial.getWorldBound();
+        if (bound == null) {
+            return true;
+        }
+        int planeState = camera.getPlaneState();
+        camera.setPlaneState(0);
+        boolean inside = camera.contains(bound) != FrustumIntersect.Outside;
+        camera.setPlaneState(planeState);
+        return inside;
+    }
+
+    private int updateInterval() {
+        float distSq = camera.getLocation().distanceSquared(spatial.getWorldTranslation());
+        int n = 1;
+        for (float d : rateDistances) {
+            if (distSq > d * d && n < MAX_INTERVAL) {
+                n <<= 1;
+            }
+        }
+        return n;
+    }
+
+    private void updateAnimator() {
+        if (animator != null) {
+            update(animator, animatorTime);
+        }
+        animatorTime = 0;
+    }
+
+    /**
+     * Updates a control disabled by this control.
+     */
+    private static void update(AbstractControl control, float tpf) {
+        control.setEnabled(true);
+        control.update(tpf);
+        control.setEnabled(false);
+    }
+
+    /**
+     * Advances the time of the current actions, like the AnimComposer does,
+     * without evaluating the pose.
+     */
+    private void advanceTime(float tpf) {
+        for (String layerName : layerNames) {
+            Action action = animComposer.getCurrentAction(layerName);
+            if (action == null || action.getLength() <= 0) {
+                continue;
+            }
+            double time = animComposer.getTime(layerName) + tpf * action.getSpeed() * animComposer.getGlobalSpeed();
+            double length = action.getLength();
+            time %= length;
+            if (time < 0) {
+                time += length;
+            }
+            animComposer.setTime(layerName, time);
+        }
+    }
+
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+        if (skinningDue) {
+            skinningControl.setEnabled(true);
+            skinningControl.render(rm, vp);
+            skinningControl.setEnabled(false);
+        }
+    }
+
+    public CullingMode getCullingMode() {
+        return cullingMode;
+    }
+
+    public void setCullingMode(CullingMode cullingMode) {
+        this.cullingMode = cullingMode;
+    }
+
+    /**
+     * @return true if the character was in the view frustum in the last update
+     *         (always true with AlwaysAnimate)
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * @return the number of frames between two updates of the animation
+     *         (1, 2, 4 or 8)
+     */
+    public int getUpdateInterval() {
+        return interval;
+    }
+
+}
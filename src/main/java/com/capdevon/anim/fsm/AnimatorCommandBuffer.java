@@ -0,0 +1,104 @@
+package com.capdevon.anim.fsm;
+
+import java.util.Arrays;
+
+import com.jme3.anim.AnimComposer;
+import com.jme3.anim.tween.action.BlendAction;
+import com.jme3.anim.tween.action.BlendableAction;
+
+/**
+ * The changes an {@link AnimatorInstance} makes to its AnimComposer in a
+ * frame, one slot per layer. The state machines can be evaluated on worker
+ * threads, which only read the AnimComposer, and the commands applied later
+ * on the render thread.
+ *
+ * @author capdevon
+ */
+final class AnimatorCommandBuffer {
+
+    static final byte NONE = 0;
+    // play an action on the layer, with a transition.
+    static final byte PLAY = 1;
+    // remove the current action of the layer.
+    static final byte STOP = 2;
+
+    private final String[] layerNames;
+
+    private final byte[] ops;
+    private final String[] actions;
+    private final float[] speeds;
+    private final float[] transitionLengths;
+    private final float[] offsets;
+
+    // blend tree of the current state (null if none), blend value and speed (NaN = unchanged).
+    private final String[] blendActions;
+    private final float[] blendValues;
+    private final float[] blendSpeeds;
+
+    AnimatorCommandBuffer(String[] layerNames) {
+        int n = layerNames.length;
+        this.layerNames = layerNames;
+        this.ops = new byte[n];
+        this.actions = new String[n];
+        this.speeds = new float[n];
+        this.transitionLengths = new float[n];
+        this.offsets = new float[n];
+        this.blendActions = new String[n];
+        this.blendValues = new float[n];
+        this.blendSpeeds = new float[n];
+    }
+
+    void play(int layer, String action, float speed, float transitionLength, float offset) {
+        ops[layer] = PLAY;
+        actions[layer] = action;
+        speeds[layer] = speed;
+        transitionLengths[layer] = transitionLength;
+        offsets[layer] = offset;
+    }
+
+    void stop(int layer) {
+        ops[layer] = STOP;
+        actions[layer] = null;
+    }
+
+    void blend(int layer, String action, float value, float speed) {
+        blendActions[layer] = action;
+        blendValues[layer] = value;
+        blendSpeeds[layer] = speed;
+    }
+
+    /**
+     * Applies the commands to the AnimComposer and clears them.
+     * Must be called on the render thread.
+     * @param animComposer
+     */
+    void apply(AnimComposer animComposer) {
+        for (int l = 0; l < layerNames.length; l++) {
+            if (ops[l] == PLAY) {
+                BlendableAction action = (BlendableAction) animComposer.getAction(actions[l]);
+                action.setSpeed(speeds[l]);
+                action.setTransitionLength(transitionLengths[l]);
+                animComposer.setCurrentAction(actions[l], layerNames[l]);
+                animComposer.setTime(layerNames[l], offsets[l]);
+            } else if (ops[l] == STOP) {
+                animComposer.removeCurrentAction(layerNames[l]);
+            }
+
+            if (blendActions[l] != null) {
+                BlendAction action = (BlendAction) animComposer.getAction(blendActions[l]);
+                action.getBlendSpace().setValue(blendValues[l]);
+                if (!Float.isNaN(blendSpeeds[l])) {
+                    action.setSpeed(blendSpeeds[l]);
+                }
+            }
+        }
+        clear();
+    }
+
+    void clear() {
+        Arrays.fill(ops, NONE);
+        Arrays.fill(actions, null);
+        Arrays.fill(blendActions, null);
+    }
+
+}
@@ -1,9 +1,12 @@
 package com.capdevon.anim.fsm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
@@ -15,6 +18,10 @@ import com.jme3.scene.control.AbstractControl;
 
 /**
  * The Animator Controller controls animation with state machine, controlled by parameters.
+ * <p>
+ * The parameter values are stored in dense arrays indexed by the id returned by
+ * {@link #parameterId(String)}: per-frame code should resolve the ids once and
+ * use the int overloads of the getters and setters, which do no name lookup.
  * 
  * @author capdevon
  */
@@ -27,6 +34,20 @@ public class AnimatorController extends AbstractControl {
     protected List<AnimatorControllerLayer> layers = new ArrayList<>();
     //Parameters are used to communicate between scripting and the controller. They are used to drive transitions and blendtrees for example.
     protected List<AnimatorControllerParameter> parameters = new ArrayList<>();
+    //The id of each parameter, by name.
+    private final Map<String, Integer> parameterIds = new HashMap<>();
+    //The parameter values, indexed by id (Bool and Trigger share boolValues).
+    protected AnimatorControllerParameterType[] types = new AnimatorControllerParameterType[0];
+    protected float[] floatValues = new float[0];
+    protected int[] intValues = new int[0];
+    protected boolean[] boolValues = new boolean[0];
+    //Incremented when the graph is edited: the compiled transition tables are rebuilt.
+    protected int graphVersion;
+    private int compiledVersion = -1;
+    //A transition is dirty when a parameter it reads changed since it was last found false (by global index).
+    protected boolean[] dirtyTransitions = new boolean[0];
+    //The global indices of the transitions that read each parameter (by parameter id).
+    private int[][] parameterDependents = new int[0][];
 
     /**
      * Constructor.
@@ -39,7 +60,71 @@ public class AnimatorController extends AbstractControl {
 
     @Override
     protected void controlUpdate(float tpf) {
+        AnimatorUpdateEvent event = new AnimatorUpdateEvent();
+        event.begin();
+
+        if (compiledVersion != graphVersion) {
+            compileGraph();
+        }
         layers.forEach(layer -> layer.stateMachine.update(tpf));
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.controller = spatial.getName();
+            event.layers = layers.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Compiles the transitions of all the states and builds the reverse index
+     * from the parameters to the transitions that read them. All the
+     * transitions start dirty.
+     */
+    private void compileGraph() {
+        List<List<Integer>> dependents = new ArrayList<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            dependents.add(new ArrayList<>());
+        }
+
+        int base = 0;
+        for (AnimatorControllerLayer layer : layers) {
+            for (AnimatorState state : layer.stateMachine.getAllStates()) {
+                TransitionTable table = TransitionTable.compile(state.transitions, this, base);
+                state.table = table;
+                for (int t = 0; t < table.size; t++) {
+                    for (int c = table.conditionStart[t]; c < table.conditionStart[t + 1]; c++) {
+                        if (table.ops[c] != TransitionTable.OP_FALSE) {
+                            dependents.get(table.paramIds[c]).add(base + t);
+                        }
+                    }
+                }
+                base += table.size;
+            }
+        }
+
+        dirtyTransitions = new boolean[base];
+        Arrays.fill(dirtyTransitions, true);
+        parameterDependents = new int[dependents.size()][];
+        for (int id = 0; id < parameterDependents.length; id++) {
+            List<Integer> list = dependents.get(id);
+            parameterDependents[id] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                parameterDependents[id][i] = list.get(i);
+            }
+        }
+        compiledVersion = graphVersion;
+    }
+
+    /**
+     * Marks dirty the transitions that read the given parameter.
+     */
+    private void markDirty(int id) {
+        if (compiledVersion == graphVersion) {
+            for (int index : parameterDependents[id]) {
+                dirtyTransitions[index] = true;
+            }
+        }
     }
 
     @Override
@@ -59,6 +144,7 @@ public class AnimatorController extends AbstractControl {
         layer.stateMachine.name = layer.name;
         layers.add(layer);
         animComposer.makeLayer(name, mask);
+        invalidateGraph();
         return layer;
     }
 
@@ -69,6 +155,7 @@ public class AnimatorController extends AbstractControl {
     public void removeLayer(AnimatorControllerLayer layer) {
         layers.remove(layer);
         animComposer.removeLayer(layer.name);
+        invalidateGraph();
     }
     
     public AnimatorControllerLayer getLayer(String name) {
@@ -92,23 +179,76 @@ public class AnimatorController extends AbstractControl {
 
     /**
      * Utility function to add a parameter to the controller.
+     * The names are unique: throws an exception if a parameter with the same
+     * name (of any type) already exists.
      * @param name - The name of the parameter.
      * @param type - The type of the parameter.
      */
     public void addParameter(String name, AnimatorControllerParameterType type) {
+        if (parameterIds.containsKey(name)) {
+            throw new IllegalArgumentException("AnimatorControllerParameter already exists: " + name);
+        }
         AnimatorControllerParameter param = new AnimatorControllerParameter();
         param.name = name;
         param.type = type;
         param.nameHash = name.hashCode();
         parameters.add(param);
+        rebuildParameters();
     }
 
     /**
      * Utility function to remove a parameter from the controller.
+     * The ids of the parameters that follow it change.
      * @param param - The AnimatorParameter.
      */
     public void removeParameter(AnimatorControllerParameter param) {
-        parameters.remove(param);
+        if (parameters.remove(param)) {
+            rebuildParameters();
+        }
+    }
+
+    /**
+     * Reassigns the ids and the value arrays after the parameter list changed,
+     * keeping the current values.
+     */
+    private void rebuildParameters() {
+        int count = parameters.size();
+        float[] floats = new float[count];
+        int[] ints = new int[count];
+        boolean[] bools = new boolean[count];
+        AnimatorControllerParameterType[] newTypes = new AnimatorControllerParameterType[count];
+
+        for (int id = 0; id < count; id++) {
+            AnimatorControllerParameter param = parameters.get(id);
+            Integer oldId = parameterIds.get(param.name);
+            if (oldId != null && oldId < types.length && types[oldId] == param.type) {
+                floats[id] = floatValues[oldId];
+                ints[id] = intValues[oldId];
+                bools[id] = boolValues[oldId];
+            } else {
+                floats[id] = param.defaultFloat;
+                ints[id] = param.defaultInt;
+                bools[id] = param.defaultBool;
+            }
+            newTypes[id] = param.type;
+        }
+
+        parameterIds.clear();
+        for (int id = 0; id < count; id++) {
+            parameterIds.put(parameters.get(id).name, id);
+        }
+        floatValues = floats;
+        intValues = ints;
+        boolValues = bools;
+        types = newTypes;
+        invalidateGraph();
+    }
+
+    /**
+     * InternalCall: the layers, states, transitions or parameters changed.
+     */
+    protected void invalidateGraph() {
+        graphVersion++;
     }
 
     /**
@@ -117,12 +257,8 @@ public class AnimatorController extends AbstractControl {
      * @return the parameter
      */
     public AnimatorControllerParameter getParameter(String name) {
-        for (AnimatorControllerParameter param: parameters) {
-            if (param.nameHash == name.hashCode()) {
-                return param;
-            }
-        }
-        return null;
+        Integer id = parameterIds.get(name);
+        return (id == null) ? null : parameters.get(id);
     }
     
     /**
@@ -135,14 +271,47 @@ public class AnimatorController extends AbstractControl {
     	return Collections.unmodifiableCollection(parameters);
     }
 
+    /**
+     * Returns the id of the parameter with the given name, to be used with the
+     * int overloads of the getters and setters. Ids are valid until a parameter
+     * is removed. Throws an exception if the parameter is not found.
+     * @param name
+     * @return the id of the parameter
+     */
+    public int parameterId(String name) {
+        Integer id = parameterIds.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException("AnimatorControllerParameter not found: " + name);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the parameter with the given name, or -1 if the
+     * parameter is not found.
+     */
+    protected int findParameterId(String name) {
+        Integer id = parameterIds.get(name);
+        return (id == null) ? -1 : id;
+    }
+
     /**
      * Returns the value of the given float parameter.
      * @param name
      * @return
      */
     public float getFloat(String name) {
-        AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Float);
-        return param.defaultFloat;
+        return getFloat(parameterId(name));
+    }
+
+    /**
+     * Returns the value of the given float parameter.
+     * @param id - The id of the parameter.
+     * @return
+     */
+    public float getFloat(int id) {
+        checkType(id, AnimatorControllerParameterType.Float);
+        return floatValues[id];
     }
 
     /**
@@ -151,8 +320,20 @@ public class AnimatorController extends AbstractControl {
      * @param value
      */
     public void setFloat(String name, float value) {
-        AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Float);
-        param.defaultFloat = value;
+        setFloat(parameterId(name), value);
+    }
+
+    /**
+     * Send float values to the Animator to affect transitions.
+     * @param id - The id of the parameter.
+     * @param value
+     */
+    public void setFloat(int id, float value) {
+        checkType(id, AnimatorControllerParameterType.Float);
+        if (floatValues[id] != value) {
+            floatValues[id] = value;
+            markDirty(id);
+        }
     }
 
     /**
@@ -161,8 +342,17 @@ public class AnimatorController extends AbstractControl {
      * @return
      */
     public int getInt(String name) {
-        AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Int);
-        return param.defaultInt;
+        return getInt(parameterId(name));
+    }
+
+    /**
+     * Returns the value of the given integer parameter.
+     * @param id - The id of the parameter.
+     * @return
+     */
+    public int getInt(int id) {
+        checkType(id, AnimatorControllerParameterType.Int);
+        return intValues[id];
     }
 
     /**
@@ -171,8 +361,20 @@ public class AnimatorController extends AbstractControl {
      * @param value
      */
     public void setInt(String name, int value) {
-        AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Int);
-        param.defaultInt = value;
+        setInt(parameterId(name), value);
+    }
+
+    /**
+     * Sets the value of the given integer parameter.
+     * @param id - The id of the parameter.
+     * @param value
+     */
+    public void setInt(int id, int value) {
+        checkType(id, AnimatorControllerParameterType.Int);
+        if (intValues[id] != value) {
+            intValues[id] = value;
+            markDirty(id);
+        }
     }
 
     /**
@@ -181,8 +383,17 @@ public class AnimatorController extends AbstractControl {
      * @return
      */
     public boolean getBool(String name) {
-        AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Bool);
-        return param.defaultBool;
+        return getBool(parameterId(name));
+    }
+
+    /**
+     * Returns the value of the given boolean parameter.
+     * @param id - The id of the parameter.
+     * @return
+     */
+    public boolean getBool(int id) {
+        checkType(id, AnimatorControllerParameterType.Bool);
+        return boolValues[id];
     }
 
     /**
@@ -191,8 +402,20 @@ public class AnimatorController extends AbstractControl {
      * @param value
      */
     public void setBool(String name, boolean value) {
-        AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Bool);
-        param.defaultBool = value;
+        setBool(parameterId(name), value);
+    }
+
+    /**
+     * Sets the value of the given boolean parameter.
+     * @param id - The id of the parameter.
+     * @param value
+     */
+    public void setBool(int id, boolean value) {
+        checkType(id, AnimatorControllerParameterType.Bool);
+        if (boolValues[id] != value) {
+            boolValues[id] = value;
+            markDirty(id);
+        }
     }
 
     /**
@@ -200,8 +423,19 @@ public class AnimatorController extends AbstractControl {
      * @param name
      */
     public void setTrigger(String name) {
-        AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Trigger);
-        param.defaultBool = true;
+        setTrigger(parameterId(name));
+    }
+
+    /**
+     * Sets the value of the given trigger parameter.
+     * @param id - The id of the parameter.
+     */
+    public void setTrigger(int id) {
+        checkType(id, AnimatorControllerParameterType.Trigger);
+        if (!boolValues[id]) {
+            boolValues[id] = true;
+            markDirty(id);
+        }
     }
     
     /**
@@ -209,21 +443,25 @@ public class AnimatorController extends AbstractControl {
      * @param name
      */
     public void resetTrigger(String name) {
-    	AnimatorControllerParameter param = findParameter(name, AnimatorControllerParameterType.Trigger);
-        param.defaultBool = false;
+        resetTrigger(parameterId(name));
     }
 
     /**
-     * Find a parameter with the given name. 
-     * Throws an exception if the parameter is not found.
+     * Resets the value of the given trigger parameter.
+     * @param id - The id of the parameter.
      */
-    private AnimatorControllerParameter findParameter(String name, AnimatorControllerParameterType type) {
-        for (AnimatorControllerParameter param: parameters) {
-            if (param.nameHash == name.hashCode() && param.type == type) {
-                return param;
-            }
+    public void resetTrigger(int id) {
+        checkType(id, AnimatorControllerParameterType.Trigger);
+        boolValues[id] = false;
+    }
+
+    /**
+     * Throws an exception if the parameter does not have the given type.
+     */
+    private void checkType(int id, AnimatorControllerParameterType type) {
+        if (types[id] != type) {
+            throw new IllegalArgumentException("AnimatorControllerParameter " + parameters.get(id).name + " is not a " + type);
         }
-        throw new IllegalArgumentException("AnimatorControllerParameter not found: " + name);
     }
 
 }
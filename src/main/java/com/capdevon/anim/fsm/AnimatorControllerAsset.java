@@ -0,0 +1,337 @@
+package com.capdevon.anim.fsm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.capdevon.anim.AnimUtils;
+import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
+import com.jme3.anim.AnimationMask;
+import com.jme3.anim.Armature;
+import com.jme3.anim.Joint;
+import com.jme3.scene.Spatial;
+
+/**
+ * The immutable definition of an animator controller: the parameter schema,
+ * the layers, their states and the compiled transitions. An asset is shared
+ * by all the {@link AnimatorInstance}s that play it, which only hold the
+ * values of the parameters and the current state of each layer.
+ * <p>
+ * An asset is compiled from a controller built with the authoring API (see
+ * {@link #compile(AnimatorController)}); later edits of the controller do not
+ * affect it. It can also be saved in a binary file and loaded through the
+ * AssetManager (see {@link AnimatorControllerSerializer}).
+ * <p>
+ * The layer masks are stored as joint names, so that each instance builds its
+ * own mask from the armature of its model.
+ *
+ * @author capdevon
+ */
+public final class AnimatorControllerAsset {
+
+    // parameter schema, by id
+    final String[] parameterNames;
+    final AnimatorControllerParameterType[] parameterTypes;
+    final float[] defaultFloats;
+    final int[] defaultInts;
+    final boolean[] defaultBools;
+    private final Map<String, Integer> parameterIds = new HashMap<>();
+
+    final Layer[] layers;
+    // the total number of transitions, and the transitions that read each parameter.
+    final int numTransitions;
+    final int[][] parameterDependents;
+
+    AnimatorControllerAsset(String[] parameterNames, AnimatorControllerParameterType[] parameterTypes,
+            float[] defaultFloats, int[] defaultInts, boolean[] defaultBools, Layer[] layers) {
+        this.parameterNames = parameterNames;
+        this.parameterTypes = parameterTypes;
+        this.defaultFloats = defaultFloats;
+        this.defaultInts = defaultInts;
+        this.defaultBools = defaultBools;
+        this.layers = layers;
+        for (int id = 0; id < parameterNames.length; id++) {
+            parameterIds.put(parameterNames[id], id);
+        }
+
+        // reverse index from the parameters to the transitions.
+        List<List<Integer>> dependents = new ArrayList<>();
+        for (int id = 0; id < parameterNames.length; id++) {
+            dependents.add(new ArrayList<>());
+        }
+        int count = 0;
+        for (Layer layer : layers) {
+            for (State state : layer.states) {
+                TransitionTable table = state.table;
+                for (int t = 0; t < table.size; t++) {
+                    for (int c = table.conditionStart[t]; c < table.conditionStart[t + 1]; c++) {
+                        if (table.ops[c] != TransitionTable.OP_FALSE) {
+                            dependents.get(table.paramIds[c]).add(table.base + t);
+                        }
+                    }
+                }
+                count += table.size;
+            }
+        }
+        this.numTransitions = count;
+        this.parameterDependents = new int[dependents.size()][];
+        for (int id = 0; id < parameterDependents.length; id++) {
+            List<Integer> list = dependents.get(id);
+            parameterDependents[id] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                parameterDependents[id][i] = list.get(i);
+            }
+        }
+    }
+
+    /**
+     * Compiles the graph of the given controller. The transitions that are
+     * muted are left out.
+     *
+     * @param animator - The authoring controller.
+     * @return the asset
+     */
+    public static AnimatorControllerAsset compile(AnimatorController animator) {
+        int numParameters = animator.parameters.size();
+        String[] names = new String[numParameters];
+        AnimatorControllerParameterType[] types = new AnimatorControllerParameterType[numParameters];
+        float[] floats = new float[numParameters];
+        int[] ints = new int[numParameters];
+        boolean[] bools = new boolean[numParameters];
+        for (int id = 0; id < numParameters; id++) {
+            AnimatorControllerParameter param = animator.parameters.get(id);
+            names[id] = param.name;
+            types[id] = param.type;
+            floats[id] = param.defaultFloat;
+            ints[id] = param.defaultInt;
+            bools[id] = param.defaultBool;
+        }
+
+        Layer[] layers = new Layer[animator.layers.size()];
+        int base = 0;
+        for (int l = 0; l < layers.length; l++) {
+            AnimatorControllerLayer source = animator.layers.get(l);
+            List<AnimatorState> sourceStates = source.stateMachine.getAllStates();
+
+            Map<AnimatorState, Integer> indices = new IdentityHashMap<>();
+            for (int i = 0; i < sourceStates.size(); i++) {
+                indices.put(sourceStates.get(i), i);
+            }
+
+            State[] states = new State[sourceStates.size()];
+            for (int i = 0; i < states.length; i++) {
+                AnimatorState state = sourceStates.get(i);
+                TransitionTable table = TransitionTable.compile(state.transitions, animator, base);
+                states[i] = new State(state, table, indices, animator);
+                base += table.size;
+            }
+            String[] maskJoints = (source.avatarMask != null) ? maskJoints(animator, source.avatarMask) : null;
+            layers[l] = new Layer(source.name, maskJoints, states);
+        }
+
+        return new AnimatorControllerAsset(names, types, floats, ints, bools, layers);
+    }
+
+    /**
+     * @return the names of the joints of the armature of the controller that
+     *         are affected by the mask
+     */
+    private static String[] maskJoints(AnimatorController animator, AnimationMask mask) {
+        Spatial model = animator.animComposer.getSpatial();
+        if (model == null) {
+            throw new IllegalArgumentException("A layer mask requires an AnimComposer attached to a model");
+        }
+        Armature armature = AnimUtils.getSkeletonControl(model).getArmature();
+        List<String> names = new ArrayList<>();
+        for (Joint joint : armature.getJointList()) {
+            if (mask.contains(joint)) {
+                names.add(joint.getName());
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the id of the parameter with the given name.
+     * Throws an exception if the parameter is not found.
+     * @param name
+     * @return the id of the parameter
+     */
+    public int parameterId(String name) {
+        Integer id = parameterIds.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException("AnimatorControllerParameter not found: " + name);
+        }
+        return id;
+    }
+
+    public int getParameterCount() {
+        return parameterNames.length;
+    }
+
+    public String getParameterName(int id) {
+        return parameterNames[id];
+    }
+
+    public AnimatorControllerParameterType getParameterType(int id) {
+        return parameterTypes[id];
+    }
+
+    public int getLayerCount() {
+        return layers.length;
+    }
+
+    public String getLayerName(int layer) {
+        return layers[layer].name;
+    }
+
+    /**
+     * @param layer - The index of the layer.
+     * @return the names of the joints affected by the mask of the layer, or
+     *         null if the layer has no mask
+     */
+    public String[] getLayerMaskJoints(int layer) {
+        String[] joints = layers[layer].maskJoints;
+        return (joints != null) ? joints.clone() : null;
+    }
+
+    /**
+     * @param layer - The index of the layer.
+     * @return the number of states of the layer, the AnyState included
+     */
+    public int getStateCount(int layer) {
+        return layers[layer].states.length;
+    }
+
+    public String getStateName(int layer, int state) {
+        return layers[layer].states[state].name;
+    }
+
+    /**
+     * ---- @class Layer ----
+     */
+    static final class Layer {
+
+        final String name;
+        // the joints affected by the mask (null = no mask).
+        final String[] maskJoints;
+        // states[0] is the AnyState.
+        final State[] states;
+
+        Layer(String name, String[] maskJoints, State[] states) {
+            this.name = name;
+            this.maskJoints = maskJoints;
+            this.states = states;
+        }
+    }
+
+    /**
+     * ---- @class State ----
+     */
+    static final class State {
+
+        final String name;
+        // the name of the action (clip name or blend tree state name), null if none.
+        final String actionName;
+        final float speed;
+
+        // Simple1D blend tree (clips == null if the motion is a clip).
+        final String[] clips;
+        final float minThreshold;
+        final float maxThreshold;
+        final float[] childThresholds;
+        final float[] childTimeScales;
+        final int blendParameterId;
+
+        // the outgoing transitions, by index in the table.
+        final TransitionTable table;
+        final int[] destinations;
+        final float[] durations;
+        final float[] offsets;
+        final float[] exitTimes;
+        final boolean[] hasExitTime;
+
+        State(String name, String actionName, float speed,
+                String[] clips, float minThreshold, float maxThreshold,
+                float[] childThresholds, float[] childTimeScales, int blendParameterId,
+                TransitionTable table, int[] destinations, float[] durations, float[] offsets,
+                float[] exitTimes, boolean[] hasExitTime) {
+            this.name = name;
+            this.actionName = actionName;
+            this.speed = speed;
+            this.clips = clips;
+            this.minThreshold = minThreshold;
+            this.maxThreshold = maxThreshold;
+            this.childThresholds = childThresholds;
+            this.childTimeScales = childTimeScales;
+            this.blendParameterId = blendParameterId;
+            this.table = table;
+            this.destinations = destinations;
+            this.durations = durations;
+            this.offsets = offsets;
+            this.exitTimes = exitTimes;
+            this.hasExitTime = hasExitTime;
+        }
+
+        State(AnimatorState state, TransitionTable table, Map<AnimatorState, Integer> indices, AnimatorController animator) {
+            this.name = state.name;
+            this.actionName = state.motion != null ? state.motion.name : null;
+            this.speed = state.speed;
+
+            if (state.motion instanceof BlendTree) {
+                BlendTree tree = (BlendTree) state.motion;
+                this.clips = tree.getAnimMotionsNames();
+                this.minThreshold = tree.minThreshold;
+                this.maxThreshold = tree.maxThreshold;
+                this.childThresholds = new float[clips.length];
+                this.childTimeScales = new float[clips.length];
+                for (int i = 0; i < clips.length; i++) {
+                    childThresholds[i] = tree.motions.get(i).threshold;
+                    childTimeScales[i] = tree.motions.get(i).timeScale;
+                }
+                this.blendParameterId = animator.parameterId(tree.blendParameter);
+            } else {
+                this.clips = null;
+                this.minThreshold = 0;
+                this.maxThreshold = 0;
+                this.childThresholds = null;
+                this.childTimeScales = null;
+                this.blendParameterId = -1;
+            }
+
+            this.table = table.detach();
+            int size = table.size;
+            this.destinations = new int[size];
+            this.durations = new float[size];
+            this.offsets = new float[size];
+            this.exitTimes = new float[size];
+            this.hasExitTime = new boolean[size];
+            for (int t = 0; t < size; t++) {
+                AnimatorStateTransition transition = table.transitions[t];
+                Integer destination = indices.get(transition.destinationState);
+                if (destination == null) {
+                    throw new IllegalArgumentException("Transition from " + state.name
+                            + " to a state of another layer: " + transition.destinationState.name);
+                }
+                destinations[t] = destination;
+                durations[t] = transition.duration;
+                offsets[t] = transition.offset;
+                exitTimes[t] = transition.exitTime;
+                hasExitTime[t] = transition.hasExitTime;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        List<String> names = new ArrayList<>();
+        for (Layer layer : layers) {
+            names.add(layer.name + ":" + layer.states.length);
+        }
+        return "AnimatorControllerAsset [parameters=" + parameterNames.length + ", layers=" + names
+                + ", transitions=" + numTransitions + "]";
+    }
+
+}
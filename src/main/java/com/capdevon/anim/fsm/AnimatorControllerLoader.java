@@ -0,0 +1,54 @@
+package com.capdevon.anim.fsm;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoader;
+import com.jme3.asset.AssetManager;
+
+/**
+ * Loads the {@link AnimatorControllerAsset} files written by
+ * {@link AnimatorControllerSerializer} through the AssetManager.
+ * <p>
+ * The assets are immutable, so the AssetManager caches them and returns the
+ * same instance to every caller: a controller used by many characters is
+ * parsed once.
+ * <pre>
+ * AnimatorControllerLoader.register(assetManager);
+ * AnimatorControllerAsset asset = AnimatorControllerLoader.load(assetManager, "Animators/Soldier.animc");
+ * </pre>
+ *
+ * @author capdevon
+ */
+public class AnimatorControllerLoader implements AssetLoader {
+
+    public static final String EXTENSION = "animc";
+
+    /**
+     * Registers the loader for the {@value #EXTENSION} files.
+     * @param assetManager
+     */
+    public static void register(AssetManager assetManager) {
+        assetManager.registerLoader(AnimatorControllerLoader.class, EXTENSION);
+    }
+
+    /**
+     * Loads an asset, or returns the cached instance.
+     * @param assetManager
+     * @param name - The path of the file.
+     * @return the asset
+     */
+    public static AnimatorControllerAsset load(AssetManager assetManager, String name) {
+        return assetManager.loadAsset(new AssetKey<AnimatorControllerAsset>(name));
+    }
+
+    @Override
+    public Object load(AssetInfo assetInfo) throws IOException {
+        try (InputStream in = assetInfo.openStream()) {
+            return AnimatorControllerSerializer.read(in);
+        }
+    }
+
+}
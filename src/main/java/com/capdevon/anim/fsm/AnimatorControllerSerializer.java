@@ -0,0 +1,290 @@
+package com.capdevon.anim.fsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.capdevon.anim.fsm.AnimatorControllerAsset.Layer;
+import com.capdevon.anim.fsm.AnimatorControllerAsset.State;
+import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
+
+/**
+ * Reads and writes an {@link AnimatorControllerAsset} in a compact, versioned
+ * binary format (big-endian, strings in modified UTF-8):
+ * <pre>
+ * file:       magic(4) version(4) parameters layers
+ * parameters: count(4) { name type(1) defaultFloat(4) defaultInt(4) defaultBool(1) }
+ * layers:     count(4) { name maskJoints(4, -1 = no mask) { joint } states }
+ * states:     count(4) { name hasAction(1) [action] speed(4)
+ *                        clips(4, -1 = clip) { clip threshold(4) timeScale(4) } [min(4) max(4) blendParameter(4)]
+ *                        transitions(4) { destination(4) duration(4) offset(4) exitTime(4) hasExitTime(1)
+ *                                         conditions(4) { parameter(4) op(1) threshold(4) } } }
+ * </pre>
+ * The states of a layer are numbered from 0 (the AnyState), the parameters by
+ * id; the conditions are stored compiled (see TransitionTable).
+ * <p>
+ * The files are loaded through the AssetManager by an
+ * {@link AnimatorControllerLoader}.
+ *
+ * @author capdevon
+ */
+public final class AnimatorControllerSerializer {
+
+    private static final int MAGIC = 0x414E4943; // "ANIC"
+    public static final int VERSION = 1;
+
+    private AnimatorControllerSerializer() {
+    }
+
+    /**
+     * Writes the asset to the stream; the stream is not closed.
+     *
+     * @param asset
+     * @param output
+     * @throws IOException
+     */
+    public static void write(AnimatorControllerAsset asset, OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeInt(asset.parameterNames.length);
+        for (int id = 0; id < asset.parameterNames.length; id++) {
+            out.writeUTF(asset.parameterNames[id]);
+            out.writeByte(asset.parameterTypes[id].ordinal());
+            out.writeFloat(asset.defaultFloats[id]);
+            out.writeInt(asset.defaultInts[id]);
+            out.writeBoolean(asset.defaultBools[id]);
+        }
+
+        out.writeInt(asset.layers.length);
+        for (Layer layer : asset.layers) {
+            out.writeUTF(layer.name);
+            if (layer.maskJoints == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(layer.maskJoints.length);
+                for (String joint : layer.maskJoints) {
+                    out.writeUTF(joint);
+                }
+            }
+
+            out.writeInt(layer.states.length);
+            for (State state : layer.states) {
+                writeState(state, out);
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeState(State state, DataOutputStream out) throws IOException {
+        out.writeUTF(state.name);
+        out.writeBoolean(state.actionName != null);
+        if (state.actionName != null) {
+            out.writeUTF(state.actionName);
+        }
+        out.writeFloat(state.speed);
+
+        if (state.clips == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(state.clips.length);
+            for (int i = 0; i < state.clips.length; i++) {
+                out.writeUTF(state.clips[i]);
+                out.writeFloat(state.childThresholds[i]);
+                out.writeFloat(state.childTimeScales[i]);
+            }
+            out.writeFloat(state.minThreshold);
+            out.writeFloat(state.maxThreshold);
+            out.writeInt(state.blendParameterId);
+        }
+
+        TransitionTable table = state.table;
+        out.writeInt(table.size);
+        for (int t = 0; t < table.size; t++) {
+            out.writeInt(state.destinations[t]);
+            out.writeFloat(state.durations[t]);
+            out.writeFloat(state.offsets[t]);
+            out.writeFloat(state.exitTimes[t]);
+            out.writeBoolean(state.hasExitTime[t]);
+
+            int start = table.conditionStart[t];
+            int end = table.conditionStart[t + 1];
+            out.writeInt(end - start);
+            for (int c = start; c < end; c++) {
+                out.writeInt(table.paramIds[c]);
+                out.writeByte(table.ops[c]);
+                out.writeFloat(table.thresholds[c]);
+            }
+        }
+    }
+
+    /**
+     * Reads an asset from the stream; the stream is not closed.
+     *
+     * @param input
+     * @return the asset
+     * @throws IOException if the data is not a valid asset of a supported version
+     */
+    public static AnimatorControllerAsset read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an AnimatorController file");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported AnimatorController file version: " + version);
+        }
+
+        AnimatorControllerParameterType[] allTypes = AnimatorControllerParameterType.values();
+        int numParameters = readCount(in);
+        String[] names = new String[numParameters];
+        AnimatorControllerParameterType[] types = new AnimatorControllerParameterType[numParameters];
+        float[] floats = new float[numParameters];
+        int[] ints = new int[numParameters];
+        boolean[] bools = new boolean[numParameters];
+        for (int id = 0; id < numParameters; id++) {
+            names[id] = in.readUTF();
+            types[id] = allTypes[checkIndex(in.readByte(), allTypes.length)];
+            floats[id] = in.readFloat();
+            ints[id] = in.readInt();
+            bools[id] = in.readBoolean();
+        }
+
+        Layer[] layers = new Layer[readCount(in)];
+        int base = 0;
+        for (int l = 0; l < layers.length; l++) {
+            String name = in.readUTF();
+            String[] maskJoints = null;
+            int numJoints = in.readInt();
+            if (numJoints >= 0) {
+                maskJoints = new String[numJoints];
+                for (int i = 0; i < numJoints; i++) {
+                    maskJoints[i] = in.readUTF();
+                }
+            }
+
+            State[] states = new State[readCount(in)];
+            if (states.length == 0) {
+                throw new IOException("Corrupt AnimatorController file: layer " + name + " has no AnyState");
+            }
+            for (int i = 0; i < states.length; i++) {
+                states[i] = readState(in, base, states.length, types);
+                base += states[i].table.size;
+            }
+            layers[l] = new Layer(name, maskJoints, states);
+        }
+
+        return new AnimatorControllerAsset(names, types, floats, ints, bools, layers);
+    }
+
+    private static State readState(DataInputStream in, int base, int numStates, AnimatorControllerParameterType[] types) throws IOException {
+        String name = in.readUTF();
+        String actionName = in.readBoolean() ? in.readUTF() : null;
+        float speed = in.readFloat();
+
+        String[] clips = null;
+        float[] childThresholds = null;
+        float[] childTimeScales = null;
+        float minThreshold = 0, maxThreshold = 0;
+        int blendParameterId = -1;
+        int numClips = in.readInt();
+        if (numClips >= 0) {
+            clips = new String[numClips];
+            childThresholds = new float[numClips];
+            childTimeScales = new float[numClips];
+            for (int i = 0; i < numClips; i++) {
+                clips[i] = in.readUTF();
+                childThresholds[i] = in.readFloat();
+                childTimeScales[i] = in.readFloat();
+            }
+            minThreshold = in.readFloat();
+            maxThreshold = in.readFloat();
+            blendParameterId = checkParameter(in.readInt(), AnimatorControllerParameterType.Float, types);
+        }
+
+        int size = readCount(in);
+        int[] destinations = new int[size];
+        float[] durations = new float[size];
+        float[] offsets = new float[size];
+        float[] exitTimes = new float[size];
+        boolean[] hasExitTime = new boolean[size];
+        int[] conditionStart = new int[size + 1];
+        int[] paramIds = new int[0];
+        byte[] ops = new byte[0];
+        float[] thresholds = new float[0];
+
+        int c = 0;
+        for (int t = 0; t < size; t++) {
+            destinations[t] = checkIndex(in.readInt(), numStates);
+            durations[t] = in.readFloat();
+            offsets[t] = in.readFloat();
+            exitTimes[t] = in.readFloat();
+            hasExitTime[t] = in.readBoolean();
+
+            conditionStart[t] = c;
+            int numConditions = readCount(in);
+            if (c + numConditions > paramIds.length) {
+                int capacity = Math.max(c + numConditions, paramIds.length * 2);
+                paramIds = Arrays.copyOf(paramIds, capacity);
+                ops = Arrays.copyOf(ops, capacity);
+                thresholds = Arrays.copyOf(thresholds, capacity);
+            }
+            for (int i = 0; i < numConditions; i++, c++) {
+                int paramId = in.readInt();
+                byte op = (byte) checkIndex(in.readByte(), TransitionTable.OP_TRIGGER + 1);
+                if (op == TransitionTable.OP_FALSE) {
+                    // the condition on a missing parameter reads id 0, there may be no parameters.
+                    if (paramId != 0) {
+                        checkIndex(paramId, types.length);
+                    }
+                } else {
+                    checkParameter(paramId, TransitionTable.paramType(op), types);
+                }
+                paramIds[c] = paramId;
+                ops[c] = op;
+                thresholds[c] = in.readFloat();
+            }
+        }
+        conditionStart[size] = c;
+
+        TransitionTable table = new TransitionTable(base, null, size, conditionStart,
+                Arrays.copyOf(paramIds, c), Arrays.copyOf(ops, c), Arrays.copyOf(thresholds, c));
+        return new State(name, actionName, speed, clips, minThreshold, maxThreshold,
+                childThresholds, childTimeScales, blendParameterId,
+                table, destinations, durations, offsets, exitTimes, hasExitTime);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt AnimatorController file: negative count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Throws an exception if the id is not the one of a parameter of the given
+     * type.
+     */
+    private static int checkParameter(int id, AnimatorControllerParameterType type, AnimatorControllerParameterType[] types) throws IOException {
+        checkIndex(id, types.length);
+        if (types[id] != type) {
+            throw new IOException("Corrupt AnimatorController file: parameter " + id + " is a " + types[id] + ", not a " + type);
+        }
+        return id;
+    }
+
+    private static int checkIndex(int index, int length) throws IOException {
+        if (index < 0 || index >= length) {
+            throw new IOException("Corrupt AnimatorController file: index " + index + " out of range [0, " + length + ")");
+        }
+        return index;
+    }
+
+}
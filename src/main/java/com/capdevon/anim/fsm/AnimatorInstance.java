@@ -0,0 +1,405 @@
+package com.capdevon.anim.fsm;
+
+import java.util.Arrays;
+
+import com.capdevon.anim.AnimMaskBuilder;
+import com.capdevon.anim.AnimUtils;
+import com.capdevon.anim.fsm.AnimatorControllerAsset.Layer;
+import com.capdevon.anim.fsm.AnimatorControllerAsset.State;
+import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
+import com.jme3.anim.AnimComposer;
+import com.jme3.anim.AnimationMask;
+import com.jme3.anim.tween.action.Action;
+import com.jme3.anim.tween.action.LinearBlendSpace;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.control.AbstractControl;
+
+/**
+ * Plays a shared {@link AnimatorControllerAsset} on a model. An instance holds
+ * only what changes per character: the parameter values, the current state
+ * and pending exit-time check of each layer and the dirty transitions; the graph
+ * is read from the asset, so a crowd of characters costs one copy of it.
+ * <p>
+ * The StateMachineBehaviours and StateMachineListeners of the authoring
+ * controller are not part of the asset: use an {@link AnimatorController}
+ * for the characters that need them.
+ * <p>
+ * An instance updates itself, or is evaluated with the others on several
+ * threads when it is registered to an {@link AnimatorSystemAppState}.
+ *
+ * @author capdevon
+ */
+public class AnimatorInstance extends AbstractControl {
+
+    private final AnimatorControllerAsset asset;
+    private final AnimComposer animComposer;
+
+    //The parameter values, indexed by id (Bool and Trigger share boolValues).
+    private final float[] floatValues;
+    private final int[] intValues;
+    private final boolean[] boolValues;
+    //A transition is dirty when a parameter it reads changed since it was last found false (by global index).
+    private final boolean[] dirtyTransitions;
+    //The current state of each layer (0 = AnyState).
+    private final int[] currentStates;
+    //The normalized time of the current state at which its exit-time transitions must be checked, by layer.
+    private final float[] exitCheckTimes;
+    //The normalized time of the current state at the last check, by layer.
+    private final double[] lastNormalizedTimes;
+    //The changes to the AnimComposer found by the last evaluation.
+    final AnimatorCommandBuffer commands;
+    //The AnimatorSystemAppState that updates this instance, if any.
+    AnimatorSystemAppState system;
+
+    /**
+     * Constructor: creates the layers and the actions of the asset in the
+     * given AnimComposer.
+     * @param asset
+     * @param animComposer
+     */
+    public AnimatorInstance(AnimatorControllerAsset asset, AnimComposer animComposer) {
+        this.asset = asset;
+        this.animComposer = animComposer;
+        this.floatValues = asset.defaultFloats.clone();
+        this.intValues = asset.defaultInts.clone();
+        this.boolValues = asset.defaultBools.clone();
+        this.dirtyTransitions = new boolean[asset.numTransitions];
+        Arrays.fill(dirtyTransitions, true);
+        this.currentStates = new int[asset.layers.length];
+        this.exitCheckTimes = new float[asset.layers.length];
+        Arrays.fill(exitCheckTimes, Float.POSITIVE_INFINITY);
+        this.lastNormalizedTimes = new double[asset.layers.length];
+
+        String[] layerNames = new String[asset.layers.length];
+        for (int l = 0; l < layerNames.length; l++) {
+            layerNames[l] = asset.layers[l].name;
+        }
+        this.commands = new AnimatorCommandBuffer(layerNames);
+
+        for (Layer layer : asset.layers) {
+            if (!AnimComposer.DEFAULT_LAYER.equals(layer.name)) {
+                animComposer.makeLayer(layer.name, createMask(layer));
+            }
+            for (State state : layer.states) {
+                createAction(state);
+            }
+        }
+    }
+
+    private AnimationMask createMask(Layer layer) {
+        if (layer.maskJoints == null) {
+            return null;
+        }
+        AnimMaskBuilder mask = new AnimMaskBuilder(AnimUtils.getSkeletonControl(animComposer.getSpatial()).getArmature());
+        return mask.addJoints(layer.maskJoints);
+    }
+
+    private void createAction(State state) {
+        if (state.actionName == null || animComposer.getAction(state.actionName) != null) {
+            return;
+        }
+        if (state.clips != null) {
+            LinearBlendSpace blendSpace = new LinearBlendSpace(state.minThreshold, state.maxThreshold);
+            animComposer.actionBlended(state.actionName, blendSpace, state.clips);
+        } else {
+            animComposer.action(state.actionName);
+        }
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        if (system == null) {
+            evaluate(tpf);
+            commands.apply(animComposer);
+        }
+    }
+
+    /**
+     * InternalCall: advances the state machines and records the changes to
+     * the AnimComposer in {@link #commands}. The AnimComposer is only read,
+     * so the instances can be evaluated in parallel.
+     * @param tpf
+     */
+    void evaluate(float tpf) {
+        AnimatorUpdateEvent event = new AnimatorUpdateEvent();
+        event.begin();
+
+        for (int l = 0; l < currentStates.length; l++) {
+            updateLayer(l, tpf);
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.controller = spatial.getName();
+            event.layers = currentStates.length;
+            event.commit();
+        }
+    }
+
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+    }
+
+    private void updateLayer(int l, float tpf) {
+        Layer layer = asset.layers[l];
+        State state = layer.states[currentStates[l]];
+        int next = checkTransitions(l, state, isExitDue(l, state));
+
+        if (next != currentStates[l]) {
+            exitCheckTimes[l] = Float.POSITIVE_INFINITY;
+            currentStates[l] = next;
+            state = layer.states[next];
+            TransitionTable table = state.table;
+            for (int t = 0; t < table.size; t++) {
+                dirtyTransitions[table.base + t] = true;
+            }
+        }
+
+        if (state.clips != null) {
+            updateBlendTree(l, state);
+        }
+    }
+
+    /**
+     * Only the dirty transitions are checked (a clean transition is known to
+     * be false), plus the exit-time transitions when their exit time is due.
+     * @return the index of the next state
+     */
+    private int checkTransitions(int l, State state, boolean exitDue) {
+        String layerName = asset.layers[l].name;
+        TransitionTable table = state.table;
+
+        for (int t = 0; t < table.size; t++) {
+            int index = table.base + t;
+            if (!dirtyTransitions[index] && !(exitDue && state.hasExitTime[t])) {
+                continue;
+            }
+            if (!table.checkConditions(t, floatValues, intValues, boolValues)) {
+                dirtyTransitions[index] = false;
+                continue;
+            }
+            if (state.hasExitTime[t] && state.actionName != null) {
+                double time = getNormalizedTime(l, state);
+                if (time <= state.exitTimes[t]) {
+                    // the conditions hold: wait for the exit time instead of polling.
+                    dirtyTransitions[index] = false;
+                    exitCheckTimes[l] = Math.min(exitCheckTimes[l], state.exitTimes[t]);
+                    lastNormalizedTimes[l] = time;
+                    continue;
+                }
+            }
+
+            table.consumeTriggers(t, boolValues);
+
+            // do transition
+            int next = state.destinations[t];
+            State nextState = asset.layers[l].states[next];
+            int trigger = table.triggerParameter(t);
+            StateTransitionEvent.commit(spatial, layerName, state.name, nextState.name,
+                    (trigger < 0) ? null : asset.parameterNames[trigger]);
+
+            // Some states may not have an associated animation.
+            if (nextState.actionName != null) {
+                commands.play(l, nextState.actionName, nextState.speed, state.durations[t], state.offsets[t]);
+            } else {
+                // In this case, remove the previous state animation from the layer.
+                commands.stop(l);
+            }
+            return next;
+        }
+        return currentStates[l];
+    }
+
+    /**
+     * As in AnimatorStateMachine, the clip time is compared with the
+     * scheduled one, whatever the speed of the action.
+     * @return true if the scheduled exit check of the layer is due
+     */
+    private boolean isExitDue(int l, State state) {
+        if (exitCheckTimes[l] == Float.POSITIVE_INFINITY) {
+            return false;
+        }
+        double time = getNormalizedTime(l, state);
+        // the animation looped (or plays backwards) since the last check.
+        boolean due = time >= exitCheckTimes[l] || time < lastNormalizedTimes[l];
+        lastNormalizedTimes[l] = time;
+        if (due) {
+            exitCheckTimes[l] = Float.POSITIVE_INFINITY;
+        }
+        return due;
+    }
+
+    /**
+     * @return the time of the animation of the state on the layer divided by
+     *         its length
+     */
+    private double getNormalizedTime(int l, State state) {
+        Action action = animComposer.getAction(state.actionName);
+        double length = action.getLength();
+        return (length > 0) ? animComposer.getTime(asset.layers[l].name) / length : Double.POSITIVE_INFINITY;
+    }
+
+    private void updateBlendTree(int l, State state) {
+        BlendTreeEvent event = new BlendTreeEvent();
+        event.begin();
+
+        float value = floatValues[state.blendParameterId];
+        float speed = Float.NaN;
+
+        // The children are sorted in ascending order by threshold.
+        for (int i = 0; i < state.childThresholds.length; i++) {
+            if (value < state.childThresholds[i]) {
+                speed = state.childTimeScales[i];
+                break;
+            }
+        }
+        commands.blend(l, state.actionName, value, speed);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.controller = spatial.getName();
+            event.state = state.name;
+            event.blendValue = value;
+            event.speed = speed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Marks dirty the transitions that read the given parameter.
+     */
+    private void markDirty(int id) {
+        for (int index : asset.parameterDependents[id]) {
+            dirtyTransitions[index] = true;
+        }
+    }
+
+    public AnimatorControllerAsset getAsset() {
+        return asset;
+    }
+
+    public AnimComposer getAnimComposer() {
+        return animComposer;
+    }
+
+    /**
+     * @return the AnimatorSystemAppState that updates this instance, or null
+     *         if it updates itself
+     */
+    public AnimatorSystemAppState getSystem() {
+        return system;
+    }
+
+    /**
+     * @param layer - The index of the layer.
+     * @return the name of the current state of the layer
+     */
+    public String getCurrentStateName(int layer) {
+        return asset.layers[layer].states[currentStates[layer]].name;
+    }
+
+    /**
+     * Returns the id of the parameter with the given name.
+     * Throws an exception if the parameter is not found.
+     * @param name
+     * @return the id of the parameter
+     */
+    public int parameterId(String name) {
+        return asset.parameterId(name);
+    }
+
+    public float getFloat(int id) {
+        checkType(id, AnimatorControllerParameterType.Float);
+        return floatValues[id];
+    }
+
+    public void setFloat(int id, float value) {
+        checkType(id, AnimatorControllerParameterType.Float);
+        if (floatValues[id] != value) {
+            floatValues[id] = value;
+            markDirty(id);
+        }
+    }
+
+    public int getInt(int id) {
+        checkType(id, AnimatorControllerParameterType.Int);
+        return intValues[id];
+    }
+
+    public void setInt(int id, int value) {
+        checkType(id, AnimatorControllerParameterType.Int);
+        if (intValues[id] != value) {
+            intValues[id] = value;
+            markDirty(id);
+        }
+    }
+
+    public boolean getBool(int id) {
+        checkType(id, AnimatorControllerParameterType.Bool);
+        return boolValues[id];
+    }
+
+    public void setBool(int id, boolean value) {
+        checkType(id, AnimatorControllerParameterType.Bool);
+        if (boolValues[id] != value) {
+            boolValues[id] = value;
+            markDirty(id);
+        }
+    }
+
+    public void setTrigger(int id) {
+        checkType(id, AnimatorControllerParameterType.Trigger);
+        if (!boolValues[id]) {
+            boolValues[id] = true;
+            markDirty(id);
+        }
+    }
+
+    public void resetTrigger(int id) {
+        checkType(id, AnimatorControllerParameterType.Trigger);
+        boolValues[id] = false;
+    }
+
+    public float getFloat(String name) {
+        return getFloat(parameterId(name));
+    }
+
+    public void setFloat(String name, float value) {
+        setFloat(parameterId(name), value);
+    }
+
+    public int getInt(String name) {
+        return getInt(parameterId(name));
+    }
+
+    public void setInt(String name, int value) {
+        setInt(parameterId(name), value);
+    }
+
+    public boolean getBool(String name) {
+        return getBool(parameterId(name));
+    }
+
+    public void setBool(String name, boolean value) {
+        setBool(parameterId(name), value);
+    }
+
+    public void setTrigger(String name) {
+        setTrigger(parameterId(name));
+    }
+
+    public void resetTrigger(String name) {
+        resetTrigger(parameterId(name));
+    }
+
+    /**
+     * Throws an exception if the parameter does not have the given type.
+     */
+    private void checkType(int id, AnimatorControllerParameterType type) {
+        if (asset.parameterTypes[id] != type) {
+            throw new IllegalArgumentException("AnimatorControllerParameter " + asset.parameterNames[id] + " is not a " + type);
+        }
+    }
+
+}
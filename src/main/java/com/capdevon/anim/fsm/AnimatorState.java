@@ -8,6 +8,7 @@ import java.util.logging.Logger;
 import com.jme3.anim.tween.action.BlendAction;
 import com.jme3.anim.tween.action.BlendableAction;
 import com.jme3.math.FastMath;
+import com.jme3.scene.Spatial;
 
 /**
  * States are the basic building blocks of a state machine. Each state contains
@@ -34,6 +35,12 @@ public class AnimatorState {
     protected List<AnimatorStateTransition> transitions = new ArrayList<>();
     //The behaviour list assigned to this state.
     protected List<StateMachineBehaviour> behaviours = new ArrayList<>();
+    //The transitions compiled for evaluation (see AnimatorController.compileGraph).
+    protected TransitionTable table;
+    //The id of the blend parameter, resolved for blendParameterName at blendParameterVersion of the graph.
+    private int blendParameterId;
+    private String blendParameterName;
+    private int blendParameterVersion = -1;
 
     /**
      * Constructor.
@@ -68,6 +75,7 @@ public class AnimatorState {
      */
     public void removeTransition(AnimatorStateTransition transition) {
         transitions.remove(transition);
+        animator.invalidateGraph();
     }
 
     /**
@@ -88,40 +96,74 @@ public class AnimatorState {
         }
 
         transitions.add(transition);
+        animator.invalidateGraph();
         return transition;
     }
 
     /**
      * InternalCall.
-     * @param layerName
+     * Only the dirty transitions are checked (a clean transition is known to
+     * be false), plus the exit-time transitions when their exit time is due.
+     * @param stateMachine - The state machine of this state.
+     * @param exitDue - The scheduled exit time has come.
      * @return
      */
-    protected AnimatorState checkTransitions(String layerName) {
-        for (AnimatorStateTransition transition: transitions) {
-            if (!transition.mute && transition.checkConditions(this, layerName)) {
-
-                // do transition
-                AnimatorState nextState = transition.destinationState;
-                String animName = nextState.motion.name;
-
-                // Some states may not have an associated animation.
-                if (animName != null) {
-                    BlendableAction action = (BlendableAction) animator.animComposer.getAction(animName);
-                    action.setSpeed(nextState.speed);
-                    action.setTransitionLength(transition.duration);
-                    animator.animComposer.setCurrentAction(animName, layerName);
-                    animator.animComposer.setTime(transition.offset);
-                } else {
-                    // In this case, remove the previous state animation from the layer.
-                    animator.animComposer.removeCurrentAction(layerName);
-                }
+    protected AnimatorState checkTransitions(AnimatorStateMachine stateMachine, boolean exitDue) {
+        String layerName = stateMachine.name;
+        boolean[] dirty = animator.dirtyTransitions;
+
+        for (int t = 0; t < table.size; t++) {
+            AnimatorStateTransition transition = table.transitions[t];
+            int index = table.base + t;
+            if (!dirty[index] && !(exitDue && transition.hasExitTime)) {
+                continue;
+            }
+            if (!table.checkConditions(t, animator.floatValues, animator.intValues, animator.boolValues)) {
+                dirty[index] = false;
+                continue;
+            }
+            if (!transition.checkExitTime(this, layerName)) {
+                // the conditions hold: wait for the exit time instead of polling.
+                dirty[index] = false;
+                stateMachine.scheduleExitCheck(transition.exitTime);
+                continue;
+            }
 
-                return nextState;
+            table.consumeTriggers(t, animator.boolValues);
+
+            // do transition
+            AnimatorState nextState = transition.destinationState;
+            int trigger = table.triggerParameter(t);
+            StateTransitionEvent.commit(animator.getSpatial(), layerName, name, nextState.name,
+                    (trigger < 0) ? null : animator.parameters.get(trigger).name);
+            String animName = nextState.motion.name;
+
+            // Some states may not have an associated animation.
+            if (animName != null) {
+                BlendableAction action = (BlendableAction) animator.animComposer.getAction(animName);
+                action.setSpeed(nextState.speed);
+                action.setTransitionLength(transition.duration);
+                animator.animComposer.setCurrentAction(animName, layerName);
+                animator.animComposer.setTime(layerName, transition.offset);
+            } else {
+                // In this case, remove the previous state animation from the layer.
+                animator.animComposer.removeCurrentAction(layerName);
             }
+
+            return nextState;
         }
         return this;
     }
 
+    /**
+     * InternalCall: the state is entered, all its transitions must be checked.
+     */
+    protected void markTransitionsDirty() {
+        for (int t = 0; t < table.size; t++) {
+            animator.dirtyTransitions[table.base + t] = true;
+        }
+    }
+
     /**
      * InternalCall
      * @param tpf
@@ -129,20 +171,41 @@ public class AnimatorState {
     protected void update(float tpf) {
 
         if (motion instanceof BlendTree) {
+            BlendTreeEvent event = new BlendTreeEvent();
+            event.begin();
+
             // Update blend value
             BlendTree blendTree = (BlendTree) motion;
             BlendAction action = (BlendAction) animator.animComposer.getAction(blendTree.name);
-            float value = animator.getFloat(blendTree.blendParameter);
+            // the ids of the parameters change when one is removed.
+            if (blendTree.blendParameter != blendParameterName || animator.graphVersion != blendParameterVersion) {
+                blendParameterId = animator.parameterId(blendTree.blendParameter);
+                blendParameterName = blendTree.blendParameter;
+                blendParameterVersion = animator.graphVersion;
+            }
+            float value = animator.getFloat(blendParameterId);
             action.getBlendSpace().setValue(value);
 
             // The order of the children is important.
             // They are supposed to be sorted in ascending order by threshold.
+            float speed = Float.NaN;
             for (ChildMotion childMotion: blendTree.motions) {
                 if (value < childMotion.threshold) {
-                    action.setSpeed(childMotion.timeScale);
+                    speed = childMotion.timeScale;
+                    action.setSpeed(speed);
                     break;
                 }
             }
+
+            event.end();
+            if (event.shouldCommit()) {
+                Spatial spatial = animator.getSpatial();
+                event.controller = (spatial != null) ? spatial.getName() : null;
+                event.state = name;
+                event.blendValue = value;
+                event.speed = speed;
+                event.commit();
+            }
         }
     }
 
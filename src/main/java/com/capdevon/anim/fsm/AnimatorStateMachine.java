@@ -38,6 +38,10 @@ public class AnimatorStateMachine {
     protected Map<String, AnimatorState> states = new HashMap<>();
     //The list of listeners.
     protected List<StateMachineListener> listeners = new ArrayList<>();
+    //The normalized time of the current state at which its exit-time transitions must be checked.
+    private float exitCheckTime = Float.POSITIVE_INFINITY;
+    //The normalized time of the current state at the last check.
+    private double lastNormalizedTime;
 
     /**
      * Constructor.
@@ -95,7 +99,7 @@ public class AnimatorStateMachine {
         LinearBlendSpace blendSpace = new LinearBlendSpace(blendTree.minThreshold, blendTree.maxThreshold);
         String[] clips = blendTree.getAnimMotionsNames();
         BlendAction action = animator.animComposer.actionBlended(stateName, blendSpace, clips);
-        logger.log(Level.INFO, "BlendAction created: " + stateName);
+        logger.log(Level.FINE, "BlendAction created: {0}", stateName);
 
         blendTree.name = stateName;
         return addState(stateName, blendTree);
@@ -110,7 +114,7 @@ public class AnimatorStateMachine {
     public AnimatorState addState(String stateName, String animName) {
         
     	Action action = animator.animComposer.action(animName);
-        logger.log(Level.INFO, "ActionClip created: " + action);
+        logger.log(Level.FINE, "ActionClip created: {0}", action);
         
         Motion motion = new Motion();
         motion.name = animName;
@@ -141,6 +145,7 @@ public class AnimatorStateMachine {
     	AnimatorState state = new AnimatorState(stateName, animator);
         state.motion = motion;
         states.put(stateName, state);
+        animator.invalidateGraph();
         return state;
     }
 
@@ -155,6 +160,7 @@ public class AnimatorStateMachine {
             animator.animComposer.removeAction(animName);
         }
         states.remove(stateName);
+        animator.invalidateGraph();
     }
 
     /**
@@ -191,19 +197,71 @@ public class AnimatorStateMachine {
         return states.values();
     }
 
+    /**
+     * InternalCall: check the exit-time transitions of the current state
+     * when its animation reaches the given normalized time. The time of the
+     * animation is compared, not a countdown, so a change of speed of the
+     * action (blend tree time scales, AnimComposer global speed) is followed.
+     * @param normalizedTime
+     */
+    protected void scheduleExitCheck(float normalizedTime) {
+        exitCheckTime = Math.min(exitCheckTime, normalizedTime);
+        lastNormalizedTime = getNormalizedTime();
+    }
+
+    /**
+     * @return true if the scheduled exit check of the current state is due
+     */
+    private boolean isExitDue() {
+        if (exitCheckTime == Float.POSITIVE_INFINITY) {
+            return false;
+        }
+        double time = getNormalizedTime();
+        // the animation looped (or plays backwards) since the last check.
+        boolean due = time >= exitCheckTime || time < lastNormalizedTime;
+        lastNormalizedTime = time;
+        if (due) {
+            exitCheckTime = Float.POSITIVE_INFINITY;
+        }
+        return due;
+    }
+
+    /**
+     * @return the time of the animation of the current state on this layer
+     *         divided by its length
+     */
+    private double getNormalizedTime() {
+        Action action = animator.animComposer.getAction(currentState.motion.name);
+        double length = action.getLength();
+        return (length > 0) ? animator.animComposer.getTime(name) / length : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * InternalCall.
+     * @return all the states, the anyState included
+     */
+    protected List<AnimatorState> getAllStates() {
+        List<AnimatorState> list = new ArrayList<>(states.size() + 1);
+        list.add(anyState);
+        list.addAll(states.values());
+        return list;
+    }
+
     protected void update(float tpf) {
-        AnimatorState nextState = currentState.checkTransitions(name);
+        boolean exitDue = isExitDue();
+
+        AnimatorState nextState = currentState.checkTransitions(this, exitDue);
 
         if (currentState != nextState) {
+            exitCheckTime = Float.POSITIVE_INFINITY;
+            nextState.markTransitionsDirty();
 
             listeners.forEach(listener -> listener.onStateChanged(currentState, nextState));
 
-            logger.log(Level.INFO, "onStateExit: {0}", currentState);
             currentState.behaviours.forEach(behaviour -> behaviour.onStateExit(animator));
 
             currentState = nextState;
 
-            logger.log(Level.INFO, "onStateEnter: {0}", currentState);
             currentState.behaviours.forEach(behaviour -> behaviour.onStateEnter(animator));
         }
 
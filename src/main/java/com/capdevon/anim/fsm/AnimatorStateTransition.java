@@ -44,6 +44,7 @@ public class AnimatorStateTransition {
      */
     public void removeCondition(AnimatorCondition condition) {
         conditions.remove(condition);
+        animator.invalidateGraph();
     }
 
     /**
@@ -58,30 +59,28 @@ public class AnimatorStateTransition {
         }
 
         AnimatorCondition condition = new AnimatorCondition();
+        condition.animator = animator;
         condition.mode = mode;
         condition.threshold = threshold;
         condition.parameter = parameter;
         conditions.add(condition);
+        animator.invalidateGraph();
     }
 
-    protected boolean checkConditions(AnimatorState sourceState, String layerName) {
-
-        boolean doTransition = true;
-
-        for (AnimatorCondition condition: conditions) {
-            if (!condition.evalute(animator.parameters)) {
-                doTransition = false;
-            }
-        }
-
-        if (doTransition && hasExitTime) {
+    /**
+     * InternalCall: the conditions are evaluated by the compiled TransitionTable.
+     * @param sourceState
+     * @param layerName
+     * @return true if the transition has no exit time or the exit time is passed
+     */
+    protected boolean checkExitTime(AnimatorState sourceState, String layerName) {
+        if (hasExitTime) {
             double animPercent = animator.animComposer.getTime(layerName) / animator.animComposer.getAction(sourceState.motion.name).getLength();
             return animPercent > exitTime;
         }
-
-        return doTransition;
+        return true;
     }
-    
+
     public float getOffset() {
         return offset;
     }
@@ -120,6 +119,7 @@ public class AnimatorStateTransition {
 
     public void setMute(boolean mute) {
         this.mute = mute;
+        animator.invalidateGraph();
     }
 
 }
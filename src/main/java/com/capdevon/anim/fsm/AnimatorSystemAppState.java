@@ -0,0 +1,191 @@
+package com.capdevon.anim.fsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+
+/**
+ * Updates all the registered {@link AnimatorInstance}s in a batch, instead of
+ * one at a time in the traversal of the scene graph.
+ * <p>
+ * Every frame the state machines and blend parameters of the instances are
+ * evaluated in parallel on a ForkJoinPool: the workers only read the
+ * AnimComposers and record the changes (action to play, speed, blend value)
+ * in the command buffer of each instance. The buffers are then applied on the
+ * render thread in one sequential pass, before the AnimComposers are updated.
+ * <p>
+ * The parameters of the instances must be set on the render thread (in the
+ * controls or in the update of the application), as usual.
+ *
+ * @author capdevon
+ */
+public class AnimatorSystemAppState extends BaseAppState {
+
+    private static final Logger logger = Logger.getLogger(AnimatorSystemAppState.class.getName());
+
+    private final ForkJoinPool pool;
+    private final List<AnimatorInstance> instances = new ArrayList<>();
+    // the number of instances evaluated by a task without splitting.
+    private int batchSize = 64;
+
+    // metrics
+    private float lastEvaluateMillis;
+    private float lastApplyMillis;
+
+    /**
+     * Creates a system using the common ForkJoinPool.
+     */
+    public AnimatorSystemAppState() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool - The pool that evaluates the state machines.
+     */
+    public AnimatorSystemAppState(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Updates the given instance with the others: it no longer updates itself.
+     * @param animator
+     */
+    public void register(AnimatorInstance animator) {
+        if (animator.system != null) {
+            throw new IllegalArgumentException("The AnimatorInstance is already registered to an AnimatorSystemAppState");
+        }
+        animator.system = this;
+        instances.add(animator);
+    }
+
+    /**
+     * The given instance updates itself again.
+     * @param animator
+     */
+    public void unregister(AnimatorInstance animator) {
+        if (animator.system != this || !instances.remove(animator)) {
+            throw new IllegalArgumentException("The AnimatorInstance is not registered to this AnimatorSystemAppState");
+        }
+        animator.system = null;
+        animator.commands.clear();
+    }
+
+    @Override
+    protected void initialize(Application app) {
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        logger.log(Level.INFO, "{0}", this);
+    }
+
+    @Override
+    protected void onEnable() {
+    }
+
+    @Override
+    protected void onDisable() {
+    }
+
+    @Override
+    public void update(float tpf) {
+        long start = System.nanoTime();
+        pool.invoke(new EvaluateTask(tpf, 0, instances.size()));
+        long evaluated = System.nanoTime();
+
+        for (AnimatorInstance animator : instances) {
+            animator.commands.apply(animator.getAnimComposer());
+        }
+
+        lastEvaluateMillis = (evaluated - start) / 1_000_000f;
+        lastApplyMillis = (System.nanoTime() - evaluated) / 1_000_000f;
+    }
+
+    /**
+     * An instance is evaluated only when it is enabled and attached to a
+     * Spatial, like a control.
+     */
+    private void evaluate(AnimatorInstance animator, float tpf) {
+        if (animator.isEnabled() && animator.getSpatial() != null) {
+            animator.evaluate(tpf);
+        }
+    }
+
+    public int getInstanceCount() {
+        return instances.size();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize - The number of instances evaluated by a task without
+     *                  splitting (&gt;0, default=64).
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the time spent evaluating the state machines in the last frame (in milliseconds)
+     */
+    public float getLastEvaluateMillis() {
+        return lastEvaluateMillis;
+    }
+
+    /**
+     * @return the time spent applying the commands in the last frame (in milliseconds)
+     */
+    public float getLastApplyMillis() {
+        return lastApplyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "AnimatorSystemAppState [instances=" + instances.size()
+                + ", parallelism=" + pool.getParallelism()
+                + ", evaluate=" + lastEvaluateMillis + " ms"
+                + ", apply=" + lastApplyMillis + " ms]";
+    }
+
+    /**
+     * ---- @class EvaluateTask ----
+     */
+    private class EvaluateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float tpf;
+        private final int from;
+        private final int to;
+
+        EvaluateTask(float tpf, int from, int to) {
+            this.tpf = tpf;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                for (int i = from; i < to; i++) {
+                    evaluate(instances.get(i), tpf);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new EvaluateTask(tpf, from, mid), new EvaluateTask(tpf, mid, to));
+            }
+        }
+    }
+
+}
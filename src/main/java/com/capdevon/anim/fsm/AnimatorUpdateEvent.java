@@ -0,0 +1,46 @@
+package com.capdevon.anim.fsm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event measuring the update of an animator in a frame
+ * (an AnimatorController, or the evaluation of an AnimatorInstance).
+ * <p>
+ * The animator events are disabled by default and cost nothing until a
+ * recording enables them, for example on a running game:
+ * <pre>
+ * jcmd &lt;pid&gt; JFR.start name=anim settings=animator.jfc
+ * </pre>
+ * with an {@code animator.jfc} settings file (a copy of
+ * {@code $JAVA_HOME/lib/jfr/default.jfc}) that adds:
+ * <pre>
+ * &lt;event name="com.capdevon.anim.StateTransition"&gt;&lt;setting name="enabled"&gt;true&lt;/setting&gt;&lt;/event&gt;
+ * &lt;event name="com.capdevon.anim.AnimatorUpdate"&gt;&lt;setting name="enabled"&gt;true&lt;/setting&gt;&lt;setting name="threshold"&gt;0 ms&lt;/setting&gt;&lt;/event&gt;
+ * &lt;event name="com.capdevon.anim.BlendTree"&gt;&lt;setting name="enabled"&gt;true&lt;/setting&gt;&lt;setting name="threshold"&gt;0 ms&lt;/setting&gt;&lt;/event&gt;
+ * </pre>
+ *
+ * @author capdevon
+ */
+@Name("com.capdevon.anim.AnimatorUpdate")
+@Label("Animator Update")
+@Category({"jMonkeyEngine", "Animator"})
+@Description("The update of the state machines of an animator in a frame")
+@Enabled(false)
+@StackTrace(false)
+@Threshold("0 ms")
+class AnimatorUpdateEvent extends jdk.jfr.Event {
+
+    @Label("Controller")
+    @Description("The name of the Spatial of the animator")
+    String controller;
+
+    @Label("Layers")
+    int layers;
+
+}
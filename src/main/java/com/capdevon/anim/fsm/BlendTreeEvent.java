@@ -0,0 +1,40 @@
+package com.capdevon.anim.fsm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event measuring the evaluation of the blend tree of
+ * the current state. Disabled by default (see {@link AnimatorUpdateEvent}).
+ *
+ * @author capdevon
+ */
+@Name("com.capdevon.anim.BlendTree")
+@Label("Blend Tree Evaluation")
+@Category({"jMonkeyEngine", "Animator"})
+@Description("The evaluation of the blend tree of the current state")
+@Enabled(false)
+@StackTrace(false)
+@Threshold("0 ms")
+class BlendTreeEvent extends jdk.jfr.Event {
+
+    @Label("Controller")
+    @Description("The name of the Spatial of the animator")
+    String controller;
+
+    @Label("State")
+    String state;
+
+    @Label("Blend Value")
+    float blendValue;
+
+    @Label("Speed")
+    @Description("The time scale of the selected child motion (NaN = unchanged)")
+    float speed;
+
+}
@@ -0,0 +1,59 @@
+package com.capdevon.anim.fsm;
+
+import com.jme3.scene.Spatial;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event committed when an animator changes state.
+ * Disabled by default: enable {@code com.capdevon.anim.StateTransition} in
+ * the settings of the recording (see {@link AnimatorUpdateEvent}).
+ *
+ * @author capdevon
+ */
+@Name("com.capdevon.anim.StateTransition")
+@Label("Animator State Transition")
+@Category({"jMonkeyEngine", "Animator"})
+@Description("A state machine of an animator changed state")
+@Enabled(false)
+@StackTrace(false)
+class StateTransitionEvent extends jdk.jfr.Event {
+
+    @Label("Controller")
+    @Description("The name of the Spatial of the animator")
+    String controller;
+
+    @Label("Layer")
+    String layer;
+
+    @Label("From")
+    String fromState;
+
+    @Label("To")
+    String toState;
+
+    @Label("Trigger")
+    @Description("The trigger parameter consumed by the transition, if any")
+    String trigger;
+
+    /**
+     * Commits an event for the given transition, if the event is enabled.
+     */
+    static void commit(Spatial spatial, String layer, String fromState, String toState, String trigger) {
+        StateTransitionEvent event = new StateTransitionEvent();
+        if (event.isEnabled()) {
+            event.controller = (spatial != null) ? spatial.getName() : null;
+            event.layer = layer;
+            event.fromState = fromState;
+            event.toState = toState;
+            event.trigger = trigger;
+            event.commit();
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.capdevon.anim.fsm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
+
+/**
+ * The outgoing transitions of a state compiled into flat arrays: for each
+ * condition the parameter id, an operator code (type and mode of the
+ * condition) and the threshold. The conditions of a transition are evaluated
+ * in a tight loop that stops at the first one that fails.
+ * <p>
+ * The tables of all the states are built together by the controller, which
+ * rebuilds them when the graph is edited. Each transition also gets a global
+ * index ({@link #base} + index in the table) used for its dirty flag.
+ *
+ * @author capdevon
+ */
+final class TransitionTable {
+
+    // operator codes
+    static final byte OP_FALSE = 0;
+    static final byte OP_FLOAT_GREATER = 1;
+    static final byte OP_FLOAT_LESS = 2;
+    static final byte OP_INT_GREATER = 3;
+    static final byte OP_INT_LESS = 4;
+    static final byte OP_INT_EQUALS = 5;
+    static final byte OP_INT_NOT_EQUAL = 6;
+    static final byte OP_BOOL_IF = 7;
+    static final byte OP_BOOL_IF_NOT = 8;
+    static final byte OP_TRIGGER = 9;
+
+    // the global index of the first transition.
+    final int base;
+    // the number of transitions.
+    final int size;
+    // the transitions that are not muted, in order (null in the tables of an AnimatorControllerAsset).
+    final AnimatorStateTransition[] transitions;
+    // conditions of transition t: [conditionStart[t], conditionStart[t + 1])
+    final int[] conditionStart;
+    final int[] paramIds;
+    final byte[] ops;
+    final float[] thresholds;
+
+    private TransitionTable(int base, AnimatorStateTransition[] transitions, int numConditions) {
+        this(base, transitions, transitions.length, new int[transitions.length + 1],
+                new int[numConditions], new byte[numConditions], new float[numConditions]);
+    }
+
+    TransitionTable(int base, AnimatorStateTransition[] transitions, int size,
+            int[] conditionStart, int[] paramIds, byte[] ops, float[] thresholds) {
+        this.base = base;
+        this.transitions = transitions;
+        this.size = size;
+        this.conditionStart = conditionStart;
+        this.paramIds = paramIds;
+        this.ops = ops;
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * @return a table with the same conditions and no reference to the
+     *         authoring transitions
+     */
+    TransitionTable detach() {
+        return new TransitionTable(base, null, size, conditionStart, paramIds, ops, thresholds);
+    }
+
+    static TransitionTable compile(List<AnimatorStateTransition> source, AnimatorController animator, int base) {
+        List<AnimatorStateTransition> active = new ArrayList<>(source.size());
+        int numConditions = 0;
+        for (AnimatorStateTransition transition : source) {
+            if (!transition.mute) {
+                active.add(transition);
+                numConditions += transition.conditions.size();
+            }
+        }
+
+        TransitionTable table = new TransitionTable(base, active.toArray(new AnimatorStateTransition[0]), numConditions);
+
+        int c = 0;
+        for (int t = 0; t < table.transitions.length; t++) {
+            table.conditionStart[t] = c;
+            for (AnimatorCondition condition : table.transitions[t].conditions) {
+                int id = animator.findParameterId(condition.parameter);
+                table.paramIds[c] = Math.max(id, 0);
+                table.ops[c] = (id < 0) ? OP_FALSE : opCode(animator.types[id], condition.mode);
+                table.thresholds[c] = condition.threshold;
+                c++;
+            }
+        }
+        table.conditionStart[table.transitions.length] = c;
+        return table;
+    }
+
+    private static byte opCode(AnimatorControllerParameterType type, AnimatorConditionMode mode) {
+        switch (type) {
+            case Float:
+                return mode == AnimatorConditionMode.Greater ? OP_FLOAT_GREATER
+                        : mode == AnimatorConditionMode.Less ? OP_FLOAT_LESS : OP_FALSE;
+            case Int:
+                switch (mode) {
+                    case Greater: return OP_INT_GREATER;
+                    case Less: return OP_INT_LESS;
+                    case Equals: return OP_INT_EQUALS;
+                    case NotEqual: return OP_INT_NOT_EQUAL;
+                    default: return OP_FALSE;
+                }
+            case Bool:
+                return mode == AnimatorConditionMode.If ? OP_BOOL_IF
+                        : mode == AnimatorConditionMode.IfNot ? OP_BOOL_IF_NOT : OP_FALSE;
+            case Trigger:
+                return OP_TRIGGER;
+            default:
+                return OP_FALSE;
+        }
+    }
+
+    /**
+     * @param op - an operation code
+     * @return the type of the parameter the operation reads, or null for
+     *         OP_FALSE
+     */
+    static AnimatorControllerParameterType paramType(byte op) {
+        switch (op) {
+            case OP_FLOAT_GREATER:
+            case OP_FLOAT_LESS:
+                return AnimatorControllerParameterType.Float;
+            case OP_INT_GREATER:
+            case OP_INT_LESS:
+            case OP_INT_EQUALS:
+            case OP_INT_NOT_EQUAL:
+                return AnimatorControllerParameterType.Int;
+            case OP_BOOL_IF:
+            case OP_BOOL_IF_NOT:
+                return AnimatorControllerParameterType.Bool;
+            case OP_TRIGGER:
+                return AnimatorControllerParameterType.Trigger;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param t - the index of the transition
+     * @return true if all the conditions of the transition are met
+     */
+    boolean checkConditions(int t, float[] floats, int[] ints, boolean[] bools) {
+        for (int c = conditionStart[t], end = conditionStart[t + 1]; c < end; c++) {
+            int id = paramIds[c];
+            float threshold = thresholds[c];
+            boolean result;
+            switch (ops[c]) {
+                case OP_FLOAT_GREATER: result = floats[id] > threshold; break;
+                case OP_FLOAT_LESS: result = floats[id] < threshold; break;
+                case OP_INT_GREATER: result = ints[id] > threshold; break;
+                case OP_INT_LESS: result = ints[id] < threshold; break;
+                case OP_INT_EQUALS: result = ints[id] == threshold; break;
+                case OP_INT_NOT_EQUAL: result = ints[id] != threshold; break;
+                case OP_BOOL_IF: result = bools[id]; break;
+                case OP_BOOL_IF_NOT: result = !bools[id]; break;
+                case OP_TRIGGER: result = bools[id]; break;
+                default: result = false; break;
+            }
+            if (!result) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param t - the index of the transition
+     * @return the id of the first trigger read by the transition, or -1
+     */
+    int triggerParameter(int t) {
+        for (int c = conditionStart[t], end = conditionStart[t + 1]; c < end; c++) {
+            if (ops[c] == OP_TRIGGER) {
+                return paramIds[c];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Resets the triggers read by the transition, once it is taken.
+     *
+     * @param t - the index of the transition
+     */
+    void consumeTriggers(int t, boolean[] bools) {
+        for (int c = conditionStart[t], end = conditionStart[t + 1]; c < end; c++) {
+            if (ops[c] == OP_TRIGGER) {
+                bools[paramIds[c]] = false;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.capdevon.control;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.capdevon.physx.Physics;
+import com.capdevon.physx.PhysicsBudgetAppState;
+import com.capdevon.physx.RaycastHit;
+import com.jme3.bullet.control.BetterCharacterControl;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+
+/**
+ * Level of detail for characters driven by a {@link BetterCharacterControl}.
+ * <p>
+ * Beyond the demote distance from the camera, the BetterCharacterControl is
+ * disabled (its rigid body leaves the PhysicsSpace) and this control moves the
+ * spatial kinematically: it follows the walk and view directions still set on
+ * the BetterCharacterControl by the game logic, and keeps the feet on the
+ * ground plane found by a single downward ray every {@link #probeInterval}
+ * seconds or {@link #probeSpacing} units of travel. Within the promote distance
+ * the character is warped back into the simulation where it stands.
+ * <p>
+ * Add this control after the BetterCharacterControl.
+ *
+ * @author capdevon
+ */
+public class CharacterLodControl extends AbstractControl {
+
+    private static final Logger logger = Logger.getLogger(CharacterLodControl.class.getName());
+    private static final Vector3f DOWN = new Vector3f(0, -1, 0);
+
+    // distances from the camera (with hysteresis).
+    public float promoteDistance = 40f;
+    public float demoteDistance = 50f;
+    // ground probes.
+    public float probeInterval = 0.5f;
+    public float probeSpacing = 2f;
+    public float probeHeight = 1f;
+    public float probeDepth = 4f;
+    public int groundMask = ~0;
+
+    private final Camera camera;
+    private PhysicsBudgetAppState budget;
+    private BetterCharacterControl bcc;
+    private boolean demoted;
+
+    // cached ground plane (point + normal) of the last probe.
+    private boolean hasGround;
+    private final Vector3f groundPoint = new Vector3f();
+    private final Vector3f groundNormal = new Vector3f(Vector3f.UNIT_Y);
+    private final Vector3f lastProbe = new Vector3f();
+    private float probeTimer;
+
+    private final RaycastHit hitInfo = new RaycastHit();
+    private final Vector3f walkDirection = new Vector3f();
+    private final Vector3f viewDirection = new Vector3f();
+    private final Vector3f location = new Vector3f();
+    private final Vector3f tmpVec = new Vector3f();
+    private final Quaternion tmpRotation = new Quaternion();
+
+    /**
+     * Constructor.
+     *
+     * @param camera - the viewer the distances are measured from
+     */
+    public CharacterLodControl(Camera camera) {
+        this.camera = camera;
+        // spread the probes of many characters over different frames.
+        this.probeTimer = FastMath.nextRandomFloat() * probeInterval;
+    }
+
+    /**
+     * Scales the promote/demote distances with the LOD distance scale of the
+     * physics budget (null = no scaling).
+     *
+     * @param budget
+     */
+    public void setBudget(PhysicsBudgetAppState budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void setSpatial(Spatial sp) {
+        super.setSpatial(sp);
+        if (spatial != null) {
+            this.bcc = spatial.getControl(BetterCharacterControl.class);
+            if (bcc == null) {
+                throw new IllegalStateException("BetterCharacterControl not found: " + spatial);
+            }
+        }
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        float scale = (budget != null) ? budget.getLodDistanceScale() : 1f;
+        float distSq = camera.getLocation().distanceSquared(spatial.getWorldTranslation());
+
+        if (!demoted) {
+            float d = demoteDistance * scale;
+            if (distSq > d * d) {
+                demote();
+            }
+        } else {
+            float d = promoteDistance * scale;
+            if (distSq < d * d) {
+                promote();
+            }
+        }
+
+        if (demoted) {
+            move(tpf);
+        }
+    }
+
+    private void demote() {
+        demoted = true;
+        bcc.setEnabled(false);
+        hasGround = false;
+        logger.log(Level.FINE, "Demoted: {0}", spatial);
+    }
+
+    private void promote() {
+        demoted = false;
+        bcc.setEnabled(true);
+        bcc.warp(spatial.getWorldTranslation());
+        logger.log(Level.FINE, "Promoted: {0}", spatial);
+    }
+
+    private void move(float tpf) {
+        bcc.getWalkDirection(walkDirection);
+        bcc.getViewDirection(viewDirection);
+
+        location.set(spatial.getWorldTranslation());
+        location.x += walkDirection.x * tpf;
+        location.z += walkDirection.z * tpf;
+
+        probeTimer -= tpf;
+        if (!hasGround || probeTimer <= 0 || lastProbe.distanceSquared(location) > probeSpacing * probeSpacing) {
+            probeTimer = probeInterval;
+            probeGround();
+        }
+
+        if (hasGround && groundNormal.y > FastMath.ZERO_TOLERANCE) {
+            // height of the cached ground plane below the new location.
+            float dx = location.x - groundPoint.x;
+            float dz = location.z - groundPoint.z;
+            location.y = groundPoint.y - (groundNormal.x * dx + groundNormal.z * dz) / groundNormal.y;
+        }
+
+        setWorldTranslation(location);
+
+        viewDirection.y = 0;
+        if (viewDirection.lengthSquared() > FastMath.ZERO_TOLERANCE) {
+            tmpRotation.lookAt(viewDirection.normalizeLocal(), Vector3f.UNIT_Y);
+            spatial.setLocalRotation(tmpRotation);
+        }
+    }
+
+    private void probeGround() {
+        lastProbe.set(location);
+        tmpVec.set(location).addLocal(0, probeHeight, 0);
+
+        hasGround = Physics.Raycast(tmpVec, DOWN, hitInfo, probeHeight + probeDepth, groundMask);
+        if (hasGround) {
+            groundPoint.set(hitInfo.point);
+            groundNormal.set(hitInfo.normal);
+        }
+    }
+
+    private void setWorldTranslation(Vector3f worldLocation) {
+        if (spatial.getParent() != null) {
+            spatial.getParent().worldToLocal(worldLocation, tmpVec);
+            spatial.setLocalTranslation(tmpVec);
+        } else {
+            spatial.setLocalTranslation(worldLocation);
+        }
+    }
+
+    /**
+     * @return true if the character is moved kinematically
+     */
+    public boolean isDemoted() {
+        return demoted;
+    }
+
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+    }
+
+}
@@ -1,9 +1,8 @@
 package com.capdevon.control;
 
-import java.util.LinkedList;
-
 import com.jme3.bullet.control.RigidBodyControl;
 import com.jme3.input.controls.ActionListener;
+import com.jme3.math.FastMath;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.RenderManager;
@@ -12,19 +11,60 @@ import com.jme3.scene.Spatial;
 import com.jme3.scene.control.AbstractControl;
 
 /**
- * 
+ * Records the local transform of the Spatial at a fixed time step into a
+ * fixed-capacity ring buffer (7 floats per sample: position and rotation) and
+ * plays it back, interpolated, while rewinding. The memory footprint depends
+ * only on {@link #getHistorySeconds()} and {@link #getSampleInterval()}, not on
+ * the frame rate, and recording produces no garbage.
+ *
  * @author capdevon
  */
 public class TimekeeperControl extends AbstractControl implements ActionListener {
 
     public static final String INPUT_TOGGLE_REWIND = "INPUT_TOGGLE_REWIND";
 
+    // floats per sample: px, py, pz, rx, ry, rz, rw
+    private static final int STRIDE = 7;
+
+    private final float historySeconds;
+    private final float sampleInterval;
+    private final int capacity;
+    private final float[] samples;
+    // index of the slot for the next sample.
+    private int head;
+    // number of valid samples.
+    private int count;
+    private float accumulator;
+
     private boolean isRewinding;
-    private LinkedList<TrasformPoint> points;
+    // rewind playback: seconds back from the newest sample.
+    private float rewindTime;
+    private float rewindSpeed = 1f;
     private RigidBodyControl rgb;
 
+    private final Vector3f tmpPos = new Vector3f();
+    private final Quaternion tmpRotA = new Quaternion();
+    private final Quaternion tmpRotB = new Quaternion();
+
+    /**
+     * Records 5 seconds at 30 samples per second.
+     */
     public TimekeeperControl() {
-        this.points = new LinkedList<>();
+        this(5f, 1f / 30);
+    }
+
+    /**
+     * @param historySeconds - the length of the history (in seconds)
+     * @param sampleInterval - the time between two samples (in seconds)
+     */
+    public TimekeeperControl(float historySeconds, float sampleInterval) {
+        if (historySeconds <= 0 || sampleInterval <= 0) {
+            throw new IllegalArgumentException("historySeconds and sampleInterval must be positive");
+        }
+        this.historySeconds = historySeconds;
+        this.sampleInterval = sampleInterval;
+        this.capacity = (int) FastMath.ceil(historySeconds / sampleInterval) + 1;
+        this.samples = new float[capacity * STRIDE];
     }
 
     @Override
@@ -49,7 +89,7 @@ public class TimekeeperControl extends AbstractControl implements ActionListener
     @Override
     protected void controlUpdate(float tpf) {
         if (isRewinding) {
-            rewind();
+            rewind(tpf);
         } else {
             record(tpf);
         }
@@ -60,24 +100,70 @@ public class TimekeeperControl extends AbstractControl implements ActionListener
         // TODO Auto-generated method stub
     }
 
-    private void rewind() {
-        if (!points.isEmpty()) {
-            TrasformPoint point = points.removeFirst();
-            spatial.setLocalTranslation(point.position);
-            spatial.setLocalRotation(point.rotation);
-
-        } else {
-            //stopRewind();
-            //System.out.println(spatial + " -> stop");
+    private void rewind(float tpf) {
+        if (count == 0) {
+            return;
         }
+
+        float maxTime = (count - 1) * sampleInterval;
+        rewindTime = Math.min(rewindTime + tpf * rewindSpeed, maxTime);
+
+        // samples k and k+1 (k = 0 is the newest) around the playback time.
+        float position = rewindTime / sampleInterval;
+        int k = Math.min((int) position, count - 1);
+        int next = Math.min(k + 1, count - 1);
+        float t = position - k;
+
+        int a = slot(k) * STRIDE;
+        int b = slot(next) * STRIDE;
+        tmpPos.set(
+                FastMath.interpolateLinear(t, samples[a], samples[b]),
+                FastMath.interpolateLinear(t, samples[a + 1], samples[b + 1]),
+                FastMath.interpolateLinear(t, samples[a + 2], samples[b + 2]));
+        tmpRotA.set(samples[a + 3], samples[a + 4], samples[a + 5], samples[a + 6]);
+        tmpRotB.set(samples[b + 3], samples[b + 4], samples[b + 5], samples[b + 6]);
+        tmpRotA.slerp(tmpRotB, t);
+
+        spatial.setLocalTranslation(tmpPos);
+        spatial.setLocalRotation(tmpRotA);
     }
 
     private void record(float tpf) {
-        if (points.size() > Math.round(5f / tpf)) {
-            points.removeLast();
+        accumulator += tpf;
+        // a long frame fills every step it covers, up to the whole history.
+        int steps = 0;
+        while (accumulator >= sampleInterval && steps < capacity) {
+            accumulator -= sampleInterval;
+            push(spatial.getLocalTranslation(), spatial.getLocalRotation());
+            steps++;
+        }
+        if (steps == capacity) {
+            accumulator = 0;
         }
+    }
+
+    private void push(Vector3f position, Quaternion rotation) {
+        int i = head * STRIDE;
+        samples[i] = position.x;
+        samples[i + 1] = position.y;
+        samples[i + 2] = position.z;
+        samples[i + 3] = rotation.getX();
+        samples[i + 4] = rotation.getY();
+        samples[i + 5] = rotation.getZ();
+        samples[i + 6] = rotation.getW();
+
+        head = (head + 1) % capacity;
+        if (count < capacity) {
+            count++;
+        }
+    }
 
-        points.addFirst(new TrasformPoint(spatial.getLocalTranslation(), spatial.getLocalRotation()));
+    /**
+     * @param k - the age of the sample (0 = newest)
+     * @return the slot in the ring
+     */
+    private int slot(int k) {
+        return (head - 1 - k + capacity) % capacity;
     }
 
     public boolean isRewinding() {
@@ -86,28 +172,46 @@ public class TimekeeperControl extends AbstractControl implements ActionListener
 
     public void startRewind() {
         this.isRewinding = true;
+        this.rewindTime = 0;
         rgb.setKinematic(true);
     }
 
     public void stopRewind() {
         this.isRewinding = false;
+        // forget the rewound samples: the history resumes from here.
+        int rewound = Math.min((int) (rewindTime / sampleInterval), count);
+        head = (head - rewound + capacity) % capacity;
+        count -= rewound;
+        accumulator = 0;
         rgb.setKinematic(false);
     }
 
+    public float getRewindSpeed() {
+        return rewindSpeed;
+    }
+
     /**
-     * ------------------------------------------------------------
-     * @class TrasformPoint
-     * ------------------------------------------------------------
+     * Alter the playback speed of the rewind.
+     *
+     * @param rewindSpeed (&gt;0, default=1)
      */
-    private class TrasformPoint {
+    public void setRewindSpeed(float rewindSpeed) {
+        this.rewindSpeed = rewindSpeed;
+    }
 
-        Vector3f position;
-        Quaternion rotation;
+    public float getHistorySeconds() {
+        return historySeconds;
+    }
 
-        public TrasformPoint(Vector3f position, Quaternion rotation) {
-            this.position = new Vector3f(position);
-            this.rotation = new Quaternion(rotation);
-        }
+    public float getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * @return the number of samples currently recorded
+     */
+    public int getSampleCount() {
+        return count;
     }
 
 }
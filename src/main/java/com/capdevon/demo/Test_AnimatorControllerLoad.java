@@ -0,0 +1,143 @@
+package com.capdevon.demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.capdevon.anim.fsm.AnimatorConditionMode;
+import com.capdevon.anim.fsm.AnimatorController;
+import com.capdevon.anim.fsm.AnimatorControllerAsset;
+import com.capdevon.anim.fsm.AnimatorControllerLoader;
+import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
+import com.capdevon.anim.fsm.AnimatorControllerSerializer;
+import com.capdevon.anim.fsm.AnimatorState;
+import com.capdevon.anim.fsm.AnimatorStateMachine;
+import com.capdevon.anim.fsm.BlendTree;
+import com.jme3.anim.AnimClip;
+import com.jme3.anim.AnimComposer;
+import com.jme3.anim.AnimTrack;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.FileLocator;
+
+/**
+ * Benchmark: creating the asset of a 200-state controller in code (as in the
+ * setupPlayer of the demos) versus reading it from the binary format, and
+ * loading it through the AssetManager, where it is parsed once and cached.
+ *
+ * @author capdevon
+ */
+public class Test_AnimatorControllerLoad {
+
+    private static final int NUM_STATES = 200;
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 1_000;
+
+    /**
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AnimatorControllerSerializer.write(buildAsset(), bytes);
+        byte[] data = bytes.toByteArray();
+
+        for (int i = 0; i < WARMUP; i++) {
+            buildAsset();
+            readAsset(data);
+        }
+
+        long start = System.nanoTime();
+        int checksum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += buildAsset().getStateCount(0);
+        }
+        float built = (System.nanoTime() - start) / 1e3f / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += readAsset(data).getStateCount(0);
+        }
+        float read = (System.nanoTime() - start) / 1e3f / ITERATIONS;
+
+        // through the AssetManager
+        Path dir = Files.createTempDirectory("animator");
+        String name = "Soldier." + AnimatorControllerLoader.EXTENSION;
+        try (OutputStream out = Files.newOutputStream(dir.resolve(name))) {
+            out.write(data);
+        }
+        AssetManager assetManager = new DesktopAssetManager();
+        assetManager.registerLocator(dir.toString(), FileLocator.class);
+        AnimatorControllerLoader.register(assetManager);
+
+        start = System.nanoTime();
+        AnimatorControllerAsset first = AnimatorControllerLoader.load(assetManager, name);
+        float firstLoad = (System.nanoTime() - start) / 1e3f;
+        start = System.nanoTime();
+        AnimatorControllerAsset second = AnimatorControllerLoader.load(assetManager, name);
+        float cachedLoad = (System.nanoTime() - start) / 1e3f;
+
+        System.out.println("$> " + first);
+        System.out.printf("$> File size: %,d bytes%n", data.length);
+        System.out.printf("$> Built in code: %.1f us%n", built);
+        System.out.printf("$> Read binary:   %.1f us (x%.1f)%n", read, built / read);
+        System.out.printf("$> AssetManager:  %.1f us first load, %.1f us cached, shared: %b%n", firstLoad, cachedLoad, first == second);
+        System.out.println("$> checksum: " + checksum);
+
+        Files.delete(dir.resolve(name));
+        Files.delete(dir);
+    }
+
+    /**
+     * A chain of states, each with an int, a bool (with exit time) and a
+     * trigger transition, and a blend tree every 10 states.
+     */
+    private static AnimatorControllerAsset buildAsset() {
+        AnimComposer animComposer = new AnimComposer();
+        for (int i = 0; i < NUM_STATES; i++) {
+            AnimClip clip = new AnimClip("Clip" + i);
+            clip.setTracks(new AnimTrack[0]);
+            animComposer.addAnimClip(clip);
+        }
+
+        AnimatorController animator = new AnimatorController(animComposer);
+        animator.addParameter("moveSpeed", AnimatorControllerParameterType.Float);
+        animator.addParameter("step", AnimatorControllerParameterType.Int);
+        animator.addParameter("isGrounded", AnimatorControllerParameterType.Bool);
+        animator.addParameter("reset", AnimatorControllerParameterType.Trigger);
+
+        AnimatorStateMachine sm = animator.getLayer(AnimComposer.DEFAULT_LAYER).getStateMachine();
+        AnimatorState[] states = new AnimatorState[NUM_STATES];
+        for (int i = 0; i < NUM_STATES; i++) {
+            if (i % 10 == 9) {
+                BlendTree tree = new BlendTree(0, 1);
+                tree.setBlendParameter("moveSpeed");
+                tree.addChild("Clip" + (i - 1), 0.5f);
+                tree.addChild("Clip" + i, 1f).setTimeScale(2f);
+                states[i] = sm.createBlendTree("State" + i, tree);
+            } else {
+                states[i] = sm.addState("State" + i, "Clip" + i);
+            }
+        }
+
+        for (int i = 0; i < NUM_STATES; i++) {
+            AnimatorState next = states[(i + 1) % NUM_STATES];
+            states[i].addTransition(next).addCondition(AnimatorConditionMode.Equals, i + 1, "step");
+            states[i].addTransition(next, 0.9f).addCondition(AnimatorConditionMode.If, 0, "isGrounded");
+            if (i > 0) {
+                states[i].addTransition(states[0]).addCondition(AnimatorConditionMode.If, 0, "reset");
+            }
+        }
+        sm.setDefaultState(states[0]);
+
+        return AnimatorControllerAsset.compile(animator);
+    }
+
+    private static AnimatorControllerAsset readAsset(byte[] data) throws IOException {
+        return AnimatorControllerSerializer.read(new ByteArrayInputStream(data));
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.capdevon.demo;
+
+import com.capdevon.anim.AnimUtils;
+import com.capdevon.anim.AnimationCullingControl;
+import com.capdevon.anim.fsm.AnimatorConditionMode;
+import com.capdevon.anim.fsm.AnimatorController;
+import com.capdevon.anim.fsm.AnimatorControllerAsset;
+import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
+import com.capdevon.anim.fsm.AnimatorInstance;
+import com.capdevon.anim.fsm.AnimatorState;
+import com.capdevon.anim.fsm.AnimatorStateMachine;
+import com.capdevon.anim.fsm.AnimatorSystemAppState;
+import com.capdevon.anim.fsm.BlendTree;
+import com.jme3.anim.AnimComposer;
+import com.jme3.app.SimpleApplication;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.DirectionalLight;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+
+/**
+ * A crowd of characters playing the same AnimatorControllerAsset: the graph
+ * is authored once with an AnimatorController, compiled, and every character
+ * gets a lightweight AnimatorInstance. The instances are evaluated in
+ * parallel by an AnimatorSystemAppState, or one at a time by their own
+ * update with the "serial" argument. An AnimationCullingControl stops the
+ * pose of the characters out of view and slows down the distant ones.
+ *
+ * @author capdevon
+ */
+public class Test_AnimatorCrowd extends SimpleApplication {
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        Test_AnimatorCrowd app = new Test_AnimatorCrowd();
+        app.serial = args.length > 0 && args[0].equals("serial");
+        app.start();
+    }
+
+    private static final String MODEL = "Models/Rifle/rifle.glb";
+    private static final int ROWS = 30;
+    private static final int COLUMNS = 30;
+    private static final float SPACING = 2f;
+
+    private boolean serial;
+    private AnimatorSystemAppState animatorSystem;
+    private final Node crowd = new Node("Crowd");
+    private float statsTimer;
+
+    @Override
+    public void simpleInitApp() {
+        cam.setLocation(new Vector3f(0, 15, 50));
+        cam.lookAt(Vector3f.ZERO, Vector3f.UNIT_Y);
+        flyCam.setMoveSpeed(20f);
+        viewPort.setBackgroundColor(new ColorRGBA(0.5f, 0.6f, 0.7f, 1.0f));
+        setupLights();
+
+        AnimatorControllerAsset asset = createAsset();
+        System.out.println("$> " + asset);
+
+        if (!serial) {
+            animatorSystem = new AnimatorSystemAppState();
+            stateManager.attach(animatorSystem);
+        }
+
+        rootNode.attachChild(crowd);
+        for (int i = 0; i < ROWS * COLUMNS; i++) {
+            Spatial model = assetManager.loadModel(MODEL);
+            model.setName("Character." + i);
+            float x = (i % COLUMNS - COLUMNS / 2) * SPACING;
+            float z = (i / COLUMNS - ROWS / 2) * SPACING;
+            model.setLocalTranslation(x, 0, z);
+            crowd.attachChild(model);
+
+            AnimatorInstance animator = new AnimatorInstance(asset, AnimUtils.getAnimControl(model));
+            model.addControl(animator);
+            if (animatorSystem != null) {
+                animatorSystem.register(animator);
+            }
+            model.addControl(new MoveSpeedControl(animator));
+            model.addControl(new AnimationCullingControl(cam));
+        }
+        System.out.println("$> Characters: " + crowd.getQuantity());
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        statsTimer += tpf;
+        if (statsTimer > 2f) {
+            statsTimer = 0;
+            int visible = 0, fullRate = 0;
+            for (Spatial model : crowd.getChildren()) {
+                AnimationCullingControl culling = model.getControl(AnimationCullingControl.class);
+                if (culling.isVisible()) {
+                    visible++;
+                    if (culling.getUpdateInterval() == 1) {
+                        fullRate++;
+                    }
+                }
+            }
+            System.out.println("$> Visible: " + visible + ", updated every frame: " + fullRate + "/" + crowd.getQuantity());
+            if (animatorSystem != null) {
+                System.out.println("$> " + animatorSystem);
+            }
+        }
+    }
+
+    /**
+     * Authors the controller on a model that is not displayed and compiles
+     * it: the AnimatorController is not needed after that.
+     */
+    private AnimatorControllerAsset createAsset() {
+        Spatial model = assetManager.loadModel(MODEL);
+
+        AnimatorController animator = new AnimatorController(AnimUtils.getAnimControl(model));
+        animator.addParameter("moveSpeed", AnimatorControllerParameterType.Float);
+
+        AnimatorStateMachine sm = animator.getLayer(AnimComposer.DEFAULT_LAYER).getStateMachine();
+        AnimatorState idle = sm.addState("Idle", "RifleIdle");
+
+        BlendTree tree = new BlendTree(0, 1);
+        tree.setBlendParameter("moveSpeed");
+        tree.addChild("RifleWalk", 0.5f).setTimeScale(1f);
+        tree.addChild("RifleRun", 1f).setTimeScale(2f);
+        AnimatorState walk = sm.createBlendTree("Walk", tree);
+
+        idle.addTransition(walk).addCondition(AnimatorConditionMode.Greater, 0f, "moveSpeed");
+        walk.addTransition(idle).addCondition(AnimatorConditionMode.Less, 0.05f, "moveSpeed");
+        sm.setDefaultState(idle);
+
+        return AnimatorControllerAsset.compile(animator);
+    }
+
+    private void setupLights() {
+        DirectionalLight sun = new DirectionalLight();
+        sun.setDirection(new Vector3f(-0.2f, -1, -0.3f).normalizeLocal());
+        rootNode.addLight(sun);
+
+        AmbientLight ambient = new AmbientLight();
+        ambient.setColor(new ColorRGBA(0.25f, 0.25f, 0.25f, 1));
+        rootNode.addLight(ambient);
+    }
+
+    /**
+     * ---- @class MoveSpeedControl ----
+     */
+    private static class MoveSpeedControl extends AbstractControl {
+
+        private final AnimatorInstance animator;
+        private final int moveSpeedId;
+        private float timer;
+
+        MoveSpeedControl(AnimatorInstance animator) {
+            this.animator = animator;
+            this.moveSpeedId = animator.parameterId("moveSpeed");
+        }
+
+        @Override
+        protected void controlUpdate(float tpf) {
+            timer -= tpf;
+            if (timer <= 0) {
+                timer = 2f + FastMath.nextRandomFloat() * 4f;
+                // idle, walk or run
+                animator.setFloat(moveSpeedId, FastMath.nextRandomInt(0, 2) * 0.5f);
+            }
+        }
+
+        @Override
+        protected void controlRender(RenderManager rm, ViewPort vp) {
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.capdevon.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.capdevon.anim.fsm.AnimatorController;
+import com.capdevon.anim.fsm.AnimatorControllerParameter.AnimatorControllerParameterType;
+import com.jme3.anim.AnimComposer;
+
+/**
+ * Benchmark: setting 32 float parameters on 1,000 AnimatorControllers per
+ * frame, by name versus by id (see AnimatorController.parameterId), against
+ * the linear scan of the parameter list that the lookup by name used to do.
+ *
+ * @author capdevon
+ */
+public class Test_AnimatorParameters {
+
+    private static final int NUM_PARAMETERS = 32;
+    private static final int NUM_CONTROLLERS = 1_000;
+    private static final int WARMUP_FRAMES = 200;
+    private static final int FRAMES = 1_000;
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        String[] names = new String[NUM_PARAMETERS];
+        for (int i = 0; i < NUM_PARAMETERS; i++) {
+            names[i] = "param" + i;
+        }
+
+        AnimatorController[] controllers = new AnimatorController[NUM_CONTROLLERS];
+        LinearParameters[] baselines = new LinearParameters[NUM_CONTROLLERS];
+        for (int c = 0; c < NUM_CONTROLLERS; c++) {
+            controllers[c] = new AnimatorController(new AnimComposer());
+            baselines[c] = new LinearParameters();
+            for (String name : names) {
+                controllers[c].addParameter(name, AnimatorControllerParameterType.Float);
+                baselines[c].addParameter(name, AnimatorControllerParameterType.Float);
+            }
+        }
+
+        // the ids are the same for controllers built the same way.
+        int[] ids = new int[NUM_PARAMETERS];
+        for (int i = 0; i < NUM_PARAMETERS; i++) {
+            ids[i] = controllers[0].parameterId(names[i]);
+        }
+
+        runLinearScan(baselines, names, WARMUP_FRAMES);
+        runByName(controllers, names, WARMUP_FRAMES);
+        runById(controllers, ids, WARMUP_FRAMES);
+
+        long start = System.nanoTime();
+        float checksum = runLinearScan(baselines, names, FRAMES);
+        float linearScan = (System.nanoTime() - start) / 1e6f / FRAMES;
+
+        start = System.nanoTime();
+        checksum += runByName(controllers, names, FRAMES);
+        float byName = (System.nanoTime() - start) / 1e6f / FRAMES;
+
+        start = System.nanoTime();
+        checksum += runById(controllers, ids, FRAMES);
+        float byId = (System.nanoTime() - start) / 1e6f / FRAMES;
+
+        System.out.printf("$> %d controllers x %d parameters%n", NUM_CONTROLLERS, NUM_PARAMETERS);
+        System.out.printf("$> Linear scan: %.3f ms/frame%n", linearScan);
+        System.out.printf("$> By name:     %.3f ms/frame (x%.1f)%n", byName, linearScan / byName);
+        System.out.printf("$> By id:       %.3f ms/frame (x%.1f)%n", byId, linearScan / byId);
+        System.out.println("$> checksum: " + checksum);
+    }
+
+    private static float runLinearScan(LinearParameters[] baselines, String[] names, int frames) {
+        float sum = 0;
+        for (int f = 0; f < frames; f++) {
+            for (LinearParameters animator : baselines) {
+                for (int i = 0; i < names.length; i++) {
+                    animator.setFloat(names[i], f + i);
+                }
+                sum += animator.getFloat(names[f % names.length]);
+            }
+        }
+        return sum;
+    }
+
+    private static float runByName(AnimatorController[] controllers, String[] names, int frames) {
+        float sum = 0;
+        for (int f = 0; f < frames; f++) {
+            for (AnimatorController animator : controllers) {
+                for (int i = 0; i < names.length; i++) {
+                    animator.setFloat(names[i], f + i);
+                }
+                sum += animator.getFloat(names[f % names.length]);
+            }
+        }
+        return sum;
+    }
+
+    private static float runById(AnimatorController[] controllers, int[] ids, int frames) {
+        float sum = 0;
+        for (int f = 0; f < frames; f++) {
+            for (AnimatorController animator : controllers) {
+                for (int i = 0; i < ids.length; i++) {
+                    animator.setFloat(ids[i], f + i);
+                }
+                sum += animator.getFloat(ids[f % ids.length]);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * ---- @class LinearParameters ----
+     *
+     * The parameter lookup of AnimatorController before the ids: a scan of
+     * the parameter list comparing the name hash and the type.
+     */
+    private static class LinearParameters {
+
+        private final List<Param> parameters = new ArrayList<>();
+
+        void addParameter(String name, AnimatorControllerParameterType type) {
+            Param param = new Param();
+            param.nameHash = name.hashCode();
+            param.type = type;
+            parameters.add(param);
+        }
+
+        float getFloat(String name) {
+            return findParameter(name, AnimatorControllerParameterType.Float).value;
+        }
+
+        void setFloat(String name, float value) {
+            findParameter(name, AnimatorControllerParameterType.Float).value = value;
+        }
+
+        private Param findParameter(String name, AnimatorControllerParameterType type) {
+            for (Param param : parameters) {
+                if (param.nameHash == name.hashCode() && param.type == type) {
+                    return param;
+                }
+            }
+            throw new IllegalArgumentException("AnimatorControllerParameter not found: " + name);
+        }
+
+        private static class Param {
+            int nameHash;
+            AnimatorControllerParameterType type;
+            float value;
+        }
+    }
+
+}
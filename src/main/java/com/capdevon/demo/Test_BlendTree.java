@@ -264,6 +264,7 @@ public class Test_BlendTree extends SimpleApplication {
         
         private Camera camera;
         private AnimatorController animator;
+        private int moveSpeedId;
         private BetterCharacterControl bcc;
         
         private final Quaternion lookRotation = new Quaternion();
@@ -281,6 +282,7 @@ public class Test_BlendTree extends SimpleApplication {
             super.setSpatial(sp);
             if (spatial != null) {
                 this.animator = spatial.getControl(AnimatorController.class);
+                this.moveSpeedId = animator.parameterId("moveSpeed");
                 this.bcc = spatial.getControl(BetterCharacterControl.class);
             }
         }
@@ -344,7 +346,7 @@ public class Test_BlendTree extends SimpleApplication {
             fpsText.setText(velocity + "");
             
             bcc.setWalkDirection(walkDirection.multLocal(m_MoveSpeed * velocity));
-            animator.setFloat("moveSpeed", velocity);
+            animator.setFloat(moveSpeedId, velocity);
         }
 
         @Override
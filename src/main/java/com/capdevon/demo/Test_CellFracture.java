@@ -5,8 +5,16 @@
  */
 package com.capdevon.demo;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import com.capdevon.control.TimekeeperControl;
+import com.capdevon.physx.MappedHistory;
+import com.capdevon.physx.PhysicsBaker;
 import com.capdevon.physx.PhysxDebugAppState;
+import com.capdevon.physx.TimekeeperAppState;
 import com.jme3.app.SimpleApplication;
 import com.jme3.bounding.BoundingBox;
 import com.jme3.bullet.BulletAppState;
@@ -39,6 +47,7 @@ public class Test_CellFracture extends SimpleApplication {
      */
     public static void main(String[] args) {
         Test_CellFracture app = new Test_CellFracture();
+        app.diskHistory = args.length > 0 && args[0].equals("disk");
         AppSettings settings = new AppSettings(true);
         settings.setResolution(1024, 768);
         settings.setFrameRate(30);
@@ -50,7 +59,10 @@ public class Test_CellFracture extends SimpleApplication {
         app.start();
     }
     
-    private static final String SCENE_MODEL = "Models/gltf2/CellFracture/cube-cell-fracture.j3o";
+    static final String SCENE_MODEL = "Models/gltf2/CellFracture/cube-cell-fracture.j3o";
+    
+    // keep the rewind history in memory-mapped files
+    private boolean diskHistory;
     
     @Override
     public void simpleInitApp() {
@@ -90,7 +102,23 @@ public class Test_CellFracture extends SimpleApplication {
     private void setupScene() {
         
         viewPort.setBackgroundColor(new ColorRGBA(0.5f, 0.6f, 0.7f, 1.0f));
+        // one minute of history, positions quantized to 1 mm
+        TimekeeperAppState timekeeper = new TimekeeperAppState(60f);
+        if (diskHistory) {
+            // one segment per minute (at 60 Hz), the last 10 minutes
+            try {
+                Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "cell-fracture-history");
+                timekeeper.setHistory(new MappedHistory(dir, 256, 3_600, 10));
+                System.out.println("$> History directory: " + dir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            timekeeper.setCompression(0.001f);
+        }
+        stateManager.attach(timekeeper);
         inputManager.addMapping(TimekeeperControl.INPUT_TOGGLE_REWIND, new KeyTrigger(KeyInput.KEY_RETURN));
+        inputManager.addListener(timekeeper, TimekeeperControl.INPUT_TOGGLE_REWIND);
         
         Node scene = (Node) getAssetManager().loadModel(SCENE_MODEL);
         rootNode.attachChild(scene);
@@ -101,31 +129,33 @@ public class Test_CellFracture extends SimpleApplication {
             System.out.println("$> ChildName: " + sp);
 
             if (sp.getName().contains("Cube_cell")) {
-                addRigidBody(sp, 10);
-
-                TimekeeperControl timekeeper = new TimekeeperControl();
-                sp.addControl(timekeeper);
-                inputManager.addListener(timekeeper, TimekeeperControl.INPUT_TOGGLE_REWIND);
+                addRigidBody(getPhysicsSpace(), sp, 10);
+                timekeeper.register(sp.getControl(RigidBodyControl.class));
                 
             } else if (sp.getName().contains("Plane")) {
-                addRigidBody(sp, 0);
+                addRigidBody(getPhysicsSpace(), sp, 0);
                 sp.setMaterial(getShinyMat());
             }
         }
+        
+        // start from the settled poses, if baked (see Test_CellFractureBake)
+        int restored = PhysicsBaker.restore(assetManager, SCENE_MODEL, scene);
+        System.out.println("$> Baked bodies restored: " + restored);
     }
     
     /**
      * https://wiki.jmonkeyengine.org/docs/3.3/physics/physics.html#specify-physical-properties
+     * @param space
      * @param sp
      * @param mass
      */
-    private void addRigidBody(Spatial sp, float mass) {
+    static void addRigidBody(PhysicsSpace space, Spatial sp, float mass) {
         BoundingBox vol = (BoundingBox) sp.getWorldBound();
         CollisionShape shape = new BoxCollisionShape(vol.getExtent(null));
         RigidBodyControl rgb = new RigidBodyControl(shape, mass);
         rgb.setCcdMotionThreshold(0.001f);
         sp.addControl(rgb);
-        getPhysicsSpace().add(rgb);
+        space.add(rgb);
         rgb.setFriction(.5f); 		// Ice: 0.0f - Rock: 1.0f
         rgb.setRestitution(.1f);	// Brick: 0.0f - Rubber ball: 1.0f
     }
@@ -0,0 +1,80 @@
+package com.capdevon.demo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.capdevon.physx.PhysicsBaker;
+import com.jme3.app.SimpleApplication;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeContext;
+
+/**
+ * Headless tool that settles the Test_CellFracture scene and writes the baked
+ * poses next to the j3o model.
+ *
+ * @author capdevon
+ */
+public class Test_CellFractureBake extends SimpleApplication {
+
+    /**
+     * @param args - optional resources directory (default: src/main/resources)
+     */
+    public static void main(String[] args) {
+        Test_CellFractureBake app = new Test_CellFractureBake();
+        app.resourcesDir = (args.length > 0) ? args[0] : "src/main/resources";
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+    }
+
+    private static final float MAX_SETTLE_TIME = 30f;
+
+    private String resourcesDir;
+    private BulletAppState physics;
+    private Node scene;
+
+    @Override
+    public void simpleInitApp() {
+        physics = new BulletAppState();
+        stateManager.attach(physics);
+
+        scene = (Node) assetManager.loadModel(Test_CellFracture.SCENE_MODEL);
+        rootNode.attachChild(scene);
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        // bake only once.
+        if (scene.getParent() == null) {
+            return;
+        }
+
+        PhysicsSpace space = physics.getPhysicsSpace();
+        for (Spatial sp : scene.getChildren()) {
+            if (sp.getName().contains("Cube_cell")) {
+                Test_CellFracture.addRigidBody(space, sp, 10);
+            } else if (sp.getName().contains("Plane")) {
+                Test_CellFracture.addRigidBody(space, sp, 0);
+            }
+        }
+
+        File file = new File(resourcesDir, PhysicsBaker.getBakeFileName(Test_CellFracture.SCENE_MODEL));
+        try (OutputStream out = new FileOutputStream(file)) {
+            long start = System.nanoTime();
+            int count = PhysicsBaker.bake(scene, space, MAX_SETTLE_TIME, out);
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("$> Baked " + count + " bodies in " + elapsed + " ms: " + file.getAbsolutePath());
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        scene.removeFromParent();
+        stop();
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.capdevon.demo;
+
+import com.capdevon.control.CharacterLodControl;
+import com.capdevon.physx.PhysicsBudgetAppState;
+import com.jme3.app.SimpleApplication;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.control.BetterCharacterControl;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.scene.shape.Box;
+
+/**
+ * 2,000 wandering characters: only the ones near the camera are simulated by
+ * their BetterCharacterControl, the others are moved by a CharacterLodControl.
+ *
+ * @author capdevon
+ */
+public class Test_CharacterLod extends SimpleApplication {
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        Test_CharacterLod app = new Test_CharacterLod();
+        app.start();
+    }
+
+    private static final int NUM_CHARACTERS = 2_000;
+    private static final float WORLD_SIZE = 200f;
+
+    private BulletAppState physics;
+    private PhysicsBudgetAppState budget;
+    private final Node characters = new Node("Characters");
+    private float statsTimer;
+
+    @Override
+    public void simpleInitApp() {
+        cam.setLocation(new Vector3f(0, 20, 40));
+        cam.lookAt(Vector3f.ZERO, Vector3f.UNIT_Y);
+        cam.setFrustumFar(2_000f);
+        flyCam.setMoveSpeed(40f);
+        viewPort.setBackgroundColor(new ColorRGBA(0.5f, 0.6f, 0.7f, 1.0f));
+
+        physics = new BulletAppState();
+        stateManager.attach(physics);
+        budget = new PhysicsBudgetAppState(8f);
+        stateManager.attach(budget);
+
+        createFloor();
+        createCharacters();
+    }
+
+    private void createFloor() {
+        Box box = new Box(WORLD_SIZE, 0.2f, WORLD_SIZE);
+        Geometry floorGeo = new Geometry("Floor.GeoMesh", box);
+        Material mat = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+        mat.setColor("Color", ColorRGBA.DarkGray);
+        floorGeo.setMaterial(mat);
+        rootNode.attachChild(floorGeo);
+
+        RigidBodyControl rgb = new RigidBodyControl(new BoxCollisionShape(new Vector3f(WORLD_SIZE, 0.2f, WORLD_SIZE)), 0);
+        floorGeo.addControl(rgb);
+        physics.getPhysicsSpace().add(rgb);
+    }
+
+    private void createCharacters() {
+        Box mesh = new Box(.4f, .9f, .4f);
+        Material mat = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+        mat.setColor("Color", ColorRGBA.Orange);
+        rootNode.attachChild(characters);
+
+        for (int i = 0; i < NUM_CHARACTERS; i++) {
+            Node node = new Node("Character." + i);
+            Geometry geo = new Geometry("Character.GeoMesh." + i, mesh);
+            geo.setMaterial(mat);
+            geo.setLocalTranslation(0, .9f, 0);
+            node.attachChild(geo);
+
+            float x = (FastMath.nextRandomFloat() * 2 - 1) * (WORLD_SIZE - 5);
+            float z = (FastMath.nextRandomFloat() * 2 - 1) * (WORLD_SIZE - 5);
+            node.setLocalTranslation(x, 0.2f, z);
+            characters.attachChild(node);
+
+            BetterCharacterControl bcc = new BetterCharacterControl(.4f, 1.8f, 40f);
+            node.addControl(bcc);
+            physics.getPhysicsSpace().add(bcc);
+            bcc.getRigidBody().setCollisionGroup(PhysicsCollisionObject.COLLISION_GROUP_02);
+
+            node.addControl(new WanderControl(bcc));
+
+            CharacterLodControl lod = new CharacterLodControl(cam);
+            lod.groundMask = PhysicsCollisionObject.COLLISION_GROUP_01;
+            lod.setBudget(budget);
+            node.addControl(lod);
+        }
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        statsTimer += tpf;
+        if (statsTimer > 2f) {
+            statsTimer = 0;
+            int simulated = 0;
+            for (int i = 0; i < characters.getQuantity(); i++) {
+                if (!characters.getChild(i).getControl(CharacterLodControl.class).isDemoted()) {
+                    simulated++;
+                }
+            }
+            System.out.println("$> Simulated characters: " + simulated + "/" + NUM_CHARACTERS + ", physics tier: " + budget.getTier()
+                    + ", peak step: " + budget.getPeakStepMillis() + " ms");
+            budget.resetPeakStepMillis();
+        }
+    }
+
+    /**
+     * ---- @class WanderControl ----
+     */
+    private static class WanderControl extends AbstractControl {
+
+        private final BetterCharacterControl bcc;
+        private final Vector3f walkDirection = new Vector3f();
+        private float timer;
+
+        WanderControl(BetterCharacterControl bcc) {
+            this.bcc = bcc;
+        }
+
+        @Override
+        protected void controlUpdate(float tpf) {
+            timer -= tpf;
+            if (timer <= 0) {
+                timer = 2f + FastMath.nextRandomFloat() * 4f;
+
+                float angle = FastMath.nextRandomFloat() * FastMath.TWO_PI;
+                walkDirection.set(FastMath.sin(angle), 0, FastMath.cos(angle));
+                bcc.setViewDirection(walkDirection);
+
+                // turn back towards the center when close to the border.
+                if (spatial.getWorldTranslation().length() > WORLD_SIZE * 0.9f) {
+                    walkDirection.set(spatial.getWorldTranslation()).negateLocal().setY(0);
+                    walkDirection.normalizeLocal();
+                    bcc.setViewDirection(walkDirection);
+                }
+                bcc.setWalkDirection(walkDirection.mult(1.5f));
+            }
+        }
+
+        @Override
+        protected void controlRender(RenderManager rm, ViewPort vp) {
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.capdevon.demo;
+
+import java.util.List;
+
+import com.capdevon.physx.ColliderBuilder;
+import com.capdevon.physx.ColliderSimplifier;
+import com.jme3.app.SimpleApplication;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeContext;
+
+/**
+ * Headless benchmark: step time of the Test_CellFracture scene with hull
+ * colliders versus the primitives chosen by the ColliderSimplifier.
+ *
+ * @author capdevon
+ */
+public class Test_ColliderSimplifier extends SimpleApplication {
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        Test_ColliderSimplifier app = new Test_ColliderSimplifier();
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+    }
+
+    private static final float TOLERANCE = 0.25f;
+    private static final int STEPS = 600;
+
+    private BulletAppState physics;
+    private boolean done;
+
+    @Override
+    public void simpleInitApp() {
+        physics = new BulletAppState();
+        stateManager.attach(physics);
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        if (done) {
+            return;
+        }
+        done = true;
+
+        PhysicsSpace space = physics.getPhysicsSpace();
+        float hullMillis = run(space, false);
+        float simplifiedMillis = run(space, true);
+
+        System.out.printf("$> Hull colliders: %.3f ms/step%n", hullMillis);
+        System.out.printf("$> Simplified colliders: %.3f ms/step%n", simplifiedMillis);
+        stop();
+    }
+
+    private float run(PhysicsSpace space, boolean simplify) {
+        Node scene = (Node) assetManager.loadModel(Test_CellFracture.SCENE_MODEL);
+        rootNode.attachChild(scene);
+
+        ColliderBuilder builder = new ColliderBuilder();
+        builder.setSimplifyTolerance(TOLERANCE);
+        for (Spatial sp : scene.getChildren()) {
+            if (sp.getName().contains("Cube_cell")) {
+                if (simplify) {
+                    System.out.println("$> " + sp.getName() + ": " + ColliderSimplifier.fit(sp, TOLERANCE));
+                    builder.addSimplifiedCollider(sp, 10, false);
+                } else {
+                    builder.addDynamicMeshCollider(sp, 10, false);
+                }
+            } else if (sp.getName().contains("Plane")) {
+                builder.addBoxCollider(sp, 0, false);
+            }
+        }
+        List<RigidBodyControl> bodies = builder.build(space);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < STEPS; i++) {
+            space.update(1 / 60f, 1);
+        }
+        float millis = (System.nanoTime() - start) / 1e6f / STEPS;
+
+        for (RigidBodyControl rgb : bodies) {
+            space.remove(rgb);
+        }
+        scene.removeFromParent();
+        return millis;
+    }
+
+}
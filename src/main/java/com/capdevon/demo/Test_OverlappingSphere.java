@@ -11,6 +11,7 @@ import java.util.function.Function;
 import org.apache.commons.lang3.StringUtils;
 
 import com.capdevon.control.PlayerBaseControl;
+import com.capdevon.physx.PhysicsMemoryTracker;
 import com.capdevon.physx.PhysxQuery;
 import com.jme3.app.FlyCamAppState;
 import com.jme3.app.SimpleApplication;
@@ -94,6 +95,7 @@ public class Test_OverlappingSphere extends SimpleApplication implements ActionL
         physics = new BulletAppState();
         //physics.setThreadingType(ThreadingType.SEQUENTIAL);
         stateManager.attach(physics);
+        stateManager.attach(new PhysicsMemoryTracker());
 
         physics.getPhysicsSpace().setAccuracy(0.01f); // 10-msec timestep
         physics.getPhysicsSpace().getSolverInfo().setNumIterations(15);
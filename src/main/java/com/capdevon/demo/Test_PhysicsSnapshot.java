@@ -0,0 +1,176 @@
+package com.capdevon.demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import com.capdevon.physx.PhysicsWorldSnapshot;
+import com.jme3.app.SimpleApplication;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.SphereCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeContext;
+
+/**
+ * Headless benchmark: restoring the physics of a scene from a
+ * PhysicsWorldSnapshot versus rebuilding it from the scene graph, for the
+ * Test_CellFracture model (box shapes from the bounds of the cells) and for a
+ * procedural stack of boxes and spheres (shared primitive shapes).
+ *
+ * @author capdevon
+ */
+public class Test_PhysicsSnapshot extends SimpleApplication {
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        Test_PhysicsSnapshot app = new Test_PhysicsSnapshot();
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+    }
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    // the stack scene: a wall of boxes and a pile of spheres on a floor.
+    private static final int WALL_SIZE = 20;
+    private static final int NUM_SPHERES = 200;
+    private static final float HALF_EXTENT = 0.5f;
+    private static final float RADIUS = 0.4f;
+
+    private BulletAppState physics;
+    private Node cellScene;
+    private Node stackScene;
+    private boolean done;
+
+    @Override
+    public void simpleInitApp() {
+        physics = new BulletAppState();
+        stateManager.attach(physics);
+
+        cellScene = (Node) assetManager.loadModel(Test_CellFracture.SCENE_MODEL);
+        rootNode.attachChild(cellScene);
+        // no geometries: the bodies only need a Spatial of the same name.
+        stackScene = createStackScene();
+    }
+
+    private Node createStackScene() {
+        Node scene = new Node("Stack");
+        Node floor = new Node("Floor");
+        floor.setLocalTranslation(0, -0.5f, 0);
+        scene.attachChild(floor);
+
+        for (int i = 0; i < WALL_SIZE * WALL_SIZE; i++) {
+            Node box = new Node("Box." + i);
+            box.setLocalTranslation((i % WALL_SIZE - WALL_SIZE / 2) * HALF_EXTENT * 2, HALF_EXTENT + (i / WALL_SIZE) * HALF_EXTENT * 2, 0);
+            scene.attachChild(box);
+        }
+        for (int i = 0; i < NUM_SPHERES; i++) {
+            Node sphere = new Node("Sphere." + i);
+            sphere.setLocalTranslation((i % 10 - 5) * RADIUS * 2, RADIUS + (i / 10) * RADIUS * 2, 4);
+            scene.attachChild(sphere);
+        }
+        return scene;
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        if (done) {
+            return;
+        }
+        done = true;
+
+        try {
+            benchmark("Test_CellFracture", cellScene, this::rebuildCells);
+            benchmark("Stack of boxes and spheres", stackScene, this::rebuildStack);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        stop();
+    }
+
+    private void benchmark(String name, Node scene, Consumer<PhysicsSpace> rebuilder) throws IOException {
+        PhysicsSpace space = physics.getPhysicsSpace();
+        long rebuildNanos = 0;
+        long restoreNanos = 0;
+        int bytes = 0;
+        int objects = 0;
+
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            rebuilder.accept(space);
+            long rebuild = System.nanoTime() - start;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PhysicsWorldSnapshot.write(space, out);
+            bytes = out.size();
+            clear(space, scene);
+
+            start = System.nanoTime();
+            objects = PhysicsWorldSnapshot.restore(new ByteArrayInputStream(out.toByteArray()), space, scene).size();
+            long restore = System.nanoTime() - start;
+            clear(space, scene);
+
+            if (i >= WARMUP) {
+                rebuildNanos += rebuild;
+                restoreNanos += restore;
+            }
+        }
+
+        System.out.println("$> " + name + ": " + objects + " objects");
+        System.out.println("$> Snapshot size: " + bytes + " bytes");
+        System.out.printf("$> Rebuild from scene graph: %.3f ms%n", rebuildNanos / 1e6 / ITERATIONS);
+        System.out.printf("$> Restore from snapshot: %.3f ms%n", restoreNanos / 1e6 / ITERATIONS);
+    }
+
+    private void rebuildCells(PhysicsSpace space) {
+        for (Spatial sp : cellScene.getChildren()) {
+            if (sp.getName().contains("Cube_cell")) {
+                Test_CellFracture.addRigidBody(space, sp, 10);
+            } else if (sp.getName().contains("Plane")) {
+                Test_CellFracture.addRigidBody(space, sp, 0);
+            }
+        }
+    }
+
+    private void rebuildStack(PhysicsSpace space) {
+        CollisionShape floorShape = new BoxCollisionShape(50, 0.5f, 50);
+        CollisionShape boxShape = new BoxCollisionShape(HALF_EXTENT);
+        CollisionShape sphereShape = new SphereCollisionShape(RADIUS);
+        for (Spatial sp : stackScene.getChildren()) {
+            if (sp.getName().startsWith("Box")) {
+                addRigidBody(space, sp, boxShape, 1);
+            } else if (sp.getName().startsWith("Sphere")) {
+                addRigidBody(space, sp, sphereShape, 1);
+            } else {
+                addRigidBody(space, sp, floorShape, 0);
+            }
+        }
+    }
+
+    private void addRigidBody(PhysicsSpace space, Spatial sp, CollisionShape shape, float mass) {
+        RigidBodyControl rgb = new RigidBodyControl(shape, mass);
+        sp.addControl(rgb);
+        space.add(rgb);
+    }
+
+    private void clear(PhysicsSpace space, Node scene) {
+        for (Spatial sp : scene.getChildren()) {
+            RigidBodyControl rgb = sp.getControl(RigidBodyControl.class);
+            if (rgb != null) {
+                space.remove(rgb);
+                sp.removeControl(rgb);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.capdevon.demo;
+
+import java.io.IOException;
+
+import com.capdevon.net.LoopbackTransport;
+import com.capdevon.net.ReplicationClientAppState;
+import com.capdevon.net.ReplicationServerAppState;
+import com.capdevon.net.Transport;
+import com.capdevon.net.UdpTransport;
+import com.jme3.app.SimpleApplication;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.DirectionalLight;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.AppSettings;
+
+/**
+ * Runs the Test_CellFracture physics on a "server" scene that is not rendered
+ * and displays it through a replicated "client" scene without physics.
+ * <p>
+ * Pass "udp" as argument to replicate through localhost UDP instead of the
+ * in-process loopback.
+ *
+ * @author capdevon
+ */
+public class Test_Replication extends SimpleApplication {
+
+    /**
+     * @param args - optional "udp"
+     */
+    public static void main(String[] args) {
+        Test_Replication app = new Test_Replication();
+        app.useUdp = (args.length > 0) && args[0].equalsIgnoreCase("udp");
+        AppSettings settings = new AppSettings(true);
+        settings.setResolution(1024, 768);
+        settings.setFrameRate(60);
+        app.setSettings(settings);
+        app.setShowSettings(false);
+        app.setPauseOnLostFocus(false);
+        app.start();
+    }
+
+    private static final int SERVER_PORT = 7001;
+    private static final int CLIENT_PORT = 7002;
+
+    private boolean useUdp;
+    private Transport serverTransport;
+    private Transport clientTransport;
+    private ReplicationServerAppState server;
+    private ReplicationClientAppState client;
+    private float statsTimer;
+
+    @Override
+    public void simpleInitApp() {
+        cam.setLocation(Vector3f.UNIT_XYZ.mult(10f));
+        cam.lookAt(Vector3f.ZERO, Vector3f.UNIT_Y);
+        flyCam.setMoveSpeed(20f);
+        viewPort.setBackgroundColor(new ColorRGBA(0.5f, 0.6f, 0.7f, 1.0f));
+
+        BulletAppState physics = new BulletAppState();
+        stateManager.attach(physics);
+
+        try {
+            if (useUdp) {
+                serverTransport = new UdpTransport(SERVER_PORT, CLIENT_PORT);
+                clientTransport = new UdpTransport(CLIENT_PORT, SERVER_PORT);
+            } else {
+                LoopbackTransport[] pair = LoopbackTransport.createPair();
+                serverTransport = pair[0];
+                clientTransport = pair[1];
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the transport", e);
+        }
+
+        server = new ReplicationServerAppState(serverTransport);
+        client = new ReplicationClientAppState(clientTransport);
+        stateManager.attach(server);
+        stateManager.attach(client);
+
+        setupScenes(physics.getPhysicsSpace());
+        setupLights();
+    }
+
+    private void setupScenes(PhysicsSpace space) {
+        // the server scene is simulated, but never attached to the rootNode.
+        Node serverScene = (Node) assetManager.loadModel(Test_CellFracture.SCENE_MODEL);
+        Node clientScene = (Node) assetManager.loadModel(Test_CellFracture.SCENE_MODEL);
+        rootNode.attachChild(clientScene);
+
+        for (int i = 0; i < serverScene.getQuantity(); i++) {
+            Spatial sp = serverScene.getChild(i);
+
+            if (sp.getName().contains("Cube_cell")) {
+                Test_CellFracture.addRigidBody(space, sp, 10);
+                int id = server.register(sp.getControl(RigidBodyControl.class));
+                client.register(id, clientScene.getChild(i));
+
+            } else if (sp.getName().contains("Plane")) {
+                Test_CellFracture.addRigidBody(space, sp, 0);
+            }
+        }
+    }
+
+    private void setupLights() {
+        AmbientLight ambient = new AmbientLight();
+        ambient.setColor(ColorRGBA.White.clone());
+        rootNode.addLight(ambient);
+
+        DirectionalLight sun = new DirectionalLight();
+        sun.setDirection(new Vector3f(-0.5f, -0.5f, -0.5f).normalizeLocal());
+        sun.setColor(ColorRGBA.White.clone());
+        rootNode.addLight(sun);
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        statsTimer += tpf;
+        if (statsTimer > 2f) {
+            statsTimer = 0;
+            System.out.println("$> " + server);
+            System.out.println("$> " + client);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        try {
+            serverTransport.close();
+            clientTransport.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
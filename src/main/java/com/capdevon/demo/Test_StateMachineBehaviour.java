@@ -315,6 +315,7 @@ public class Test_StateMachineBehaviour extends SimpleApplication {
         public BitmapText bmp;
 
         AnimatorController animator;
+        int distanceId;
         BetterCharacterControl bcc;
         Timer fireTimer; //TODO: find a more efficient way to handle the timer cancellation
 
@@ -323,6 +324,7 @@ public class Test_StateMachineBehaviour extends SimpleApplication {
             super.setSpatial(sp);
             if (spatial != null) {
                 this.animator = spatial.getControl(AnimatorController.class);
+                this.distanceId = animator.parameterId("distance");
                 this.bcc = spatial.getControl(BetterCharacterControl.class);
             }
         }
@@ -330,7 +332,7 @@ public class Test_StateMachineBehaviour extends SimpleApplication {
         @Override
         protected void controlUpdate(float tpf) {
             float distance = player.getWorldTranslation().distance(spatial.getWorldTranslation());
-            animator.setFloat("distance", distance);
+            animator.setFloat(distanceId, distance);
         }
 
         @Override
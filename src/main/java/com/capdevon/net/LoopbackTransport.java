@@ -0,0 +1,58 @@
+package com.capdevon.net;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-process Transport: the two ends of a pair exchange copies of the packets
+ * through lock-free queues.
+ *
+ * @author capdevon
+ */
+public class LoopbackTransport implements Transport {
+
+    private final Queue<byte[]> inbox;
+    private final Queue<byte[]> outbox;
+
+    private LoopbackTransport(Queue<byte[]> inbox, Queue<byte[]> outbox) {
+        this.inbox = inbox;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Creates two connected endpoints.
+     *
+     * @return the server endpoint at index 0, the client endpoint at index 1
+     */
+    public static LoopbackTransport[] createPair() {
+        Queue<byte[]> a = new ConcurrentLinkedQueue<>();
+        Queue<byte[]> b = new ConcurrentLinkedQueue<>();
+        return new LoopbackTransport[] { new LoopbackTransport(a, b), new LoopbackTransport(b, a) };
+    }
+
+    @Override
+    public void send(ByteBuffer packet) {
+        byte[] data = new byte[packet.remaining()];
+        packet.get(data);
+        outbox.add(data);
+    }
+
+    @Override
+    public boolean receive(ByteBuffer dst) {
+        byte[] data = inbox.poll();
+        if (data == null) {
+            return false;
+        }
+        dst.clear();
+        dst.put(data);
+        dst.flip();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        inbox.clear();
+    }
+
+}
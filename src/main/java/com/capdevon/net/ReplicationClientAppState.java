@@ -0,0 +1,211 @@
+package com.capdevon.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.capdevon.util.Quantization;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.math.Quaternion;
+import com.jme3.scene.Spatial;
+
+/**
+ * Receives the snapshots of a {@link ReplicationServerAppState}, rebuilds them
+ * on top of their baseline and applies the newest one to the registered
+ * spatials. The newest decoded sequence is acknowledged once per frame.
+ * <p>
+ * The transforms are applied as local transforms: the replicated spatials
+ * should be children of an untransformed node.
+ *
+ * @author capdevon
+ */
+public class ReplicationClientAppState extends BaseAppState {
+
+    private static final Logger logger = Logger.getLogger(ReplicationClientAppState.class.getName());
+
+    // must be at least the history size of the server.
+    private static final int HISTORY_SIZE = 32;
+
+    private final Transport transport;
+    private final List<Spatial> spatials = new ArrayList<>();
+    private final Snapshot[] history = new Snapshot[HISTORY_SIZE];
+    private final Snapshot applied = new Snapshot(16);
+    private final ByteBuffer buffer = ByteBuffer.allocate(SnapshotCodec.MAX_PACKET_SIZE);
+    private final ByteBuffer ackBuffer = ByteBuffer.allocate(5);
+    private final Quaternion tmpRotation = new Quaternion();
+
+    private int latestSequence = -1;
+    private float precision;
+
+    // metrics
+    private long packets;
+    private long droppedPackets;
+    private long totalBytes;
+    private long decodeNanos;
+    private long decodedBodies;
+
+    /**
+     * Constructor.
+     *
+     * @param transport - the channel to the server
+     */
+    public ReplicationClientAppState(Transport transport) {
+        this.transport = transport;
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history[i] = new Snapshot(16);
+        }
+    }
+
+    /**
+     * Registers the spatial that displays the body with the given id.
+     *
+     * @param id      - the id returned by {@link ReplicationServerAppState#register}
+     * @param spatial - the spatial to move
+     */
+    public void register(int id, Spatial spatial) {
+        while (spatials.size() <= id) {
+            spatials.add(null);
+        }
+        spatials.set(id, spatial);
+    }
+
+    @Override
+    protected void initialize(Application app) {
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        logger.log(Level.INFO, "{0}", this);
+    }
+
+    @Override
+    protected void onEnable() {
+    }
+
+    @Override
+    protected void onDisable() {
+    }
+
+    @Override
+    public void update(float tpf) {
+        try {
+            int previous = latestSequence;
+            while (transport.receive(buffer)) {
+                readPacket();
+            }
+
+            if (latestSequence != previous) {
+                apply(history[latestSequence % HISTORY_SIZE]);
+                sendAck();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Replication failed", e);
+        }
+    }
+
+    private void readPacket() {
+        if (buffer.remaining() < 13 || buffer.get() != SnapshotCodec.SNAPSHOT) {
+            droppedPackets++;
+            return;
+        }
+        packets++;
+        totalBytes += buffer.limit();
+
+        int sequence = buffer.getInt();
+        int baselineSequence = buffer.getInt();
+        float packetPrecision = buffer.getFloat();
+
+        if (sequence <= latestSequence) {
+            // late or duplicated: a newer state is already displayed.
+            droppedPackets++;
+            return;
+        }
+
+        Snapshot baseline = null;
+        if (baselineSequence >= 0) {
+            baseline = history[baselineSequence % HISTORY_SIZE];
+            if (baseline.sequence != baselineSequence) {
+                // the baseline is gone: wait for the server to catch up.
+                droppedPackets++;
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        Snapshot current = history[sequence % HISTORY_SIZE];
+        SnapshotCodec.readSnapshot(buffer, baseline, current);
+        current.sequence = sequence;
+
+        decodeNanos += System.nanoTime() - start;
+        decodedBodies += current.count;
+        precision = packetPrecision;
+        latestSequence = sequence;
+    }
+
+    private void apply(Snapshot snapshot) {
+        int count = Math.min(snapshot.count, spatials.size());
+        for (int i = 0; i < count; i++) {
+            Spatial spatial = spatials.get(i);
+            if (spatial == null) {
+                continue;
+            }
+            boolean changed = i >= applied.count;
+            if (changed || snapshot.px[i] != applied.px[i] || snapshot.py[i] != applied.py[i] || snapshot.pz[i] != applied.pz[i]) {
+                spatial.setLocalTranslation(snapshot.px[i] * precision, snapshot.py[i] * precision, snapshot.pz[i] * precision);
+            }
+            if (changed || snapshot.rot[i] != applied.rot[i]) {
+                spatial.setLocalRotation(Quantization.unpackRotation(snapshot.rot[i], tmpRotation));
+            }
+        }
+        applied.set(snapshot);
+    }
+
+    private void sendAck() throws IOException {
+        ackBuffer.clear();
+        ackBuffer.put(SnapshotCodec.ACK);
+        ackBuffer.putInt(latestSequence);
+        ackBuffer.flip();
+        transport.send(ackBuffer);
+    }
+
+    /**
+     * @return the average size of the received snapshot packets (in bytes)
+     */
+    public float getBytesPerTick() {
+        return packets == 0 ? 0 : (float) totalBytes / packets;
+    }
+
+    /**
+     * @return the average decode cost (in nanoseconds per body)
+     */
+    public float getDecodeNanosPerBody() {
+        return decodedBodies == 0 ? 0 : (float) decodeNanos / decodedBodies;
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    public int getLatestSequence() {
+        return latestSequence;
+    }
+
+    public void resetStats() {
+        packets = 0;
+        droppedPackets = 0;
+        totalBytes = 0;
+        decodeNanos = 0;
+        decodedBodies = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReplicationClient[sequence=%d, packets=%d, dropped=%d, bytesPerTick=%.1f, decodeNsPerBody=%.1f]",
+                latestSequence, packets, droppedPackets, getBytesPerTick(), getDecodeNanosPerBody());
+    }
+
+}
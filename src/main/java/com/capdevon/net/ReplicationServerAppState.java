@@ -0,0 +1,242 @@
+package com.capdevon.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.capdevon.util.Quantization;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+/**
+ * Sends the state of the registered rigid bodies to a
+ * {@link ReplicationClientAppState} at a fixed rate.
+ * <p>
+ * Each network tick captures a quantized snapshot and writes only the bodies
+ * that changed since the last snapshot acknowledged by the client (or every
+ * body, if none is acknowledged yet). Sleeping bodies that were already asleep
+ * in the baseline are skipped without being sampled.
+ *
+ * @author capdevon
+ */
+public class ReplicationServerAppState extends BaseAppState {
+
+    private static final Logger logger = Logger.getLogger(ReplicationServerAppState.class.getName());
+
+    // number of snapshots kept as candidate baselines.
+    private static final int HISTORY_SIZE = 32;
+
+    private final Transport transport;
+    private final List<PhysicsRigidBody> bodies = new ArrayList<>();
+    private final Snapshot[] history = new Snapshot[HISTORY_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.allocate(SnapshotCodec.MAX_PACKET_SIZE);
+
+    private final Vector3f tmpLocation = new Vector3f();
+    private final Quaternion tmpRotation = new Quaternion();
+
+    // size of the position quantization step (in world units).
+    private float precision = 0.001f;
+    private float sendInterval = 1f / 30;
+    private float timer;
+    private int sequence;
+    private int ackedSequence = -1;
+
+    // metrics
+    private long ticks;
+    private long totalBytes;
+    private long encodeNanos;
+    private long encodedBodies;
+    private int lastPacketBytes;
+    private int lastNumEntries;
+
+    /**
+     * Constructor.
+     *
+     * @param transport - the channel to the client
+     */
+    public ReplicationServerAppState(Transport transport) {
+        this.transport = transport;
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history[i] = new Snapshot(16);
+        }
+    }
+
+    /**
+     * Registers a body to replicate. The client must register its spatials in
+     * the same order.
+     *
+     * @param body - the body to replicate
+     * @return the id of the body
+     */
+    public int register(PhysicsRigidBody body) {
+        bodies.add(body);
+        return bodies.size() - 1;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        logger.log(Level.INFO, "{0}", this);
+    }
+
+    @Override
+    protected void onEnable() {
+        timer = 0;
+    }
+
+    @Override
+    protected void onDisable() {
+    }
+
+    @Override
+    public void update(float tpf) {
+        try {
+            receiveAcks();
+
+            timer += tpf;
+            if (timer >= sendInterval) {
+                timer %= sendInterval;
+                sendSnapshot();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Replication failed", e);
+        }
+    }
+
+    private void receiveAcks() throws IOException {
+        while (transport.receive(buffer)) {
+            if (buffer.remaining() >= 5 && buffer.get() == SnapshotCodec.ACK) {
+                int seq = buffer.getInt();
+                if (seq > ackedSequence && seq < sequence) {
+                    ackedSequence = seq;
+                }
+            }
+        }
+    }
+
+    private void sendSnapshot() throws IOException {
+        long start = System.nanoTime();
+
+        Snapshot baseline = null;
+        if (ackedSequence >= 0 && sequence - ackedSequence < HISTORY_SIZE) {
+            baseline = history[ackedSequence % HISTORY_SIZE];
+        }
+
+        Snapshot current = history[sequence % HISTORY_SIZE];
+        capture(current, baseline);
+
+        buffer.clear();
+        lastNumEntries = SnapshotCodec.writeSnapshot(buffer, current, baseline, precision);
+        buffer.flip();
+
+        encodeNanos += System.nanoTime() - start;
+        encodedBodies += current.count;
+        lastPacketBytes = buffer.remaining();
+        totalBytes += lastPacketBytes;
+        ticks++;
+        sequence++;
+
+        transport.send(buffer);
+    }
+
+    private void capture(Snapshot current, Snapshot baseline) {
+        int count = bodies.size();
+        current.ensureCapacity(count);
+        current.sequence = sequence;
+        current.count = count;
+
+        for (int i = 0; i < count; i++) {
+            PhysicsRigidBody body = bodies.get(i);
+            boolean sleeping = !body.isActive();
+
+            if (sleeping && baseline != null && i < baseline.count && baseline.sleeping[i]) {
+                // asleep on both sides: nothing to sample.
+                current.copy(i, baseline);
+                continue;
+            }
+
+            body.getPhysicsLocation(tmpLocation);
+            body.getPhysicsRotation(tmpRotation);
+            current.px[i] = Quantization.quantize(tmpLocation.x, precision);
+            current.py[i] = Quantization.quantize(tmpLocation.y, precision);
+            current.pz[i] = Quantization.quantize(tmpLocation.z, precision);
+            current.rot[i] = Quantization.packRotation(tmpRotation);
+            current.sleeping[i] = sleeping;
+        }
+    }
+
+    public float getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Alter the size of the position quantization step.
+     *
+     * @param precision (in world units, &gt;0, default=0.001)
+     */
+    public void setPrecision(float precision) {
+        if (precision <= 0) {
+            throw new IllegalArgumentException("precision must be positive: " + precision);
+        }
+        this.precision = precision;
+        // older baselines were quantized with the previous step.
+        ackedSequence = -1;
+    }
+
+    /**
+     * Alter the number of snapshots sent per second.
+     *
+     * @param sendRate (&gt;0, default=30)
+     */
+    public void setSendRate(float sendRate) {
+        if (sendRate <= 0) {
+            throw new IllegalArgumentException("sendRate must be positive: " + sendRate);
+        }
+        this.sendInterval = 1f / sendRate;
+    }
+
+    /**
+     * @return the average size of the snapshot packets (in bytes)
+     */
+    public float getBytesPerTick() {
+        return ticks == 0 ? 0 : (float) totalBytes / ticks;
+    }
+
+    /**
+     * @return the average capture and encode cost (in nanoseconds per body)
+     */
+    public float getEncodeNanosPerBody() {
+        return encodedBodies == 0 ? 0 : (float) encodeNanos / encodedBodies;
+    }
+
+    public int getLastPacketBytes() {
+        return lastPacketBytes;
+    }
+
+    public int getLastNumEntries() {
+        return lastNumEntries;
+    }
+
+    public void resetStats() {
+        ticks = 0;
+        totalBytes = 0;
+        encodeNanos = 0;
+        encodedBodies = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReplicationServer[bodies=%d, ticks=%d, bytesPerTick=%.1f, lastPacket=%d bytes/%d entries, encodeNsPerBody=%.1f]",
+                bodies.size(), ticks, getBytesPerTick(), lastPacketBytes, lastNumEntries, getEncodeNanosPerBody());
+    }
+
+}
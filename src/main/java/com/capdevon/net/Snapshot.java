@@ -0,0 +1,75 @@
+package com.capdevon.net;
+
+import java.util.Arrays;
+
+/**
+ * Quantized state of all the replicated bodies at one network tick, stored as
+ * parallel arrays indexed by body id.
+ *
+ * @author capdevon
+ */
+class Snapshot {
+
+    // the sequence number of the tick (-1 = unused).
+    int sequence = -1;
+    // the number of valid entries.
+    int count;
+
+    int[] px;
+    int[] py;
+    int[] pz;
+    // smallest-three packed rotations.
+    int[] rot;
+    boolean[] sleeping;
+
+    Snapshot(int capacity) {
+        px = new int[capacity];
+        py = new int[capacity];
+        pz = new int[capacity];
+        rot = new int[capacity];
+        sleeping = new boolean[capacity];
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > px.length) {
+            int newCapacity = Math.max(capacity, px.length * 2);
+            px = Arrays.copyOf(px, newCapacity);
+            py = Arrays.copyOf(py, newCapacity);
+            pz = Arrays.copyOf(pz, newCapacity);
+            rot = Arrays.copyOf(rot, newCapacity);
+            sleeping = Arrays.copyOf(sleeping, newCapacity);
+        }
+    }
+
+    /**
+     * Copies one entry of the source, or the default state if the source does
+     * not contain it.
+     */
+    void copy(int i, Snapshot src) {
+        if (src != null && i < src.count) {
+            px[i] = src.px[i];
+            py[i] = src.py[i];
+            pz[i] = src.pz[i];
+            rot[i] = src.rot[i];
+            sleeping[i] = src.sleeping[i];
+        } else {
+            px[i] = 0;
+            py[i] = 0;
+            pz[i] = 0;
+            rot[i] = SnapshotCodec.IDENTITY_ROTATION;
+            sleeping[i] = false;
+        }
+    }
+
+    void set(Snapshot src) {
+        ensureCapacity(src.count);
+        System.arraycopy(src.px, 0, px, 0, src.count);
+        System.arraycopy(src.py, 0, py, 0, src.count);
+        System.arraycopy(src.pz, 0, pz, 0, src.count);
+        System.arraycopy(src.rot, 0, rot, 0, src.count);
+        System.arraycopy(src.sleeping, 0, sleeping, 0, src.count);
+        count = src.count;
+        sequence = src.sequence;
+    }
+
+}
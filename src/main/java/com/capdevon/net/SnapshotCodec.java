@@ -0,0 +1,130 @@
+package com.capdevon.net;
+
+import java.nio.ByteBuffer;
+
+import com.capdevon.util.Quantization;
+
+/**
+ * Wire format of the replication packets.
+ * <pre>
+ * SNAPSHOT: type(1) sequence(4) baselineSequence(4, -1 = none) precision(4)
+ *           bodyCount(varint) numEntries(4) entries...
+ * entry:    indexGap(varint) flags(1) [dx dy dz (zigzag varint)] [rotation(4)]
+ * ACK:      type(1) sequence(4)
+ * </pre>
+ * Only the bodies whose quantized state differs from the baseline are
+ * written; positions are sent as deltas from the baseline, rotations with the
+ * smallest-three encoding (2 bits for the index of the largest component, 10
+ * bits for each of the other three).
+ *
+ * @author capdevon
+ */
+final class SnapshotCodec {
+
+    static final byte SNAPSHOT = 1;
+    static final byte ACK = 2;
+
+    // the largest UDP payload.
+    static final int MAX_PACKET_SIZE = 65_507;
+
+    private static final int FLAG_POSITION = 1;
+    private static final int FLAG_ROTATION = 2;
+    private static final int FLAG_SLEEPING = 4;
+
+    static final int IDENTITY_ROTATION = Quantization.packRotation(0, 0, 0, 1);
+
+    private SnapshotCodec() {
+        // private constructor.
+    }
+
+    /**
+     * Writes a snapshot packet.
+     *
+     * @return the number of body entries written
+     */
+    static int writeSnapshot(ByteBuffer out, Snapshot current, Snapshot baseline, float precision) {
+        out.put(SNAPSHOT);
+        out.putInt(current.sequence);
+        out.putInt(baseline != null ? baseline.sequence : -1);
+        out.putFloat(precision);
+        Quantization.writeVarInt(out, current.count);
+        int numEntriesPos = out.position();
+        out.putInt(0);
+
+        int numEntries = 0;
+        int prevIndex = -1;
+
+        for (int i = 0; i < current.count; i++) {
+            boolean inBaseline = (baseline != null && i < baseline.count);
+            int bx = inBaseline ? baseline.px[i] : 0;
+            int by = inBaseline ? baseline.py[i] : 0;
+            int bz = inBaseline ? baseline.pz[i] : 0;
+            int brot = inBaseline ? baseline.rot[i] : IDENTITY_ROTATION;
+            boolean bsleeping = inBaseline && baseline.sleeping[i];
+
+            int flags = 0;
+            if (current.px[i] != bx || current.py[i] != by || current.pz[i] != bz) {
+                flags |= FLAG_POSITION;
+            }
+            if (current.rot[i] != brot) {
+                flags |= FLAG_ROTATION;
+            }
+            if (flags == 0 && current.sleeping[i] == bsleeping) {
+                continue;
+            }
+            if (current.sleeping[i]) {
+                flags |= FLAG_SLEEPING;
+            }
+
+            Quantization.writeVarInt(out, i - prevIndex - 1);
+            out.put((byte) flags);
+            if ((flags & FLAG_POSITION) != 0) {
+                Quantization.writeVarInt(out, Quantization.zigzag(current.px[i] - bx));
+                Quantization.writeVarInt(out, Quantization.zigzag(current.py[i] - by));
+                Quantization.writeVarInt(out, Quantization.zigzag(current.pz[i] - bz));
+            }
+            if ((flags & FLAG_ROTATION) != 0) {
+                out.putInt(current.rot[i]);
+            }
+            prevIndex = i;
+            numEntries++;
+        }
+
+        out.putInt(numEntriesPos, numEntries);
+        return numEntries;
+    }
+
+    /**
+     * Reads the body entries of a snapshot packet, positioned after the
+     * precision field, on top of a copy of the baseline.
+     *
+     * @return the number of body entries read
+     */
+    static int readSnapshot(ByteBuffer in, Snapshot baseline, Snapshot out) {
+        int count = Quantization.readVarInt(in);
+        out.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            out.copy(i, baseline);
+        }
+        out.count = count;
+
+        int numEntries = in.getInt();
+        int index = -1;
+
+        for (int n = 0; n < numEntries; n++) {
+            index += Quantization.readVarInt(in) + 1;
+            int flags = in.get();
+            if ((flags & FLAG_POSITION) != 0) {
+                out.px[index] += Quantization.unzigzag(Quantization.readVarInt(in));
+                out.py[index] += Quantization.unzigzag(Quantization.readVarInt(in));
+                out.pz[index] += Quantization.unzigzag(Quantization.readVarInt(in));
+            }
+            if ((flags & FLAG_ROTATION) != 0) {
+                out.rot[index] = in.getInt();
+            }
+            out.sleeping[index] = (flags & FLAG_SLEEPING) != 0;
+        }
+        return numEntries;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.capdevon.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unreliable, unordered datagram channel between one replication server and
+ * one client. Packets may be lost: the replication protocol recovers through
+ * acknowledged baselines.
+ *
+ * @author capdevon
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Sends the bytes between the position and the limit of the buffer.
+     *
+     * @param packet - the packet to send
+     * @throws IOException
+     */
+    void send(ByteBuffer packet) throws IOException;
+
+    /**
+     * Receives the next pending packet, if any, without blocking. The buffer is
+     * cleared, filled and flipped for reading.
+     *
+     * @param dst - the buffer to store the packet into
+     * @return true if a packet was received, otherwise false
+     * @throws IOException
+     */
+    boolean receive(ByteBuffer dst) throws IOException;
+
+}
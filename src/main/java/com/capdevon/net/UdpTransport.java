@@ -0,0 +1,53 @@
+package com.capdevon.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Non-blocking UDP Transport between two ports of the local host.
+ *
+ * @author capdevon
+ */
+public class UdpTransport implements Transport {
+
+    private final DatagramChannel channel;
+    private final SocketAddress remoteAddress;
+
+    /**
+     * Constructor.
+     *
+     * @param localPort  - the port to listen on
+     * @param remotePort - the port of the other endpoint
+     * @throws IOException
+     */
+    public UdpTransport(int localPort, int remotePort) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.remoteAddress = new InetSocketAddress(loopback, remotePort);
+        this.channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(loopback, localPort));
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        channel.send(packet, remoteAddress);
+    }
+
+    @Override
+    public boolean receive(ByteBuffer dst) throws IOException {
+        dst.clear();
+        SocketAddress sender = channel.receive(dst);
+        dst.flip();
+        return sender != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
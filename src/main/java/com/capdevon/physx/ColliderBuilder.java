@@ -0,0 +1,423 @@
+package com.capdevon.physx;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.HullCollisionShape;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.bullet.collision.shapes.SphereCollisionShape;
+import com.jme3.bullet.collision.shapes.infos.IndexedMesh;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.FastMath;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+
+/**
+ * Builds the colliders of many Spatials at once.
+ * <p>
+ * The expensive, pure-Java part of the work (mesh extraction, hull point
+ * reduction, bounds fitting) runs in parallel on a ForkJoinPool; only the
+ * creation of the native shapes and bodies and {@link PhysicsSpace#add} stay
+ * on the calling thread, where the results are consumed in submission order.
+ * The scene must not be modified while {@link #build} is running.
+ *
+ * <pre>
+ * List&lt;RigidBodyControl&gt; bodies = new ColliderBuilder()
+ *     .addMeshCollider(level, 0, false)
+ *     .addDynamicMeshCollider(crate, 10, false)
+ *     .build(space, (done, total) -&gt; System.out.println(done + "/" + total));
+ * </pre>
+ *
+ * @author capdevon
+ */
+public class ColliderBuilder {
+
+    private static final Logger logger = Logger.getLogger(ColliderBuilder.class.getName());
+
+    /**
+     * Receives the progress of {@link ColliderBuilder#build}, on the calling thread.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param completed - The number of colliders added to the PhysicsSpace.
+         * @param total     - The number of colliders to build.
+         */
+        public void onProgress(int completed, int total);
+    }
+
+    private enum ColliderType {
+        Box, Sphere, Mesh, DynamicMesh, Simplified
+    }
+
+    private final ForkJoinPool pool;
+    private final List<Request> requests = new ArrayList<>();
+    // the maximum number of points of a hull shape.
+    private int maxHullVertices = 100;
+    // the error accepted by the primitive fits of addSimplifiedCollider.
+    private float simplifyTolerance = 0.25f;
+
+    /**
+     * Creates a builder using the common ForkJoinPool.
+     */
+    public ColliderBuilder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool - The pool that computes the shape inputs.
+     */
+    public ColliderBuilder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ColliderBuilder addBoxCollider(Spatial sp, float mass, boolean isKinematic) {
+        return add(sp, ColliderType.Box, mass, isKinematic);
+    }
+
+    public ColliderBuilder addSphereCollider(Spatial sp, float mass, boolean isKinematic) {
+        return add(sp, ColliderType.Sphere, mass, isKinematic);
+    }
+
+    public ColliderBuilder addMeshCollider(Spatial sp, float mass, boolean isKinematic) {
+        return add(sp, ColliderType.Mesh, mass, isKinematic);
+    }
+
+    public ColliderBuilder addDynamicMeshCollider(Spatial sp, float mass, boolean isKinematic) {
+        return add(sp, ColliderType.DynamicMesh, mass, isKinematic);
+    }
+
+    /**
+     * Replaces the mesh with the cheapest primitive that fits it within the
+     * simplify tolerance (see {@link ColliderSimplifier}), or falls back to a
+     * mesh shape (static bodies) or a hull shape (dynamic bodies).
+     */
+    public ColliderBuilder addSimplifiedCollider(Spatial sp, float mass, boolean isKinematic) {
+        return add(sp, ColliderType.Simplified, mass, isKinematic);
+    }
+
+    private ColliderBuilder add(Spatial sp, ColliderType type, float mass, boolean isKinematic) {
+        Request request = new Request();
+        request.spatial = sp;
+        request.type = type;
+        request.mass = mass;
+        request.isKinematic = isKinematic;
+        requests.add(request);
+        return this;
+    }
+
+    public int getMaxHullVertices() {
+        return maxHullVertices;
+    }
+
+    /**
+     * Alter the maximum number of points of the hull shapes built by
+     * {@link #addDynamicMeshCollider}.
+     *
+     * @param maxHullVertices (&ge;4)
+     */
+    public void setMaxHullVertices(int maxHullVertices) {
+        this.maxHullVertices = maxHullVertices;
+    }
+
+    public float getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
+    /**
+     * Alter the error accepted by the colliders of
+     * {@link #addSimplifiedCollider}.
+     *
+     * @param simplifyTolerance (&ge;0, default=0.25)
+     */
+    public void setSimplifyTolerance(float simplifyTolerance) {
+        this.simplifyTolerance = simplifyTolerance;
+    }
+
+    /**
+     * Builds all the requested colliders and clears the requests.
+     *
+     * @param space - The PhysicsSpace to add the bodies to.
+     * @return Returns the created controls, in request order.
+     */
+    public List<RigidBodyControl> build(PhysicsSpace space) {
+        return build(space, null);
+    }
+
+    /**
+     * Builds all the requested colliders and clears the requests.
+     *
+     * @param space    - The PhysicsSpace to add the bodies to.
+     * @param listener - Receives the progress (may be null).
+     * @return Returns the created controls, in request order.
+     */
+    public List<RigidBodyControl> build(PhysicsSpace space, ProgressListener listener) {
+        long start = System.nanoTime();
+        int total = requests.size();
+
+        // snapshot the transforms on the owning thread: the workers only read them.
+        List<ForkJoinTask<ShapeInput>> tasks = new ArrayList<>(total);
+        for (Request request : requests) {
+            List<MeshPart> parts = collectMeshParts(request.spatial);
+            boolean dynamic = request.mass > 0 && !request.isKinematic;
+            tasks.add(pool.submit(() -> computeInput(request.type, parts, dynamic)));
+        }
+
+        List<RigidBodyControl> results = new ArrayList<>(total);
+        int simplified = 0;
+        for (int i = 0; i < total; i++) {
+            Request request = requests.get(i);
+            ShapeInput input = tasks.get(i).join();
+            if (input.fit != null) {
+                logger.log(Level.FINE, "{0}: {1}", new Object[]{request.spatial, input.fit});
+                if (input.fit.isPrimitive()) {
+                    simplified++;
+                }
+            }
+
+            RigidBodyControl rgb = new RigidBodyControl(createShape(request.type, input), request.mass);
+            request.spatial.addControl(rgb);
+            rgb.setKinematic(request.isKinematic);
+            space.add(rgb);
+            results.add(rgb);
+
+            if (listener != null) {
+                listener.onProgress(i + 1, total);
+            }
+        }
+
+        requests.clear();
+        logger.log(Level.INFO, "{0} colliders built in {1} ms on {2} threads, {3} simplified to primitives",
+                new Object[]{total, (System.nanoTime() - start) / 1_000_000, pool.getParallelism(), simplified});
+        return results;
+    }
+
+    static List<MeshPart> collectMeshParts(Spatial sp) {
+        final List<MeshPart> parts = new ArrayList<>();
+        // vertices are expressed in the rotated frame of the Spatial, with its world scale applied.
+        final Transform toLocal = sp.getWorldTransform().invert();
+        final Vector3f worldScale = sp.getWorldScale().clone();
+
+        sp.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                Mesh mesh = geom.getMesh();
+                Mesh.Mode mode = mesh.getMode();
+                if (mode != Mesh.Mode.Triangles && mode != Mesh.Mode.TriangleStrip && mode != Mesh.Mode.TriangleFan) {
+                    logger.log(Level.WARNING, "Skipping non-triangle mesh: {0}", geom);
+                    return;
+                }
+                MeshPart part = new MeshPart();
+                part.mesh = mesh;
+                part.transform = geom.getWorldTransform().clone().combineWithParent(toLocal);
+                part.scale = worldScale;
+                parts.add(part);
+            }
+        });
+        return parts;
+    }
+
+    /**
+     * Runs on a worker thread: reads the meshes, never modifies them.
+     */
+    private ShapeInput computeInput(ColliderType type, List<MeshPart> parts, boolean dynamic) {
+        ShapeInput input = new ShapeInput();
+        input.positions = extractPositions(parts);
+
+        switch (type) {
+            case Box:
+                input.halfExtents = computeHalfExtents(input.positions);
+                break;
+            case Sphere:
+                input.radius = computeRadius(input.positions);
+                break;
+            case Mesh:
+                input.indices = extractIndices(parts);
+                break;
+            case DynamicMesh:
+                input.positions = reduceHullPoints(input.positions, maxHullVertices);
+                break;
+            case Simplified:
+                input.indices = extractIndices(parts);
+                input.fit = ColliderSimplifier.fit(input.positions, input.indices, simplifyTolerance);
+                if (!input.fit.isPrimitive()) {
+                    input.fallback = dynamic ? ColliderType.DynamicMesh : ColliderType.Mesh;
+                    if (dynamic) {
+                        input.positions = reduceHullPoints(input.positions, maxHullVertices);
+                    }
+                }
+                break;
+        }
+        return input;
+    }
+
+    private static CollisionShape createShape(ColliderType type, ShapeInput input) {
+        switch (type) {
+            case Box:
+                return new BoxCollisionShape(input.halfExtents);
+            case Sphere:
+                return new SphereCollisionShape(input.radius);
+            case Mesh:
+                Vector3f[] vertices = new Vector3f[input.positions.length / 3];
+                for (int i = 0; i < vertices.length; i++) {
+                    vertices[i] = new Vector3f(input.positions[i * 3], input.positions[i * 3 + 1], input.positions[i * 3 + 2]);
+                }
+                return new MeshCollisionShape(true, new IndexedMesh(vertices, input.indices));
+            case DynamicMesh:
+                return new HullCollisionShape(input.positions);
+            case Simplified:
+                return input.fit.isPrimitive() ? input.fit.createShape() : createShape(input.fallback, input);
+            default:
+                throw new IllegalArgumentException("Unknown collider type: " + type);
+        }
+    }
+
+    static float[] extractPositions(List<MeshPart> parts) {
+        int count = 0;
+        for (MeshPart part : parts) {
+            count += part.mesh.getVertexCount();
+        }
+
+        float[] positions = new float[count * 3];
+        Vector3f tmp = new Vector3f();
+        int n = 0;
+        for (MeshPart part : parts) {
+            FloatBuffer fb = (FloatBuffer) part.mesh.getBuffer(VertexBuffer.Type.Position).getData();
+            int vertexCount = part.mesh.getVertexCount();
+            for (int v = 0; v < vertexCount; v++) {
+                // absolute gets: the buffer position is shared with the other threads.
+                tmp.set(fb.get(v * 3), fb.get(v * 3 + 1), fb.get(v * 3 + 2));
+                part.transform.transformVector(tmp, tmp).multLocal(part.scale);
+                positions[n++] = tmp.x;
+                positions[n++] = tmp.y;
+                positions[n++] = tmp.z;
+            }
+        }
+        return positions;
+    }
+
+    static int[] extractIndices(List<MeshPart> parts) {
+        int count = 0;
+        for (MeshPart part : parts) {
+            count += part.mesh.getTriangleCount() * 3;
+        }
+
+        int[] indices = new int[count];
+        int n = 0;
+        int baseVertex = 0;
+        for (MeshPart part : parts) {
+            // triangle list view: unrolls strips and fans, sequential indices if the mesh has no index buffer.
+            IndexBuffer ib = part.mesh.getIndicesAsList();
+            int size = part.mesh.getTriangleCount() * 3;
+            for (int i = 0; i < size; i++) {
+                indices[n++] = baseVertex + ib.get(i);
+            }
+            baseVertex += part.mesh.getVertexCount();
+        }
+        return indices;
+    }
+
+    private static Vector3f computeHalfExtents(float[] positions) {
+        Vector3f min = new Vector3f(Vector3f.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Vector3f.NEGATIVE_INFINITY);
+        for (int i = 0; i < positions.length; i += 3) {
+            min.set(Math.min(min.x, positions[i]), Math.min(min.y, positions[i + 1]), Math.min(min.z, positions[i + 2]));
+            max.set(Math.max(max.x, positions[i]), Math.max(max.y, positions[i + 1]), Math.max(max.z, positions[i + 2]));
+        }
+        return max.subtractLocal(min).multLocal(0.5f);
+    }
+
+    private static float computeRadius(float[] positions) {
+        float maxSq = 0;
+        for (int i = 0; i < positions.length; i += 3) {
+            float x = positions[i], y = positions[i + 1], z = positions[i + 2];
+            maxSq = Math.max(maxSq, x * x + y * y + z * z);
+        }
+        return FastMath.sqrt(maxSq);
+    }
+
+    /**
+     * Removes the duplicated points and, above the limit, keeps only the
+     * points that are extreme along a set of evenly distributed directions.
+     * The kept points are all vertices of the convex hull.
+     */
+    private static float[] reduceHullPoints(float[] positions, int maxPoints) {
+        Set<Vector3f> unique = new HashSet<>();
+        for (int i = 0; i < positions.length; i += 3) {
+            unique.add(new Vector3f(positions[i], positions[i + 1], positions[i + 2]));
+        }
+
+        List<Vector3f> points = new ArrayList<>(unique);
+        if (points.size() > maxPoints) {
+            Set<Vector3f> extremes = new HashSet<>();
+            // Fibonacci sphere directions
+            float goldenAngle = FastMath.PI * (3f - FastMath.sqrt(5f));
+            for (int d = 0; d < maxPoints; d++) {
+                float y = 1f - 2f * (d + 0.5f) / maxPoints;
+                float r = FastMath.sqrt(1f - y * y);
+                float theta = goldenAngle * d;
+                float dx = FastMath.cos(theta) * r, dz = FastMath.sin(theta) * r;
+
+                Vector3f best = null;
+                float bestDot = Float.NEGATIVE_INFINITY;
+                for (Vector3f p : points) {
+                    float dot = p.x * dx + p.y * y + p.z * dz;
+                    if (dot > bestDot) {
+                        bestDot = dot;
+                        best = p;
+                    }
+                }
+                extremes.add(best);
+            }
+            points = new ArrayList<>(extremes);
+        }
+
+        float[] result = new float[points.size() * 3];
+        for (int i = 0; i < points.size(); i++) {
+            Vector3f p = points.get(i);
+            result[i * 3] = p.x;
+            result[i * 3 + 1] = p.y;
+            result[i * 3 + 2] = p.z;
+        }
+        return result;
+    }
+
+    private static class Request {
+        Spatial spatial;
+        ColliderType type;
+        float mass;
+        boolean isKinematic;
+    }
+
+    static class MeshPart {
+        Mesh mesh;
+        Transform transform;
+        Vector3f scale;
+    }
+
+    private static class ShapeInput {
+        float[] positions;
+        int[] indices;
+        Vector3f halfExtents;
+        float radius;
+        ColliderSimplifier.Fit fit;
+        ColliderType fallback;
+    }
+
+}
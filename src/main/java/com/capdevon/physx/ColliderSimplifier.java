@@ -0,0 +1,545 @@
+package com.capdevon.physx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.CompoundCollisionShape;
+import com.jme3.bullet.collision.shapes.CylinderCollisionShape;
+import com.jme3.bullet.collision.shapes.SphereCollisionShape;
+import com.jme3.math.FastMath;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+/**
+ * Replaces mesh colliders with the cheapest primitive (or pair of boxes) that
+ * fits the mesh within a tolerance.
+ * <p>
+ * The candidates are computed both in the frame of the Spatial and in the
+ * frame of the principal axes (PCA) of the vertices: sphere, capsule, box,
+ * cylinder and two boxes split along the longest axis. Each candidate
+ * contains all the vertices; its error is the excess volume over the volume
+ * of the mesh ({@code primitiveVolume / meshVolume - 1}), or, for open meshes
+ * whose volume is unknown, the RMS distance of the vertices from the surface
+ * of the primitive relative to its size. The first candidate in order of
+ * narrowphase cost whose error is within the tolerance wins.
+ *
+ * @author capdevon
+ */
+public class ColliderSimplifier {
+
+    /**
+     * The primitives, in order of narrowphase cost.
+     */
+    public enum FitType {
+        Sphere, Capsule, Box, Cylinder, CompoundBox,
+        // no primitive within the tolerance.
+        None
+    }
+
+    private static final float IDENTITY_TOLERANCE = 1e-4f;
+
+    private ColliderSimplifier() {
+        // private constructor.
+    }
+
+    /**
+     * Fits the meshes of a Spatial, expressed in its own (scaled) frame.
+     *
+     * @param sp        - the Spatial to analyse
+     * @param tolerance - the maximum error accepted (eg: 0.25 = 25% excess volume)
+     * @return the fit (type None if no primitive is good enough)
+     */
+    public static Fit fit(Spatial sp, float tolerance) {
+        List<ColliderBuilder.MeshPart> parts = ColliderBuilder.collectMeshParts(sp);
+        return fit(ColliderBuilder.extractPositions(parts), ColliderBuilder.extractIndices(parts), tolerance);
+    }
+
+    /**
+     * Fits a triangle mesh.
+     *
+     * @param positions - the vertex positions (x, y, z, ...)
+     * @param indices   - the triangle indices, used for the mesh volume (may be null)
+     * @param tolerance - the maximum error accepted
+     * @return the fit (type None if no primitive is good enough)
+     */
+    public static Fit fit(float[] positions, int[] indices, float tolerance) {
+        int n = positions.length / 3;
+        if (n == 0) {
+            throw new IllegalArgumentException("No vertices to fit");
+        }
+
+        Vector3f centroid = new Vector3f();
+        for (int i = 0; i < positions.length; i += 3) {
+            centroid.addLocal(positions[i], positions[i + 1], positions[i + 2]);
+        }
+        centroid.divideLocal(n);
+
+        List<Fit> candidates = new ArrayList<>();
+        Frame identity = new Frame(positions, centroid, Vector3f.UNIT_X, Vector3f.UNIT_Y, Vector3f.UNIT_Z);
+        Frame pca = new Frame(positions, centroid, principalAxes(positions, centroid));
+        for (Frame frame : new Frame[] { identity, pca }) {
+            candidates.add(frame.fitSphere());
+            candidates.add(frame.fitCapsule());
+            candidates.add(frame.fitBox());
+            candidates.add(frame.fitCylinder());
+            candidates.add(frame.fitCompoundBox());
+        }
+
+        float meshVolume = (indices != null) ? meshVolume(positions, indices) : Float.NaN;
+        // an open or flat mesh has no meaningful volume.
+        if (!(meshVolume > pca.boxVolume() * 1e-3f)) {
+            meshVolume = Float.NaN;
+        }
+
+        Fit best = null;
+        Fit closest = null;
+        for (Fit fit : candidates) {
+            fit.volumeRatio = fit.volume / meshVolume;
+            fit.error = Float.isNaN(meshVolume) ? fit.surfaceError : Math.max(0f, fit.volumeRatio - 1f);
+
+            if (closest == null || fit.error < closest.error) {
+                closest = fit;
+            }
+            if (fit.error <= tolerance && (best == null || fit.type.ordinal() < best.type.ordinal()
+                    || (fit.type == best.type && fit.volume < best.volume))) {
+                best = fit;
+            }
+        }
+
+        if (best == null) {
+            Fit none = new Fit(FitType.None);
+            none.volume = closest.volume;
+            none.volumeRatio = closest.volumeRatio;
+            none.surfaceError = closest.surfaceError;
+            none.error = closest.error;
+            return none;
+        }
+        return best;
+    }
+
+    /**
+     * Signed volume of a closed triangle mesh (divergence theorem).
+     */
+    private static float meshVolume(float[] p, int[] indices) {
+        double volume = 0;
+        for (int t = 0; t + 2 < indices.length; t += 3) {
+            int a = indices[t] * 3, b = indices[t + 1] * 3, c = indices[t + 2] * 3;
+            // a . (b x c)
+            double cx = p[b + 1] * p[c + 2] - p[b + 2] * p[c + 1];
+            double cy = p[b + 2] * p[c] - p[b] * p[c + 2];
+            double cz = p[b] * p[c + 1] - p[b + 1] * p[c];
+            volume += p[a] * cx + p[a + 1] * cy + p[a + 2] * cz;
+        }
+        return (float) Math.abs(volume / 6.0);
+    }
+
+    /**
+     * Returns the eigenvectors of the covariance matrix of the points, sorted
+     * by decreasing variance and forming a right-handed basis.
+     */
+    private static Vector3f[] principalAxes(float[] p, Vector3f centroid) {
+        double[][] a = new double[3][3];
+        for (int i = 0; i < p.length; i += 3) {
+            double x = p[i] - centroid.x, y = p[i + 1] - centroid.y, z = p[i + 2] - centroid.z;
+            a[0][0] += x * x; a[0][1] += x * y; a[0][2] += x * z;
+            a[1][1] += y * y; a[1][2] += y * z;
+            a[2][2] += z * z;
+        }
+        a[1][0] = a[0][1];
+        a[2][0] = a[0][2];
+        a[2][1] = a[1][2];
+
+        double[][] v = { { 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, 1 } };
+        jacobi(a, v);
+
+        Integer[] order = { 0, 1, 2 };
+        Arrays.sort(order, (i, j) -> Double.compare(a[j][j], a[i][i]));
+
+        Vector3f[] axes = new Vector3f[3];
+        for (int k = 0; k < 2; k++) {
+            int c = order[k];
+            axes[k] = new Vector3f((float) v[0][c], (float) v[1][c], (float) v[2][c]).normalizeLocal();
+        }
+        axes[2] = axes[0].cross(axes[1]).normalizeLocal();
+        return axes;
+    }
+
+    /**
+     * Cyclic Jacobi eigenvalue algorithm for a symmetric 3x3 matrix: on return
+     * the diagonal of a holds the eigenvalues and the columns of v the
+     * eigenvectors.
+     */
+    private static void jacobi(double[][] a, double[][] v) {
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double off = a[0][1] * a[0][1] + a[0][2] * a[0][2] + a[1][2] * a[1][2];
+            double diag = a[0][0] * a[0][0] + a[1][1] * a[1][1] + a[2][2] * a[2][2];
+            if (off <= 1e-24 * diag) {
+                return;
+            }
+            for (int p = 0; p < 2; p++) {
+                for (int q = p + 1; q < 3; q++) {
+                    if (Math.abs(a[p][q]) < 1e-30) {
+                        continue;
+                    }
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+
+                    for (int k = 0; k < 3; k++) {
+                        double akp = a[k][p], akq = a[k][q];
+                        a[k][p] = c * akp - s * akq;
+                        a[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double apk = a[p][k], aqk = a[q][k];
+                        a[p][k] = c * apk - s * aqk;
+                        a[q][k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double vkp = v[k][p], vkq = v[k][q];
+                        v[k][p] = c * vkp - s * vkq;
+                        v[k][q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * ---- @class Frame ----
+     *
+     * The vertices expressed in an orthonormal frame, centered on the middle
+     * of their bounds along its axes.
+     */
+    private static class Frame {
+
+        final Vector3f[] axes;
+        final Vector3f center = new Vector3f();
+        final Vector3f halfExtents = new Vector3f();
+        // local coordinates (x, y, z, ...)
+        final float[] local;
+        final int n;
+        // the longest axis.
+        final int major;
+
+        Frame(float[] p, Vector3f origin, Vector3f... axes) {
+            this.axes = axes;
+            this.n = p.length / 3;
+            this.local = new float[p.length];
+
+            float[] min = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+            float[] max = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+            for (int i = 0; i < p.length; i += 3) {
+                float x = p[i] - origin.x, y = p[i + 1] - origin.y, z = p[i + 2] - origin.z;
+                for (int k = 0; k < 3; k++) {
+                    float q = x * axes[k].x + y * axes[k].y + z * axes[k].z;
+                    local[i + k] = q;
+                    min[k] = Math.min(min[k], q);
+                    max[k] = Math.max(max[k], q);
+                }
+            }
+
+            center.set(origin);
+            for (int k = 0; k < 3; k++) {
+                float mid = (min[k] + max[k]) * 0.5f;
+                halfExtents.set(k, (max[k] - min[k]) * 0.5f);
+                center.addLocal(axes[k].mult(mid));
+                for (int i = k; i < local.length; i += 3) {
+                    local[i] -= mid;
+                }
+            }
+
+            int m = 0;
+            for (int k = 1; k < 3; k++) {
+                if (halfExtents.get(k) > halfExtents.get(m)) {
+                    m = k;
+                }
+            }
+            this.major = m;
+        }
+
+        float boxVolume() {
+            return 8f * halfExtents.x * halfExtents.y * halfExtents.z;
+        }
+
+        Fit fitSphere() {
+            float maxSq = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                maxSq = Math.max(maxSq, lengthSq(i));
+            }
+            Fit fit = newFit(FitType.Sphere);
+            fit.radius = FastMath.sqrt(maxSq);
+            fit.volume = 4f / 3f * FastMath.PI * fit.radius * fit.radius * fit.radius;
+
+            double sum = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                double d = fit.radius - Math.sqrt(lengthSq(i));
+                sum += d * d;
+            }
+            return setSurfaceError(fit, sum);
+        }
+
+        Fit fitCapsule() {
+            float maxRadialSq = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                maxRadialSq = Math.max(maxRadialSq, radialSq(i));
+            }
+            // the smallest cylinder half-height whose caps still contain every vertex.
+            float halfHeight = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                float t = Math.abs(local[i + major]);
+                halfHeight = Math.max(halfHeight, t - FastMath.sqrt(Math.max(0f, maxRadialSq - radialSq(i))));
+            }
+
+            Fit fit = newFit(FitType.Capsule);
+            fit.radius = FastMath.sqrt(maxRadialSq);
+            fit.height = 2f * halfHeight;
+            fit.volume = FastMath.PI * maxRadialSq * (fit.height + 4f / 3f * fit.radius);
+
+            double sum = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                float t = Math.max(0f, Math.abs(local[i + major]) - halfHeight);
+                double d = fit.radius - Math.sqrt(radialSq(i) + t * t);
+                sum += d * d;
+            }
+            return setSurfaceError(fit, sum);
+        }
+
+        Fit fitBox() {
+            Fit fit = newFit(FitType.Box);
+            fit.halfExtents.set(halfExtents);
+            fit.volume = boxVolume();
+
+            double sum = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                double d = boxDistance(i, Vector3f.ZERO, halfExtents);
+                sum += d * d;
+            }
+            return setSurfaceError(fit, sum);
+        }
+
+        Fit fitCylinder() {
+            float maxRadialSq = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                maxRadialSq = Math.max(maxRadialSq, radialSq(i));
+            }
+            Fit fit = newFit(FitType.Cylinder);
+            fit.radius = FastMath.sqrt(maxRadialSq);
+            fit.height = 2f * halfExtents.get(major);
+            fit.volume = FastMath.PI * maxRadialSq * fit.height;
+
+            double sum = 0;
+            for (int i = 0; i < local.length; i += 3) {
+                double d = Math.min(fit.radius - Math.sqrt(radialSq(i)), fit.height * 0.5f - Math.abs(local[i + major]));
+                sum += d * d;
+            }
+            return setSurfaceError(fit, sum);
+        }
+
+        /**
+         * Two boxes, split across the longest axis at the position that
+         * minimizes their total volume.
+         */
+        Fit fitCompoundBox() {
+            float extent = halfExtents.get(major);
+            float bestVolume = Float.POSITIVE_INFINITY;
+            float[] best = null;
+
+            for (int s = 1; s < 8; s++) {
+                float split = -extent + 2f * extent * s / 8f;
+                // min/max of the two halves: [side][axis]
+                float[] bounds = splitBounds(split);
+                float volume = boxVolume(bounds, 0) + boxVolume(bounds, 6);
+                if (volume < bestVolume) {
+                    bestVolume = volume;
+                    best = bounds;
+                }
+            }
+
+            Fit fit = newFit(FitType.CompoundBox);
+            fit.volume = bestVolume;
+            double sum = 0;
+            for (int side = 0; side < 2; side++) {
+                Fit child = newFit(FitType.Box);
+                Vector3f mid = new Vector3f();
+                for (int k = 0; k < 3; k++) {
+                    float lo = best[side * 6 + k], hi = best[side * 6 + 3 + k];
+                    child.halfExtents.set(k, Math.max(0f, (hi - lo) * 0.5f));
+                    mid.set(k, (hi + lo) * 0.5f);
+                    child.center.addLocal(axes[k].mult(mid.get(k)));
+                }
+                child.volume = boxVolume(best, side * 6);
+                fit.children.add(child);
+
+                for (int i = 0; i < local.length; i += 3) {
+                    if ((local[i + major] >= best[6 + major]) == (side == 1)) {
+                        double d = boxDistance(i, mid, child.halfExtents);
+                        sum += d * d;
+                    }
+                }
+            }
+            return setSurfaceError(fit, sum);
+        }
+
+        private float[] splitBounds(float split) {
+            float[] b = new float[12];
+            for (int side = 0; side < 2; side++) {
+                for (int k = 0; k < 3; k++) {
+                    b[side * 6 + k] = Float.POSITIVE_INFINITY;
+                    b[side * 6 + 3 + k] = Float.NEGATIVE_INFINITY;
+                }
+            }
+            for (int i = 0; i < local.length; i += 3) {
+                int side = (local[i + major] < split) ? 0 : 1;
+                for (int k = 0; k < 3; k++) {
+                    b[side * 6 + k] = Math.min(b[side * 6 + k], local[i + k]);
+                    b[side * 6 + 3 + k] = Math.max(b[side * 6 + 3 + k], local[i + k]);
+                }
+            }
+            return b;
+        }
+
+        private static float boxVolume(float[] b, int offset) {
+            float volume = 1f;
+            for (int k = 0; k < 3; k++) {
+                volume *= Math.max(0f, b[offset + 3 + k] - b[offset + k]);
+            }
+            return volume;
+        }
+
+        /**
+         * Distance of an inner vertex from the nearest face of a box.
+         */
+        private double boxDistance(int i, Vector3f mid, Vector3f half) {
+            double d = Double.POSITIVE_INFINITY;
+            for (int k = 0; k < 3; k++) {
+                d = Math.min(d, half.get(k) - Math.abs(local[i + k] - mid.get(k)));
+            }
+            return d;
+        }
+
+        private float lengthSq(int i) {
+            return local[i] * local[i] + local[i + 1] * local[i + 1] + local[i + 2] * local[i + 2];
+        }
+
+        private float radialSq(int i) {
+            float t = local[i + major];
+            return lengthSq(i) - t * t;
+        }
+
+        private Fit newFit(FitType type) {
+            Fit fit = new Fit(type);
+            fit.center.set(center);
+            fit.rotation.fromAxes(axes[0], axes[1], axes[2]);
+            fit.axis = major;
+            return fit;
+        }
+
+        private Fit setSurfaceError(Fit fit, double sumSq) {
+            float size = (float) Math.cbrt(Math.max(fit.volume, 1e-12f));
+            fit.surfaceError = (float) Math.sqrt(sumSq / n) / size;
+            return fit;
+        }
+    }
+
+    /**
+     * ---- @class Fit ----
+     */
+    public static class Fit {
+
+        public final FitType type;
+        // the pose of the primitive in the frame of the mesh.
+        public final Vector3f center = new Vector3f();
+        public final Quaternion rotation = new Quaternion();
+        // Box
+        public final Vector3f halfExtents = new Vector3f();
+        // Sphere, Capsule, Cylinder
+        public float radius;
+        // Capsule (cylindrical part), Cylinder
+        public float height;
+        // the local axis of Capsule and Cylinder (PhysicsSpace.AXIS_X/Y/Z)
+        public int axis = PhysicsSpace.AXIS_Y;
+        // CompoundBox
+        public final List<Fit> children = new ArrayList<>(2);
+
+        public float volume;
+        // primitive volume / mesh volume (NaN for open meshes).
+        public float volumeRatio = Float.NaN;
+        // RMS distance of the vertices from the surface, relative to the size of the primitive.
+        public float surfaceError;
+        public float error;
+
+        Fit(FitType type) {
+            this.type = type;
+        }
+
+        public boolean isPrimitive() {
+            return type != FitType.None;
+        }
+
+        /**
+         * Creates the collision shape. Primitives that are not centered on the
+         * origin of the mesh or not aligned with its axes are wrapped in a
+         * CompoundCollisionShape.
+         *
+         * @return the new shape
+         */
+        public CollisionShape createShape() {
+            if (type == FitType.None) {
+                throw new IllegalStateException("No primitive fits the mesh");
+            }
+            if (type == FitType.CompoundBox) {
+                CompoundCollisionShape compound = new CompoundCollisionShape();
+                for (Fit child : children) {
+                    compound.addChildShape(child.createPrimitive(), child.center, child.rotation.toRotationMatrix());
+                }
+                return compound;
+            }
+
+            CollisionShape shape = createPrimitive();
+            boolean centered = center.lengthSquared() < IDENTITY_TOLERANCE * IDENTITY_TOLERANCE;
+            boolean aligned = type == FitType.Sphere || rotation.isIdentity();
+            if (centered && aligned) {
+                return shape;
+            }
+            CompoundCollisionShape compound = new CompoundCollisionShape();
+            compound.addChildShape(shape, center, aligned ? new Matrix3f() : rotation.toRotationMatrix());
+            return compound;
+        }
+
+        private CollisionShape createPrimitive() {
+            switch (type) {
+                case Sphere:
+                    return new SphereCollisionShape(radius);
+                case Capsule:
+                    return new CapsuleCollisionShape(radius, height, axis);
+                case Box:
+                    return new BoxCollisionShape(halfExtents);
+                case Cylinder:
+                    Vector3f cylinderExtents = new Vector3f(radius, radius, radius);
+                    cylinderExtents.set(axis, height * 0.5f);
+                    return new CylinderCollisionShape(cylinderExtents, axis);
+                default:
+                    throw new IllegalStateException("Not a single primitive: " + type);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Fit[type=%s, volumeRatio=%.3f, surfaceError=%.3f, error=%.3f]",
+                    type, volumeRatio, surfaceError, error);
+        }
+    }
+
+}
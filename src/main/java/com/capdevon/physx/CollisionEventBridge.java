@@ -0,0 +1,295 @@
+package com.capdevon.physx;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.PhysicsCollisionEvent;
+import com.jme3.bullet.collision.PhysicsCollisionListener;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+/**
+ * Moves the collision events from the physics thread to the render thread.
+ * <p>
+ * The physics thread (the single producer) copies each event into a
+ * preallocated ring of records: the two objects, the contact point on B, the
+ * normal on B and the applied impulse. The render thread (the single
+ * consumer) drains all the pending records in {@link #update} and passes them,
+ * one at a time, to the registered {@link CollisionListener}s through a
+ * reused {@link CollisionRecord} view, so gameplay code can touch the scene
+ * graph safely. No locks, no objects per event. When the ring is full the new
+ * events are dropped, counted and reported with a warning at the next drain.
+ * <p>
+ * Works with any threading type of the BulletAppState.
+ *
+ * @author capdevon
+ */
+public class CollisionEventBridge extends BaseAppState implements PhysicsCollisionListener {
+
+    private static final Logger logger = Logger.getLogger(CollisionEventBridge.class.getName());
+
+    /**
+     * Receives the collision records on the render thread.
+     */
+    public interface CollisionListener {
+
+        /**
+         * @param record - a view of the record, valid only during the call.
+         */
+        public void onCollision(CollisionRecord record);
+    }
+
+    // floats per record: point(3) normal(3) impulse(1)
+    private static final int STRIDE = 7;
+
+    private PhysicsSpace physicsSpace;
+    private final CopyOnWriteArrayList<CollisionListener> listeners = new CopyOnWriteArrayList<>();
+
+    // the ring (capacity is a power of 2).
+    private final int capacity;
+    private final int mask;
+    private final PhysicsCollisionObject[] objectsA;
+    private final PhysicsCollisionObject[] objectsB;
+    private final float[] data;
+
+    // sequence numbers: written by the producer and the consumer respectively.
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final AtomicLong readSequence = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long reportedDropped;
+
+    // events weaker than this impulse are ignored.
+    private volatile float minImpulse = 0f;
+
+    private final CollisionRecord record = new CollisionRecord();
+    private final Vector3f tmpVec = new Vector3f();
+
+    // metrics
+    private long delivered;
+    private int lastBatchSize;
+
+    /**
+     * Creates a bridge with room for 4096 pending events.
+     */
+    public CollisionEventBridge() {
+        this(4_096);
+    }
+
+    /**
+     * @param capacity - the number of events that can be pending (rounded up to a power of 2)
+     */
+    public CollisionEventBridge(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.objectsA = new PhysicsCollisionObject[size];
+        this.objectsB = new PhysicsCollisionObject[size];
+        this.data = new float[size * STRIDE];
+    }
+
+    @Override
+    protected void initialize(Application app) {
+        this.physicsSpace = getState(BulletAppState.class, true).getPhysicsSpace();
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+    }
+
+    @Override
+    protected void onEnable() {
+        physicsSpace.addCollisionListener(this);
+    }
+
+    @Override
+    protected void onDisable() {
+        physicsSpace.removeCollisionListener(this);
+        // discard what is left: the listeners no longer expect events.
+        drain(false);
+    }
+
+    public void addListener(CollisionListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(CollisionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Producer side: runs on the physics thread.
+     */
+    @Override
+    public void collision(PhysicsCollisionEvent event) {
+        float impulse = event.getAppliedImpulse();
+        if (impulse < minImpulse) {
+            return;
+        }
+
+        long w = writeSequence.get();
+        if (w - readSequence.get() >= capacity) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        int slot = (int) (w & mask);
+        int offset = slot * STRIDE;
+        objectsA[slot] = event.getObjectA();
+        objectsB[slot] = event.getObjectB();
+        event.getPositionWorldOnB(tmpVec);
+        data[offset] = tmpVec.x;
+        data[offset + 1] = tmpVec.y;
+        data[offset + 2] = tmpVec.z;
+        event.getNormalWorldOnB(tmpVec);
+        data[offset + 3] = tmpVec.x;
+        data[offset + 4] = tmpVec.y;
+        data[offset + 5] = tmpVec.z;
+        data[offset + 6] = impulse;
+
+        // publish the record after its fields.
+        writeSequence.lazySet(w + 1);
+    }
+
+    /**
+     * Consumer side: runs on the render thread.
+     */
+    @Override
+    public void update(float tpf) {
+        drain(true);
+
+        long totalDropped = dropped.get();
+        if (totalDropped != reportedDropped) {
+            logger.log(Level.WARNING, "Collision event ring full ({0} slots): {1} events dropped",
+                    new Object[]{capacity, totalDropped - reportedDropped});
+            reportedDropped = totalDropped;
+        }
+    }
+
+    private void drain(boolean deliver) {
+        long r = readSequence.get();
+        long w = writeSequence.get();
+        lastBatchSize = (int) (w - r);
+
+        for (; r < w; r++) {
+            int slot = (int) (r & mask);
+            if (deliver) {
+                record.slot = slot;
+                for (CollisionListener listener : listeners) {
+                    listener.onCollision(record);
+                }
+                delivered++;
+            }
+            // do not keep the objects alive.
+            objectsA[slot] = null;
+            objectsB[slot] = null;
+        }
+
+        // hand the slots back to the producer.
+        readSequence.lazySet(w);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the total number of events dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * @return the number of records drained by the last update
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public float getMinImpulse() {
+        return minImpulse;
+    }
+
+    /**
+     * Ignore the events whose applied impulse is lower than this value.
+     *
+     * @param minImpulse (&ge;0, default=0)
+     */
+    public void setMinImpulse(float minImpulse) {
+        this.minImpulse = minImpulse;
+    }
+
+    /**
+     * ---- @class CollisionRecord ----
+     *
+     * A view of the record being delivered.
+     */
+    public class CollisionRecord {
+
+        private int slot;
+
+        public PhysicsCollisionObject getObjectA() {
+            return objectsA[slot];
+        }
+
+        public PhysicsCollisionObject getObjectB() {
+            return objectsB[slot];
+        }
+
+        /**
+         * @return the Spatial of object A, or null if it has none
+         */
+        public Spatial getNodeA() {
+            Object obj = objectsA[slot].getUserObject();
+            return (obj instanceof Spatial) ? (Spatial) obj : null;
+        }
+
+        /**
+         * @return the Spatial of object B, or null if it has none
+         */
+        public Spatial getNodeB() {
+            Object obj = objectsB[slot].getUserObject();
+            return (obj instanceof Spatial) ? (Spatial) obj : null;
+        }
+
+        /**
+         * @param store - storage for the result (not null)
+         * @return the contact point on object B (in physics-space coordinates)
+         */
+        public Vector3f getPositionWorldOnB(Vector3f store) {
+            int offset = slot * STRIDE;
+            return store.set(data[offset], data[offset + 1], data[offset + 2]);
+        }
+
+        /**
+         * @param store - storage for the result (not null)
+         * @return the contact normal on object B (in physics-space coordinates)
+         */
+        public Vector3f getNormalWorldOnB(Vector3f store) {
+            int offset = slot * STRIDE;
+            return store.set(data[offset + 3], data[offset + 4], data[offset + 5]);
+        }
+
+        public float getAppliedImpulse() {
+            return data[slot * STRIDE + 6];
+        }
+    }
+
+}
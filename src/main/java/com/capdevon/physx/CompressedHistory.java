@@ -0,0 +1,469 @@
+package com.capdevon.physx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.capdevon.util.Quantization;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+
+/**
+ * A compressed history of the transforms (position and rotation) of a group
+ * of bodies, one frame per sample.
+ * <p>
+ * The frames are grouped in chunks of {@link #getKeyframeInterval()} frames.
+ * The first frame of a chunk is a keyframe: the full position of every body
+ * (which becomes the reference of the body for the whole chunk) and its
+ * rotation. The other frames only contain the bodies that moved more than
+ * the position epsilon or turned more than the rotation epsilon since the
+ * last value stored (the rotation is compared before packing), with the position quantized relative to the reference
+ * and the rotation packed with the smallest-three encoding.
+ * <pre>
+ * keyframe: bodyCount(varint) { x y z (float) rotation(4) } * bodyCount
+ * frame:    numEntries(4) { indexGap &lt;&lt; 2 | flags (varint)
+ *                          [dx dy dz (zigzag varint)] [rotation(4)] } * numEntries
+ * </pre>
+ * A frame is decoded from the keyframe of its chunk, so the cost of a random
+ * access is bounded by the keyframe interval, and reading the frames of a
+ * chunk in order reuses the state decoded by the previous read. When the
+ * history is full, the oldest chunk is discarded.
+ *
+ * @author capdevon
+ */
+public class CompressedHistory implements TransformHistory {
+
+    // bytes of an uncompressed sample: position(3) and rotation(4) floats.
+    private static final int RAW_SAMPLE_BYTES = 28;
+    // the largest encoding of a body in a frame.
+    private static final int MAX_ENTRY_BYTES = 5 + 3 * 5 + 4;
+
+    private static final int FLAG_POSITION = 1;
+    private static final int FLAG_ROTATION = 2;
+
+    private final int maxFrames;
+    private final int keyframeInterval;
+    private final float precision;
+    private float positionEpsilon;
+    private float rotationEpsilon = 0.002f;
+    // 1 - cos(rotationEpsilon / 2), compared to 1 - |dot|
+    private float rotationThreshold;
+
+    // chunks from the oldest to the newest.
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final List<Chunk> pool = new ArrayList<>();
+    private int frameCount;
+
+    // encoder: the values seen by the decoder for each body of the last chunk.
+    private float[] encRef = new float[0];
+    private float[] encPos = new float[0];
+    private float[] encRot = new float[0];
+    // the last rotations stored, before packing: the change test must not
+    // see the packing error as a rotation.
+    private float[] encRawRot = new float[0];
+
+    // decoder: the state of the last frame decoded.
+    private Chunk decChunk;
+    private int decFrame = -1;
+    private int decCount;
+    private float[] decRef = new float[0];
+    private float[] decPos = new float[0];
+    private float[] decRot = new float[0];
+
+    // metrics
+    private long decodeNanos;
+    private long decodedSamples;
+
+    private final Quaternion tmpRot = new Quaternion();
+
+    /**
+     * @param maxFrames        - the number of frames to keep (&gt;0)
+     * @param keyframeInterval - the number of frames between two keyframes (&gt;0)
+     * @param precision        - the quantization step of the positions (in world units, &gt;0)
+     */
+    public CompressedHistory(int maxFrames, int keyframeInterval, float precision) {
+        if (maxFrames <= 0 || keyframeInterval <= 0 || precision <= 0) {
+            throw new IllegalArgumentException("maxFrames, keyframeInterval and precision must be positive");
+        }
+        this.maxFrames = maxFrames;
+        this.keyframeInterval = keyframeInterval;
+        this.precision = precision;
+        this.positionEpsilon = precision;
+        setRotationEpsilon(rotationEpsilon);
+    }
+
+    /**
+     * Appends a frame.
+     *
+     * @param count     - the number of bodies
+     * @param positions - the positions (x, y, z for each body)
+     * @param rotations - the rotations (x, y, z, w for each body)
+     */
+    @Override
+    public void record(int count, float[] positions, float[] rotations) {
+        // keep at least maxFrames frames.
+        while (chunks.size() > 1 && frameCount - chunks.get(0).frames >= maxFrames) {
+            Chunk oldest = chunks.remove(0);
+            frameCount -= oldest.frames;
+            release(oldest);
+        }
+
+        Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.frames == keyframeInterval || chunk.bodyCount != count) {
+            chunk = obtain(count);
+            chunks.add(chunk);
+            writeKeyframe(chunk, count, positions, rotations);
+        } else {
+            writeFrame(chunk, count, positions, rotations);
+        }
+        frameCount++;
+    }
+
+    private void writeKeyframe(Chunk chunk, int count, float[] positions, float[] rotations) {
+        ensureEncoderCapacity(count);
+        ByteBuffer buf = chunk.reserve(5 + count * 16);
+        chunk.frameOffsets[chunk.frames++] = buf.position();
+
+        Quantization.writeVarInt(buf, count);
+        for (int i = 0; i < count; i++) {
+            int p = i * 3, r = i * 4;
+            for (int c = 0; c < 3; c++) {
+                buf.putFloat(positions[p + c]);
+                encRef[p + c] = encPos[p + c] = positions[p + c];
+            }
+            int packed = Quantization.packRotation(rotations[r], rotations[r + 1], rotations[r + 2], rotations[r + 3]);
+            buf.putInt(packed);
+            storeRotation(encRot, r, packed);
+            System.arraycopy(rotations, r, encRawRot, r, 4);
+        }
+    }
+
+    private void writeFrame(Chunk chunk, int count, float[] positions, float[] rotations) {
+        ByteBuffer buf = chunk.reserve(4 + count * MAX_ENTRY_BYTES);
+        chunk.frameOffsets[chunk.frames++] = buf.position();
+
+        int numEntriesPos = buf.position();
+        buf.putInt(0);
+        int numEntries = 0;
+        int prevIndex = -1;
+
+        for (int i = 0; i < count; i++) {
+            int p = i * 3, r = i * 4;
+            int flags = 0;
+            if (Math.abs(positions[p] - encPos[p]) > positionEpsilon
+                    || Math.abs(positions[p + 1] - encPos[p + 1]) > positionEpsilon
+                    || Math.abs(positions[p + 2] - encPos[p + 2]) > positionEpsilon) {
+                flags |= FLAG_POSITION;
+            }
+            float dot = rotations[r] * encRawRot[r] + rotations[r + 1] * encRawRot[r + 1]
+                    + rotations[r + 2] * encRawRot[r + 2] + rotations[r + 3] * encRawRot[r + 3];
+            if (1f - Math.abs(dot) > rotationThreshold) {
+                flags |= FLAG_ROTATION;
+            }
+            if (flags == 0) {
+                continue;
+            }
+
+            Quantization.writeVarInt(buf, ((i - prevIndex - 1) << 2) | flags);
+            if ((flags & FLAG_POSITION) != 0) {
+                for (int c = 0; c < 3; c++) {
+                    int q = Quantization.quantize(positions[p + c] - encRef[p + c], precision);
+                    Quantization.writeVarInt(buf, Quantization.zigzag(q));
+                    encPos[p + c] = encRef[p + c] + q * precision;
+                }
+            }
+            if ((flags & FLAG_ROTATION) != 0) {
+                int packed = Quantization.packRotation(rotations[r], rotations[r + 1], rotations[r + 2], rotations[r + 3]);
+                buf.putInt(packed);
+                storeRotation(encRot, r, packed);
+                System.arraycopy(rotations, r, encRawRot, r, 4);
+            }
+            prevIndex = i;
+            numEntries++;
+        }
+
+        buf.putInt(numEntriesPos, numEntries);
+    }
+
+    /**
+     * Decodes a frame.
+     *
+     * @param age       - the age of the frame (0 = newest, &lt;{@link #getFrameCount()})
+     * @param positions - storage for the positions (x, y, z for each body)
+     * @param rotations - storage for the rotations (x, y, z, w for each body)
+     * @return the number of bodies in the frame
+     */
+    @Override
+    public int decode(int age, float[] positions, float[] rotations) {
+        if (age < 0 || age >= frameCount) {
+            throw new IllegalArgumentException("age out of range: " + age);
+        }
+        long start = System.nanoTime();
+
+        // locate the chunk, starting from the newest.
+        int c = chunks.size() - 1;
+        int frame = chunks.get(c).frames - 1 - age;
+        while (frame < 0) {
+            frame += chunks.get(--c).frames;
+        }
+        Chunk chunk = chunks.get(c);
+
+        if (chunk != decChunk || frame < decFrame) {
+            decChunk = chunk;
+            decFrame = 0;
+            readKeyframe(chunk);
+            decodedSamples += decCount;
+        }
+        while (decFrame < frame) {
+            readFrame(chunk, ++decFrame);
+            decodedSamples += decCount;
+        }
+
+        System.arraycopy(decPos, 0, positions, 0, decCount * 3);
+        System.arraycopy(decRot, 0, rotations, 0, decCount * 4);
+        decodeNanos += System.nanoTime() - start;
+        return decCount;
+    }
+
+    private void readKeyframe(Chunk chunk) {
+        ByteBuffer buf = chunk.reader;
+        buf.position(chunk.frameOffsets[0]);
+        decCount = Quantization.readVarInt(buf);
+        if (decPos.length < decCount * 3) {
+            decRef = new float[decCount * 3];
+            decPos = new float[decCount * 3];
+            decRot = new float[decCount * 4];
+        }
+        for (int i = 0; i < decCount; i++) {
+            int p = i * 3;
+            for (int c = 0; c < 3; c++) {
+                decRef[p + c] = decPos[p + c] = buf.getFloat();
+            }
+            storeRotation(decRot, i * 4, buf.getInt());
+        }
+    }
+
+    private void readFrame(Chunk chunk, int frame) {
+        ByteBuffer buf = chunk.reader;
+        buf.position(chunk.frameOffsets[frame]);
+        int numEntries = buf.getInt();
+        int index = -1;
+
+        for (int n = 0; n < numEntries; n++) {
+            int header = Quantization.readVarInt(buf);
+            index += (header >>> 2) + 1;
+            if ((header & FLAG_POSITION) != 0) {
+                int p = index * 3;
+                for (int c = 0; c < 3; c++) {
+                    decPos[p + c] = decRef[p + c] + Quantization.unzigzag(Quantization.readVarInt(buf)) * precision;
+                }
+            }
+            if ((header & FLAG_ROTATION) != 0) {
+                storeRotation(decRot, index * 4, buf.getInt());
+            }
+        }
+    }
+
+    /**
+     * Discards the newest frames; the next frame is recorded after the
+     * frames that are left.
+     *
+     * @param frames - the number of frames to discard
+     */
+    @Override
+    public void truncate(int frames) {
+        frames = Math.min(frames, frameCount);
+        frameCount -= frames;
+        while (frames > 0) {
+            Chunk last = chunks.get(chunks.size() - 1);
+            if (frames >= last.frames) {
+                frames -= last.frames;
+                chunks.remove(chunks.size() - 1);
+                release(last);
+            } else {
+                last.frames -= frames;
+                last.buffer.position(last.frameOffsets[last.frames]);
+                frames = 0;
+            }
+        }
+        decChunk = null;
+
+        if (frameCount > 0) {
+            // the encoder resumes from what the decoder sees.
+            decode(0, encPos, encRot);
+            System.arraycopy(decRef, 0, encRef, 0, decCount * 3);
+            System.arraycopy(encRot, 0, encRawRot, 0, decCount * 4);
+        }
+    }
+
+    public void clear() {
+        truncate(frameCount);
+    }
+
+    private void storeRotation(float[] store, int offset, int packed) {
+        Quantization.unpackRotation(packed, tmpRot);
+        store[offset] = tmpRot.getX();
+        store[offset + 1] = tmpRot.getY();
+        store[offset + 2] = tmpRot.getZ();
+        store[offset + 3] = tmpRot.getW();
+    }
+
+    private void ensureEncoderCapacity(int count) {
+        if (encPos.length < count * 3) {
+            encRef = new float[count * 3];
+            encPos = new float[count * 3];
+            encRot = new float[count * 4];
+            encRawRot = new float[count * 4];
+        }
+    }
+
+    private Chunk obtain(int bodyCount) {
+        Chunk chunk = pool.isEmpty() ? new Chunk(keyframeInterval) : pool.remove(pool.size() - 1);
+        chunk.bodyCount = bodyCount;
+        chunk.frames = 0;
+        chunk.buffer.clear();
+        return chunk;
+    }
+
+    private void release(Chunk chunk) {
+        if (chunk == decChunk) {
+            decChunk = null;
+        }
+        pool.add(chunk);
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    public float getPrecision() {
+        return precision;
+    }
+
+    public float getPositionEpsilon() {
+        return positionEpsilon;
+    }
+
+    /**
+     * A position is stored only if it moved more than this distance on any
+     * axis since the last value stored.
+     *
+     * @param positionEpsilon (in world units, &ge;0, default=precision)
+     */
+    public void setPositionEpsilon(float positionEpsilon) {
+        this.positionEpsilon = positionEpsilon;
+    }
+
+    public float getRotationEpsilon() {
+        return rotationEpsilon;
+    }
+
+    /**
+     * A rotation is stored only if it turned more than this angle since the
+     * last value stored.
+     *
+     * @param rotationEpsilon (in radians, &ge;0, default=0.002)
+     */
+    public void setRotationEpsilon(float rotationEpsilon) {
+        this.rotationEpsilon = rotationEpsilon;
+        this.rotationThreshold = 1f - FastMath.cos(rotationEpsilon * 0.5f);
+    }
+
+    /**
+     * @return the size of the encoded frames (in bytes)
+     */
+    public long getEncodedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            bytes += chunks.get(i).size();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the size of the same frames stored as floats (in bytes)
+     */
+    public long getRawBytes() {
+        long bytes = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            bytes += (long) chunk.frames * chunk.bodyCount * RAW_SAMPLE_BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the raw size divided by the encoded size
+     */
+    public float getCompressionRatio() {
+        long encoded = getEncodedBytes();
+        return encoded == 0 ? 1f : (float) getRawBytes() / encoded;
+    }
+
+    /**
+     * @return the average decode time of a body sample (in nanoseconds),
+     *         keyframes and frames replayed from the keyframe included
+     */
+    public float getDecodeNanosPerSample() {
+        return decodedSamples == 0 ? 0 : (float) decodeNanos / decodedSamples;
+    }
+
+    public void resetStats() {
+        decodeNanos = 0;
+        decodedSamples = 0;
+    }
+
+    /**
+     * ---- @class Chunk ----
+     *
+     * A keyframe and the frames that follow it.
+     */
+    private static class Chunk {
+
+        // the writer and a view with its own position for the decoder.
+        ByteBuffer buffer = ByteBuffer.allocate(4_096);
+        ByteBuffer reader = buffer.duplicate();
+        final int[] frameOffsets;
+        int frames;
+        int bodyCount;
+
+        Chunk(int keyframeInterval) {
+            this.frameOffsets = new int[keyframeInterval];
+        }
+
+        /**
+         * @return the buffer, with room for the given number of bytes
+         */
+        ByteBuffer reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                int capacity = buffer.capacity();
+                while (capacity - buffer.position() < bytes) {
+                    capacity *= 2;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(capacity);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+                reader = larger.duplicate();
+            }
+            return buffer;
+        }
+
+        /**
+         * @return the end of the last frame
+         */
+        int size() {
+            return buffer.position();
+        }
+    }
+
+}
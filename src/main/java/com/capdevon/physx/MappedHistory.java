@@ -0,0 +1,388 @@
+package com.capdevon.physx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+/**
+ * A history of transforms kept outside the heap, in memory-mapped files.
+ * <p>
+ * The frames are fixed-layout records appended to segment files of
+ * {@link #getFramesPerSegment()} frames each (a time window: 3600 frames are
+ * one minute at 60 Hz), so a frame is found by its index without any search.
+ * <pre>
+ * segment: magic(4) version(4) maxBodies(4) framesPerSegment(4)
+ *          firstFrame(8) frames(4) reserved(4) frame * framesPerSegment
+ * frame:   bodyCount(4) { x y z qx qy qz qw (float) } * maxBodies
+ * </pre>
+ * When there are more than {@link #getMaxSegments()} segments the oldest one
+ * is deleted. The segments emptied by {@link #truncate} stay mapped and are
+ * reused when the recording reaches them again. {@link #getFrame} reads a
+ * frame in place, without copies, for a replay viewer; {@link #open} maps the
+ * segments of a previous session (read only) to analyse them offline.
+ * <p>
+ * The mappings are released by the garbage collector, the files can be
+ * deleted only after that on some systems.
+ *
+ * @author capdevon
+ */
+public class MappedHistory implements TransformHistory, Closeable {
+
+    private static final Logger logger = Logger.getLogger(MappedHistory.class.getName());
+
+    private static final int MAGIC = 0x4D484953; // "MHIS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int FRAMES_OFFSET = 24;
+    // bytes of a sample: position(3) and rotation(4) floats.
+    private static final int SAMPLE_BYTES = 28;
+
+    private static final String SEGMENT_GLOB = "history-*.seg";
+
+    private final Path directory;
+    private final int maxBodies;
+    private final int framesPerSegment;
+    private final int frameBytes;
+    private final int maxSegments;
+    private final boolean readOnly;
+
+    // segments from the oldest to the newest.
+    private final List<Segment> segments = new ArrayList<>();
+    // segments emptied by truncate, from the newest to the oldest.
+    private final List<Segment> spares = new ArrayList<>();
+    // index of the next frame to record.
+    private long nextFrame;
+    private boolean overflowReported;
+
+    private final Frame frame = new Frame();
+
+    /**
+     * Creates an empty history, deleting the segments left in the directory.
+     *
+     * @param directory        - where to write the segments
+     * @param maxBodies        - the number of bodies of a frame (&gt;0)
+     * @param framesPerSegment - the number of frames of a segment (&gt;0)
+     * @param maxSegments      - the number of segments to keep (0 = all)
+     * @throws IOException
+     */
+    public MappedHistory(Path directory, int maxBodies, int framesPerSegment, int maxSegments) throws IOException {
+        this(directory, maxBodies, framesPerSegment, maxSegments, false);
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_GLOB)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private MappedHistory(Path directory, int maxBodies, int framesPerSegment, int maxSegments, boolean readOnly) {
+        if (maxBodies <= 0 || framesPerSegment <= 0 || maxSegments < 0) {
+            throw new IllegalArgumentException("maxBodies and framesPerSegment must be positive, maxSegments not negative");
+        }
+        long segmentBytes = HEADER_BYTES + (long) framesPerSegment * (4 + maxBodies * SAMPLE_BYTES);
+        if (segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment larger than 2 GB: " + segmentBytes + " bytes");
+        }
+        this.directory = directory;
+        this.maxBodies = maxBodies;
+        this.framesPerSegment = framesPerSegment;
+        this.frameBytes = 4 + maxBodies * SAMPLE_BYTES;
+        this.maxSegments = maxSegments;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Maps the segments of a previous session, read only.
+     *
+     * @param directory - the directory of the segments
+     * @return the history
+     * @throws IOException
+     */
+    public static MappedHistory open(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_GLOB)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // the names sort by first frame.
+        files.sort(null);
+
+        MappedHistory history = null;
+        for (Path file : files) {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a history segment: " + file);
+            }
+            if (history == null) {
+                history = new MappedHistory(directory, buffer.getInt(8), buffer.getInt(12), 0, true);
+            }
+            if (buffer.getInt(FRAMES_OFFSET) == 0) {
+                // emptied by a rewind.
+                continue;
+            }
+            Segment segment = new Segment(file, buffer, buffer.getLong(16));
+            history.segments.add(segment);
+            history.nextFrame = segment.firstFrame + buffer.getInt(FRAMES_OFFSET);
+        }
+        if (history == null) {
+            throw new IOException("No history segments in " + directory);
+        }
+        return history;
+    }
+
+    @Override
+    public void record(int count, float[] positions, float[] rotations) {
+        if (readOnly) {
+            throw new IllegalStateException("The history is read only");
+        }
+        if (count > maxBodies) {
+            if (!overflowReported) {
+                logger.log(Level.WARNING, "{0} bodies, only the first {1} are recorded", new Object[]{count, maxBodies});
+                overflowReported = true;
+            }
+            count = maxBodies;
+        }
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || nextFrame - segment.firstFrame == framesPerSegment) {
+            segment = createSegment(nextFrame);
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = frameOffset(segment, nextFrame);
+        buffer.putInt(offset, count);
+        offset += 4;
+        for (int i = 0; i < count; i++) {
+            int p = i * 3, r = i * 4;
+            buffer.putFloat(offset, positions[p]);
+            buffer.putFloat(offset + 4, positions[p + 1]);
+            buffer.putFloat(offset + 8, positions[p + 2]);
+            buffer.putFloat(offset + 12, rotations[r]);
+            buffer.putFloat(offset + 16, rotations[r + 1]);
+            buffer.putFloat(offset + 20, rotations[r + 2]);
+            buffer.putFloat(offset + 24, rotations[r + 3]);
+            offset += SAMPLE_BYTES;
+        }
+        nextFrame++;
+        buffer.putInt(FRAMES_OFFSET, (int) (nextFrame - segment.firstFrame));
+    }
+
+    private Segment createSegment(long firstFrame) {
+        Segment segment = reuseSegment(firstFrame);
+        if (segment == null) {
+            Path file = directory.resolve(String.format("history-%012d.seg", firstFrame));
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) framesPerSegment * frameBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, maxBodies);
+            buffer.putInt(12, framesPerSegment);
+            buffer.putLong(16, firstFrame);
+            segment = new Segment(file, buffer, firstFrame);
+        }
+        segment.buffer.putInt(FRAMES_OFFSET, 0);
+        segments.add(segment);
+
+        if (maxSegments > 0 && segments.size() > maxSegments) {
+            deleteSegment(segments.remove(0));
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the spare segment that starts at the given frame: its file is
+     * still mapped, so it cannot be truncated or deleted on some systems.
+     */
+    private Segment reuseSegment(long firstFrame) {
+        while (!spares.isEmpty()) {
+            Segment spare = spares.remove(spares.size() - 1);
+            if (spare.firstFrame == firstFrame) {
+                return spare;
+            }
+            deleteSegment(spare);
+        }
+        return null;
+    }
+
+    private void deleteSegment(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            // still mapped (Windows): the file is overwritten by the next session.
+            logger.log(Level.WARNING, "Cannot delete " + segment.file, e);
+        }
+    }
+
+    @Override
+    public int decode(int age, float[] positions, float[] rotations) {
+        Frame f = getFrame(age);
+        int count = f.getBodyCount();
+        MappedByteBuffer buffer = f.buffer;
+        int offset = f.offset + 4;
+        for (int i = 0; i < count; i++) {
+            int p = i * 3, r = i * 4;
+            positions[p] = buffer.getFloat(offset);
+            positions[p + 1] = buffer.getFloat(offset + 4);
+            positions[p + 2] = buffer.getFloat(offset + 8);
+            rotations[r] = buffer.getFloat(offset + 12);
+            rotations[r + 1] = buffer.getFloat(offset + 16);
+            rotations[r + 2] = buffer.getFloat(offset + 20);
+            rotations[r + 3] = buffer.getFloat(offset + 24);
+            offset += SAMPLE_BYTES;
+        }
+        return count;
+    }
+
+    /**
+     * @param age - the age of the frame (0 = newest, &lt;{@link #getFrameCount()})
+     * @return a view of the frame in the mapped file, valid until the next
+     *         call
+     */
+    public Frame getFrame(int age) {
+        if (age < 0 || age >= getFrameCount()) {
+            throw new IllegalArgumentException("age out of range: " + age);
+        }
+        long index = nextFrame - 1 - age;
+        Segment segment = segments.get((int) ((index - segments.get(0).firstFrame) / framesPerSegment));
+        frame.buffer = segment.buffer;
+        frame.offset = frameOffset(segment, index);
+        return frame;
+    }
+
+    private int frameOffset(Segment segment, long index) {
+        return HEADER_BYTES + (int) (index - segment.firstFrame) * frameBytes;
+    }
+
+    @Override
+    public void truncate(int frames) {
+        if (readOnly) {
+            throw new IllegalStateException("The history is read only");
+        }
+        nextFrame -= Math.min(frames, getFrameCount());
+        while (!segments.isEmpty()) {
+            Segment last = segments.get(segments.size() - 1);
+            if (last.firstFrame <= nextFrame) {
+                last.buffer.putInt(FRAMES_OFFSET, (int) (nextFrame - last.firstFrame));
+                break;
+            }
+            // keep the mapping: the recording reaches this segment again.
+            last.buffer.putInt(FRAMES_OFFSET, 0);
+            spares.add(segments.remove(segments.size() - 1));
+        }
+    }
+
+    @Override
+    public int getFrameCount() {
+        return segments.isEmpty() ? 0 : (int) (nextFrame - segments.get(0).firstFrame);
+    }
+
+    /**
+     * @return the index of the newest frame since the history was created
+     */
+    public long getLastFrameIndex() {
+        return nextFrame - 1;
+    }
+
+    public int getMaxBodies() {
+        return maxBodies;
+    }
+
+    public int getFramesPerSegment() {
+        return framesPerSegment;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Writes the segments to the storage device and forgets them; the files
+     * are kept for {@link #open}.
+     */
+    @Override
+    public void close() {
+        if (!readOnly) {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            for (Segment spare : spares) {
+                spare.buffer.force();
+                deleteSegment(spare);
+            }
+        }
+        segments.clear();
+        spares.clear();
+    }
+
+    /**
+     * ---- @class Frame ----
+     *
+     * A view of a frame in the mapped file.
+     */
+    public static class Frame {
+
+        private MappedByteBuffer buffer;
+        private int offset;
+
+        public int getBodyCount() {
+            return buffer.getInt(offset);
+        }
+
+        public Vector3f getPosition(int body, Vector3f store) {
+            int i = offset + 4 + body * SAMPLE_BYTES;
+            return store.set(buffer.getFloat(i), buffer.getFloat(i + 4), buffer.getFloat(i + 8));
+        }
+
+        public Quaternion getRotation(int body, Quaternion store) {
+            int i = offset + 4 + body * SAMPLE_BYTES + 12;
+            return store.set(buffer.getFloat(i), buffer.getFloat(i + 4), buffer.getFloat(i + 8), buffer.getFloat(i + 12));
+        }
+    }
+
+    /**
+     * ---- @class Segment ----
+     */
+    private static class Segment {
+
+        final Path file;
+        final MappedByteBuffer buffer;
+        final long firstFrame;
+
+        Segment(Path file, MappedByteBuffer buffer, long firstFrame) {
+            this.file = file;
+            this.buffer = buffer;
+            this.firstFrame = firstFrame;
+        }
+    }
+
+}
@@ -30,6 +30,10 @@ public class Physics {
      * DefaultRaycastLayers ALL LAYERS
      */
     private static final int DefaultRaycastLayers = ~0;
+    /**
+     * Reusable buffer for the raw results of the NonAlloc ray tests.
+     */
+    private static final ThreadLocal<List<PhysicsRayTestResult>> RayTestBuffer = ThreadLocal.withInitial(ArrayList::new);
     
     private Physics() {
     	// private constructor.
@@ -94,6 +98,29 @@ public class Physics {
         addRigidBody(shape, sp, mass, isKinematic);
     }
 
+    /**
+     * Uses the cheapest primitive that fits the meshes of the Spatial within
+     * the tolerance, or falls back to {@link #addMeshCollider} (static bodies)
+     * and {@link #addDynamicMeshCollider} (dynamic bodies).
+     *
+     * @param sp          - the Spatial
+     * @param mass        - the mass of the body
+     * @param isKinematic - true for a kinematic body
+     * @param tolerance   - the maximum error accepted (see {@link ColliderSimplifier})
+     * @return the chosen fit and its error
+     */
+    public static ColliderSimplifier.Fit addSimplifiedCollider(Spatial sp, float mass, boolean isKinematic, float tolerance) {
+        ColliderSimplifier.Fit fit = ColliderSimplifier.fit(sp, tolerance);
+        if (fit.isPrimitive()) {
+            addRigidBody(fit.createShape(), sp, mass, isKinematic);
+        } else if (mass > 0 && !isKinematic) {
+            addDynamicMeshCollider(sp, mass, isKinematic);
+        } else {
+            addMeshCollider(sp, mass, isKinematic);
+        }
+        return fit;
+    }
+
     public static void addRigidBody(CollisionShape shape, Spatial sp, float mass, boolean isKinematic) {
         RigidBodyControl rgb = new RigidBodyControl(shape, mass);
         sp.addControl(rgb);
@@ -140,7 +167,7 @@ public class Physics {
         for (PhysicsRayTestResult ray : results) {
             PhysicsCollisionObject pco = ray.getCollisionObject();
 
-            if (ray.getHitFraction() < maxDistance && applyMask(layerMask, pco.getCollisionGroup())) {
+            if (applyMask(layerMask, pco.getCollisionGroup())) {
 
                 RaycastHit hitInfo = new RaycastHit();
                 hitInfo.rigidBody   = pco;
@@ -170,6 +197,117 @@ public class Physics {
         return raycastAll(origin, direction, maxDistance, DefaultRaycastLayers);
     }
     
+    /**
+     * Casts a ray through the scene and stores the nearest hits into the
+     * provided buffer, sorted by distance (nearest first). Only the maxHits
+     * nearest hits are kept, using a bounded max-heap on the distance.
+     * 
+     * @param origin        - The starting point of the ray in world coordinates. (not null, unaffected)
+     * @param direction     - The direction of the ray. (not null, unaffected)
+     * @param maxDistance   - The max distance the ray should check for collisions.
+     * @param layerMask     - A Layer mask that is used to selectively ignore Colliders when casting a ray.
+     * @param results       - The buffer to store the hits into. (not null elements)
+     * @param maxHits       - The maximum number of hits to store (&le; results.length).
+     * @return Returns the amount of hits stored into the results buffer.
+     */
+    public static int raycastAll(Vector3f origin, Vector3f direction, float maxDistance, int layerMask, RaycastHit[] results, int maxHits) {
+        
+        int capacity = Math.min(maxHits, results.length);
+        if (capacity <= 0) {
+            return 0;
+        }
+        
+        int numHits = 0;
+
+        TempVars t = TempVars.get();
+        Vector3f beginVec = t.vect1.set(origin);
+        Vector3f finalVec = t.vect2.set(direction).multLocal(maxDistance).addLocal(origin);
+        float length = t.vect3.set(finalVec).subtractLocal(beginVec).length();
+
+        List<PhysicsRayTestResult> rayTest = RayTestBuffer.get();
+        PhysicsSpace.getPhysicsSpace().rayTest(beginVec, finalVec, rayTest);
+
+        for (PhysicsRayTestResult ray : rayTest) {
+            PhysicsCollisionObject pco = ray.getCollisionObject();
+
+            if (applyMask(layerMask, pco.getCollisionGroup())) {
+                float distance = length * ray.getHitFraction();
+                RaycastHit hitInfo;
+
+                if (numHits < capacity) {
+                    hitInfo = results[numHits];
+                    setHit(hitInfo, ray, pco, distance, beginVec, finalVec);
+                    siftUp(results, numHits++);
+                    
+                } else if (distance < results[0].distance) {
+                    // replace the farthest hit
+                    hitInfo = results[0];
+                    setHit(hitInfo, ray, pco, distance, beginVec, finalVec);
+                    siftDown(results, 0, numHits);
+                }
+            }
+        }
+
+        rayTest.clear();
+        t.release();
+
+        // heap sort: nearest first
+        for (int end = numHits - 1; end > 0; end--) {
+            swap(results, 0, end);
+            siftDown(results, 0, end);
+        }
+        return numHits;
+    }
+    
+    public static int raycastAll(Vector3f origin, Vector3f direction, float maxDistance, RaycastHit[] results, int maxHits) {
+        return raycastAll(origin, direction, maxDistance, DefaultRaycastLayers, results, maxHits);
+    }
+    
+    private static void setHit(RaycastHit hitInfo, PhysicsRayTestResult ray, PhysicsCollisionObject pco, float distance, Vector3f beginVec, Vector3f finalVec) {
+        hitInfo.rigidBody   = pco;
+        hitInfo.collider    = pco.getCollisionShape();
+        hitInfo.gameObject  = (Spatial) pco.getUserObject();
+        hitInfo.distance    = distance;
+        ray.getHitNormalLocal(hitInfo.normal);
+        hitInfo.point.interpolateLocal(beginVec, finalVec, ray.getHitFraction());
+    }
+    
+    private static void siftUp(RaycastHit[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].distance >= heap[i].distance) {
+                break;
+            }
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+    
+    private static void siftDown(RaycastHit[] heap, int i, int size) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int largest = left;
+            int right = left + 1;
+            if (right < size && heap[right].distance > heap[left].distance) {
+                largest = right;
+            }
+            if (heap[i].distance >= heap[largest].distance) {
+                break;
+            }
+            swap(heap, i, largest);
+            i = largest;
+        }
+    }
+    
+    private static void swap(RaycastHit[] array, int i, int j) {
+        RaycastHit tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+    
     /**
      * Casts a ray, from point origin, in direction direction, of length
      * maxDistance, against all colliders in the scene. You may optionally
@@ -0,0 +1,258 @@
+package com.capdevon.physx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+/**
+ * Offline "settle and bake" for stacked dynamic scenes.
+ * <p>
+ * {@link #bake} steps a PhysicsSpace until every dynamic body is asleep and
+ * writes the settled transforms and sleep states of the bodies to a side file.
+ * {@link #restore} applies them to a freshly loaded scene, so the bodies
+ * start at rest and cost nothing to simulate until something disturbs them.
+ * Bodies are matched by the name of the Spatial they control.
+ *
+ * @author capdevon
+ */
+public class PhysicsBaker {
+
+    private static final Logger logger = Logger.getLogger(PhysicsBaker.class.getName());
+
+    /**
+     * The file extension of the baked data, stored next to the scene model.
+     */
+    public static final String FILE_EXTENSION = "bake";
+
+    private static final int MAGIC = 0x5042414B; // "PBAK"
+    private static final int VERSION = 1;
+
+    /**
+     * Bullet puts a body to sleep once its deactivation timer exceeds 2
+     * seconds (gDeactivationTime). Restored bodies start past that limit.
+     */
+    private static final float SLEEPING_DEACTIVATION_TIME = 3f;
+
+    private PhysicsBaker() {
+        // private constructor.
+    }
+
+    /**
+     * Steps the PhysicsSpace at its own accuracy until all the dynamic rigid
+     * bodies are asleep, or until the time limit is reached.
+     *
+     * @param space      - The PhysicsSpace to simulate.
+     * @param maxSeconds - The maximum simulated time.
+     * @return Returns true if all the bodies are asleep.
+     */
+    public static boolean settle(PhysicsSpace space, float maxSeconds) {
+        float timeStep = space.getAccuracy();
+        int maxSteps = (int) Math.ceil(maxSeconds / timeStep);
+
+        for (int i = 0; i < maxSteps; i++) {
+            space.update(timeStep, 1);
+            if (isAsleep(space)) {
+                logger.log(Level.INFO, "Scene settled after {0} steps ({1} sec)", new Object[]{i + 1, (i + 1) * timeStep});
+                return true;
+            }
+        }
+
+        logger.log(Level.WARNING, "Scene not settled after {0} sec", maxSeconds);
+        return false;
+    }
+
+    /**
+     * Settles the scene and writes the transforms of all its rigid bodies.
+     *
+     * @param scene      - The scene whose Spatials are controlled by RigidBodyControls.
+     * @param space      - The PhysicsSpace the controls are added to.
+     * @param maxSeconds - The maximum simulated time.
+     * @param out        - The stream to write to (not closed).
+     * @return Returns the number of bodies written.
+     * @throws IOException
+     */
+    public static int bake(Node scene, PhysicsSpace space, float maxSeconds, OutputStream out) throws IOException {
+        settle(space, maxSeconds);
+
+        Map<String, RigidBodyControl> bodies = collectBodies(scene);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(bodies.size());
+
+        Vector3f location = new Vector3f();
+        Quaternion rotation = new Quaternion();
+
+        for (Map.Entry<String, RigidBodyControl> entry : bodies.entrySet()) {
+            RigidBodyControl rgb = entry.getValue();
+            rgb.getPhysicsLocation(location);
+            rgb.getPhysicsRotation(rotation);
+
+            dos.writeUTF(entry.getKey());
+            dos.writeFloat(location.x);
+            dos.writeFloat(location.y);
+            dos.writeFloat(location.z);
+            dos.writeFloat(rotation.getX());
+            dos.writeFloat(rotation.getY());
+            dos.writeFloat(rotation.getZ());
+            dos.writeFloat(rotation.getW());
+            dos.writeBoolean(!rgb.isActive());
+        }
+
+        dos.flush();
+        return bodies.size();
+    }
+
+    /**
+     * Applies the baked transforms to the rigid bodies of the scene. The
+     * bodies must already be added to the PhysicsSpace.
+     *
+     * @param scene - The scene whose Spatials are controlled by RigidBodyControls.
+     * @param in    - The stream to read from (not closed).
+     * @return Returns the number of bodies restored.
+     * @throws IOException
+     */
+    public static int restore(Node scene, InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a baked physics file");
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported baked physics version: " + version);
+        }
+
+        Map<String, RigidBodyControl> bodies = collectBodies(scene);
+        Vector3f location = new Vector3f();
+        Quaternion rotation = new Quaternion();
+
+        int restored = 0;
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = dis.readUTF();
+            location.set(dis.readFloat(), dis.readFloat(), dis.readFloat());
+            rotation.set(dis.readFloat(), dis.readFloat(), dis.readFloat(), dis.readFloat());
+            boolean sleeping = dis.readBoolean();
+
+            RigidBodyControl rgb = bodies.get(name);
+            if (rgb == null) {
+                logger.log(Level.WARNING, "Baked body not found: {0}", name);
+                continue;
+            }
+
+            rgb.setPhysicsLocation(location);
+            rgb.setPhysicsRotation(rotation);
+            rgb.getSpatial().setLocalTranslation(location);
+            rgb.getSpatial().setLocalRotation(rotation);
+            rgb.setLinearVelocity(Vector3f.ZERO);
+            rgb.setAngularVelocity(Vector3f.ZERO);
+            if (sleeping) {
+                deactivate(rgb);
+            }
+            restored++;
+        }
+
+        return restored;
+    }
+
+    /**
+     * Loads the baked file stored next to the scene model, if any.
+     *
+     * @param assetManager - The AssetManager used to locate the file.
+     * @param sceneModel   - The asset path of the scene model (eg: Models/scene.j3o).
+     * @param scene        - The loaded scene.
+     * @return Returns the number of bodies restored, or 0 if there is no baked file.
+     */
+    public static int restore(AssetManager assetManager, String sceneModel, Node scene) {
+        AssetInfo info = assetManager.locateAsset(new AssetKey<>(getBakeFileName(sceneModel)));
+        if (info == null) {
+            logger.log(Level.INFO, "No baked physics for {0}", sceneModel);
+            return 0;
+        }
+
+        try (InputStream in = info.openStream()) {
+            return restore(scene, in);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Cannot read baked physics for " + sceneModel, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the name of the baked file for the given scene model.
+     *
+     * @param sceneModel - The path of the scene model (eg: Models/scene.j3o).
+     * @return the path of the side file (eg: Models/scene.bake).
+     */
+    public static String getBakeFileName(String sceneModel) {
+        int dot = sceneModel.lastIndexOf('.');
+        String baseName = (dot > sceneModel.lastIndexOf('/')) ? sceneModel.substring(0, dot) : sceneModel;
+        return baseName + "." + FILE_EXTENSION;
+    }
+
+    /**
+     * Lets the body fall asleep on the next simulation step, provided that it
+     * is at rest.
+     *
+     * @param body - The body to deactivate.
+     */
+    static void deactivate(PhysicsRigidBody body) {
+        body.setDeactivationTime(SLEEPING_DEACTIVATION_TIME);
+    }
+
+    private static boolean isAsleep(PhysicsSpace space) {
+        for (PhysicsRigidBody body : space.getRigidBodyList()) {
+            if (body.isDynamic() && body.isActive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, RigidBodyControl> collectBodies(Node scene) {
+        final Map<String, RigidBodyControl> bodies = new HashMap<>();
+        scene.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                collect(geom);
+            }
+
+            @Override
+            public void visit(Node node) {
+                collect(node);
+            }
+
+            private void collect(Spatial sp) {
+                RigidBodyControl rgb = sp.getControl(RigidBodyControl.class);
+                if (rgb != null && rgb.getMass() > 0) {
+                    if (bodies.put(sp.getName(), rgb) != null) {
+                        logger.log(Level.WARNING, "Duplicated body name: {0}", sp.getName());
+                    }
+                }
+            }
+        });
+        return bodies;
+    }
+
+}
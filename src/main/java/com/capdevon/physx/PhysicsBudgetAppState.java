@@ -0,0 +1,273 @@
+package com.capdevon.physx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+
+/**
+ * Measures every physics step against a millisecond budget and trades
+ * simulation quality for frame time when the budget is exceeded.
+ * <p>
+ * Each degradation tier lowers the maximum number of substeps, the number of
+ * solver iterations and the LOD distance scale (see
+ * {@link #getLodDistanceScale()}). When the steps get back under the budget
+ * with enough headroom for a while, the state climbs back one tier at a time
+ * until the original settings are restored. Every adjustment is logged.
+ *
+ * @author capdevon
+ */
+public class PhysicsBudgetAppState extends BaseAppState implements PhysicsTickListener {
+
+    private static final Logger logger = Logger.getLogger(PhysicsBudgetAppState.class.getName());
+
+    private PhysicsSpace physicsSpace;
+
+    // the time allowed to the physics simulation per frame (in milliseconds).
+    private float budgetMillis;
+    // fraction of the budget below which the quality is restored.
+    private float headroom = 0.6f;
+    // number of consecutive frames required before changing tier.
+    private int degradeFrames = 3;
+    private int restoreFrames = 60;
+    // the lowest tier allowed.
+    private int maxTier = 4;
+
+    private int baseMaxSubSteps;
+    private int baseNumIterations;
+    private int minNumIterations = 4;
+    private float minLodDistanceScale = 0.25f;
+
+    private int tier;
+    private int overBudgetCount;
+    private int underBudgetCount;
+    private volatile boolean dirty;
+    private volatile int targetMaxSubSteps;
+    private volatile int targetNumIterations;
+    private volatile float lodDistanceScale = 1f;
+
+    private final AtomicLong frameNanos = new AtomicLong();
+    private long stepStartNanos;
+
+    // metrics
+    private float lastStepMillis;
+    private float peakStepMillis;
+    private long adjustments;
+
+    /**
+     * Constructor.
+     *
+     * @param budgetMillis the time allowed to the physics simulation per frame (in milliseconds, &gt;0)
+     */
+    public PhysicsBudgetAppState(float budgetMillis) {
+        setBudgetMillis(budgetMillis);
+    }
+
+    @Override
+    protected void initialize(Application app) {
+        this.physicsSpace = getState(BulletAppState.class, true).getPhysicsSpace();
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        logger.log(Level.INFO, "{0}", this);
+    }
+
+    @Override
+    protected void onEnable() {
+        baseMaxSubSteps = physicsSpace.maxSubSteps();
+        baseNumIterations = physicsSpace.getSolverInfo().numIterations();
+        tier = 0;
+        peakStepMillis = 0;
+        applyTier();
+        physicsSpace.addTickListener(this);
+    }
+
+    @Override
+    protected void onDisable() {
+        physicsSpace.removeTickListener(this);
+        // restore the original settings.
+        physicsSpace.setMaxSubSteps(baseMaxSubSteps);
+        physicsSpace.getSolverInfo().setNumIterations(baseNumIterations);
+        lodDistanceScale = 1f;
+        tier = 0;
+    }
+
+    @Override
+    public void prePhysicsTick(PhysicsSpace space, float timeStep) {
+        if (dirty) {
+            dirty = false;
+            space.setMaxSubSteps(targetMaxSubSteps);
+            space.getSolverInfo().setNumIterations(targetNumIterations);
+        }
+        stepStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void physicsTick(PhysicsSpace space, float timeStep) {
+        frameNanos.addAndGet(System.nanoTime() - stepStartNanos);
+    }
+
+    @Override
+    public void update(float tpf) {
+        lastStepMillis = frameNanos.getAndSet(0) / 1_000_000f;
+        peakStepMillis = Math.max(peakStepMillis, lastStepMillis);
+
+        if (lastStepMillis > budgetMillis) {
+            underBudgetCount = 0;
+            if (++overBudgetCount >= degradeFrames && tier < maxTier) {
+                overBudgetCount = 0;
+                setTier(tier + 1);
+            }
+        } else if (lastStepMillis < budgetMillis * headroom) {
+            overBudgetCount = 0;
+            if (++underBudgetCount >= restoreFrames && tier > 0) {
+                underBudgetCount = 0;
+                setTier(tier - 1);
+            }
+        } else {
+            overBudgetCount = 0;
+            underBudgetCount = 0;
+        }
+    }
+
+    private void setTier(int newTier) {
+        int oldTier = tier;
+        tier = newTier;
+        applyTier();
+        adjustments++;
+
+        logger.log(Level.INFO, "PhysicsBudget tier={0}->{1}, stepMs={2}, budgetMs={3}, maxSubSteps={4}, numIterations={5}, lodDistanceScale={6}",
+                new Object[]{oldTier, newTier, lastStepMillis, budgetMillis, targetMaxSubSteps, targetNumIterations, lodDistanceScale});
+    }
+
+    private void applyTier() {
+        float quality = 1f - (float) tier / (maxTier + 1);
+
+        // maxSubSteps=0 means variable timestep: never switch to fixed steps.
+        if (tier == 0 || baseMaxSubSteps == 0) {
+            targetMaxSubSteps = baseMaxSubSteps;
+        } else {
+            targetMaxSubSteps = Math.max(1, Math.round(baseMaxSubSteps * quality));
+        }
+        targetNumIterations = Math.max(Math.min(minNumIterations, baseNumIterations), Math.round(baseNumIterations * quality));
+        lodDistanceScale = Math.max(minLodDistanceScale, quality);
+        dirty = true;
+    }
+
+    /**
+     * Returns the factor (between 0 and 1) that LOD systems should apply to
+     * their tier distances: the lower the value, the sooner the objects are
+     * demoted to a cheaper representation.
+     *
+     * @return the LOD distance scale
+     */
+    public float getLodDistanceScale() {
+        return lodDistanceScale;
+    }
+
+    /**
+     * Returns the current degradation tier (0 = full quality).
+     *
+     * @return the tier
+     */
+    public int getTier() {
+        return tier;
+    }
+
+    public float getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public void setBudgetMillis(float budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("budgetMillis must be positive: " + budgetMillis);
+        }
+        this.budgetMillis = budgetMillis;
+    }
+
+    public float getHeadroom() {
+        return headroom;
+    }
+
+    /**
+     * Alter the fraction of the budget below which the quality is restored.
+     *
+     * @param headroom (between 0 and 1)
+     */
+    public void setHeadroom(float headroom) {
+        this.headroom = headroom;
+    }
+
+    public int getMaxTier() {
+        return maxTier;
+    }
+
+    public void setMaxTier(int maxTier) {
+        this.maxTier = maxTier;
+    }
+
+    public void setDegradeFrames(int degradeFrames) {
+        this.degradeFrames = degradeFrames;
+    }
+
+    public void setRestoreFrames(int restoreFrames) {
+        this.restoreFrames = restoreFrames;
+    }
+
+    public void setMinNumIterations(int minNumIterations) {
+        this.minNumIterations = minNumIterations;
+    }
+
+    public void setMinLodDistanceScale(float minLodDistanceScale) {
+        this.minLodDistanceScale = minLodDistanceScale;
+    }
+
+    /**
+     * Returns the time spent by the physics simulation in the last frame.
+     *
+     * @return the step time (in milliseconds)
+     */
+    public float getLastStepMillis() {
+        return lastStepMillis;
+    }
+
+    /**
+     * Returns the longest time spent by the physics simulation in a frame
+     * since the state was enabled or {@link #resetPeakStepMillis()} was last
+     * called.
+     *
+     * @return the peak step time (in milliseconds)
+     */
+    public float getPeakStepMillis() {
+        return peakStepMillis;
+    }
+
+    /**
+     * Starts a new measurement period for {@link #getPeakStepMillis()}, e.g.
+     * at each report interval.
+     */
+    public void resetPeakStepMillis() {
+        peakStepMillis = 0;
+    }
+
+    public long getAdjustments() {
+        return adjustments;
+    }
+
+    @Override
+    public String toString() {
+        return "PhysicsBudgetAppState [budgetMs=" + budgetMillis +
+            ", tier=" + tier +
+            ", lastStepMs=" + lastStepMillis +
+            ", peakStepMs=" + peakStepMillis +
+            ", adjustments=" + adjustments +
+            "]";
+    }
+
+}
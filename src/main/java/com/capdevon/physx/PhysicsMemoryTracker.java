@@ -0,0 +1,328 @@
+package com.capdevon.physx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.CompoundCollisionShape;
+import com.jme3.bullet.collision.shapes.HeightfieldCollisionShape;
+import com.jme3.bullet.collision.shapes.HullCollisionShape;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.bullet.collision.shapes.infos.ChildCollisionShape;
+import com.jme3.bullet.joints.PhysicsJoint;
+import com.jme3.bullet.objects.PhysicsCharacter;
+import com.jme3.bullet.objects.PhysicsGhostObject;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+/**
+ * Accounts for the native memory held by the PhysicsSpace, which the heap
+ * profilers cannot see.
+ * <p>
+ * Every {@link #setInterval interval} the collision objects, joints and
+ * (shared) collision shapes of the space are counted by type with an
+ * estimate of their native size, and the bodies whose user object is a
+ * Spatial no longer attached to any rendered scene are reported as orphans:
+ * usually a spatial removed without removing its physics control. A warning
+ * is logged when orphans are found and when the estimated size keeps growing
+ * for {@link #setLeakSamples leakSamples} samples in a row.
+ * <p>
+ * The sizes are rough figures of the Bullet structures, meant to spot trends
+ * rather than to match the process memory.
+ *
+ * @author capdevon
+ */
+public class PhysicsMemoryTracker extends BaseAppState {
+
+    private static final Logger logger = Logger.getLogger(PhysicsMemoryTracker.class.getName());
+
+    // estimated native sizes (in bytes).
+    private static final int RIGID_BODY_BYTES = 760;
+    private static final int GHOST_BYTES = 420;
+    private static final int GHOST_PAIR_BYTES = 16;
+    private static final int CHARACTER_BYTES = 980;
+    private static final int COLLISION_OBJECT_BYTES = 320;
+    private static final int JOINT_BYTES = 420;
+    private static final int CONVEX_SHAPE_BYTES = 96;
+    private static final int HULL_VERTEX_BYTES = 16;
+    private static final int COMPOUND_CHILD_BYTES = 176;
+    private static final int MESH_VERTEX_BYTES = 12;
+    // index triple + quantized BVH nodes.
+    private static final int MESH_TRIANGLE_BYTES = 12 + 32;
+    private static final int HEIGHT_BYTES = 4;
+
+    private PhysicsSpace physicsSpace;
+    private RenderManager renderManager;
+
+    private float interval = 5f;
+    private int leakSamples = 12;
+    private float timer;
+
+    private final Map<String, TypeStats> types = new TreeMap<>();
+    private final Map<CollisionShape, Boolean> shapes = new IdentityHashMap<>();
+    private final List<PhysicsCollisionObject> orphans = new ArrayList<>();
+    private final List<Node> sceneRoots = new ArrayList<>();
+
+    private long estimatedBytes;
+    private long lastEstimatedBytes;
+    private int growingSamples;
+    private int numBodies;
+    private int numGhosts;
+    private int numShapes;
+    private int numJoints;
+
+    @Override
+    protected void initialize(Application app) {
+        this.physicsSpace = getState(BulletAppState.class, true).getPhysicsSpace();
+        this.renderManager = app.getRenderManager();
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        sample();
+        logger.log(Level.INFO, "{0}", report());
+    }
+
+    @Override
+    protected void onEnable() {
+        timer = 0;
+        growingSamples = 0;
+    }
+
+    @Override
+    protected void onDisable() {
+    }
+
+    @Override
+    public void update(float tpf) {
+        timer += tpf;
+        if (timer < interval) {
+            return;
+        }
+        timer = 0;
+
+        sample();
+        logger.log(Level.INFO, "PhysicsMemory bytes={0}, bodies={1}, ghosts={2}, shapes={3}, joints={4}, orphans={5}",
+                new Object[]{estimatedBytes, numBodies, numGhosts, numShapes, numJoints, orphans.size()});
+
+        if (!orphans.isEmpty()) {
+            logger.log(Level.WARNING, "{0} physics objects belong to detached spatials, first: {1}",
+                    new Object[]{orphans.size(), orphans.get(0).getUserObject()});
+        }
+
+        growingSamples = (estimatedBytes > lastEstimatedBytes) ? growingSamples + 1 : 0;
+        lastEstimatedBytes = estimatedBytes;
+        if (growingSamples >= leakSamples) {
+            growingSamples = 0;
+            logger.log(Level.WARNING, "Native physics memory grew for {0} samples in a row: {1} bytes\n{2}",
+                    new Object[]{leakSamples, estimatedBytes, report()});
+        }
+    }
+
+    /**
+     * Counts the objects of the PhysicsSpace now.
+     */
+    public void sample() {
+        for (TypeStats stats : types.values()) {
+            stats.count = 0;
+            stats.bytes = 0;
+        }
+        shapes.clear();
+        orphans.clear();
+        collectSceneRoots();
+        estimatedBytes = 0;
+        numBodies = 0;
+        numGhosts = 0;
+        numJoints = 0;
+
+        for (PhysicsCollisionObject pco : physicsSpace.getPcoList()) {
+            long bytes;
+            if (pco instanceof PhysicsRigidBody) {
+                bytes = RIGID_BODY_BYTES;
+                numBodies++;
+            } else if (pco instanceof PhysicsGhostObject) {
+                bytes = GHOST_BYTES + (long) GHOST_PAIR_BYTES * ((PhysicsGhostObject) pco).getOverlappingCount();
+                numGhosts++;
+            } else if (pco instanceof PhysicsCharacter) {
+                bytes = CHARACTER_BYTES;
+            } else {
+                bytes = COLLISION_OBJECT_BYTES;
+            }
+            account(pco.getClass().getSimpleName(), bytes);
+            addShape(pco.getCollisionShape());
+
+            if (isOrphan(pco)) {
+                orphans.add(pco);
+            }
+        }
+
+        for (PhysicsJoint joint : physicsSpace.getJointList()) {
+            account(joint.getClass().getSimpleName(), JOINT_BYTES);
+            numJoints++;
+        }
+
+        numShapes = shapes.size();
+    }
+
+    private void addShape(CollisionShape shape) {
+        if (shape == null || shapes.put(shape, Boolean.TRUE) != null) {
+            // shared shapes are counted once.
+            return;
+        }
+
+        long bytes;
+        if (shape instanceof CompoundCollisionShape) {
+            ChildCollisionShape[] children = ((CompoundCollisionShape) shape).listChildren();
+            bytes = CONVEX_SHAPE_BYTES + (long) COMPOUND_CHILD_BYTES * children.length;
+            for (ChildCollisionShape child : children) {
+                addShape(child.getShape());
+            }
+        } else if (shape instanceof HullCollisionShape) {
+            bytes = CONVEX_SHAPE_BYTES + (long) HULL_VERTEX_BYTES * ((HullCollisionShape) shape).countHullVertices();
+        } else if (shape instanceof MeshCollisionShape) {
+            MeshCollisionShape mesh = (MeshCollisionShape) shape;
+            bytes = CONVEX_SHAPE_BYTES + (long) MESH_VERTEX_BYTES * mesh.countMeshVertices()
+                    + (long) MESH_TRIANGLE_BYTES * mesh.countMeshTriangles();
+        } else if (shape instanceof HeightfieldCollisionShape) {
+            bytes = CONVEX_SHAPE_BYTES + (long) HEIGHT_BYTES * ((HeightfieldCollisionShape) shape).countMeshVertices();
+        } else {
+            bytes = CONVEX_SHAPE_BYTES;
+        }
+        account(shape.getClass().getSimpleName(), bytes);
+    }
+
+    private void account(String type, long bytes) {
+        TypeStats stats = types.computeIfAbsent(type, k -> new TypeStats());
+        stats.count++;
+        stats.bytes += bytes;
+        estimatedBytes += bytes;
+    }
+
+    private void collectSceneRoots() {
+        sceneRoots.clear();
+        addSceneRoots(renderManager.getPreViews());
+        addSceneRoots(renderManager.getMainViews());
+        addSceneRoots(renderManager.getPostViews());
+    }
+
+    private void addSceneRoots(List<ViewPort> viewPorts) {
+        for (ViewPort vp : viewPorts) {
+            for (Spatial scene : vp.getScenes()) {
+                if (scene instanceof Node) {
+                    sceneRoots.add((Node) scene);
+                }
+            }
+        }
+    }
+
+    /**
+     * A body is an orphan if its user object is a Spatial that does not belong
+     * to any rendered scene.
+     */
+    private boolean isOrphan(PhysicsCollisionObject pco) {
+        Object userObject = pco.getUserObject();
+        if (!(userObject instanceof Spatial)) {
+            return false;
+        }
+        Spatial sp = (Spatial) userObject;
+        while (sp.getParent() != null) {
+            sp = sp.getParent();
+        }
+        return !sceneRoots.contains(sp);
+    }
+
+    /**
+     * Returns the result of the last sample as a table, by type.
+     *
+     * @return the report
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(String.format("%-32s %8s %12s%n", "Type", "Count", "Bytes"));
+        for (Map.Entry<String, TypeStats> entry : types.entrySet()) {
+            TypeStats stats = entry.getValue();
+            if (stats.count > 0) {
+                sb.append(String.format("%-32s %8d %12d%n", entry.getKey(), stats.count, stats.bytes));
+            }
+        }
+        sb.append(String.format("%-32s %8s %12d%n", "Total (estimated)", "", estimatedBytes));
+        sb.append(String.format("Orphans: %d%n", orphans.size()));
+        for (PhysicsCollisionObject pco : orphans) {
+            sb.append("  ").append(pco).append(" -> ").append(pco.getUserObject()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public int getNumBodies() {
+        return numBodies;
+    }
+
+    public int getNumGhosts() {
+        return numGhosts;
+    }
+
+    public int getNumShapes() {
+        return numShapes;
+    }
+
+    public int getNumJoints() {
+        return numJoints;
+    }
+
+    /**
+     * @return the bodies of detached spatials found by the last sample
+     * (unmodifiable view)
+     */
+    public List<PhysicsCollisionObject> getOrphans() {
+        return Collections.unmodifiableList(orphans);
+    }
+
+    /**
+     * Alter the time between two samples.
+     *
+     * @param interval (in seconds, &gt;0, default=5)
+     */
+    public void setInterval(float interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Alter the number of consecutive growing samples that trigger the leak
+     * warning.
+     *
+     * @param leakSamples (&gt;0, default=12)
+     */
+    public void setLeakSamples(int leakSamples) {
+        this.leakSamples = leakSamples;
+    }
+
+    /**
+     * ---- @class TypeStats ----
+     */
+    private static class TypeStats {
+        int count;
+        long bytes;
+    }
+
+}
@@ -0,0 +1,434 @@
+package com.capdevon.physx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.CylinderCollisionShape;
+import com.jme3.bullet.collision.shapes.SphereCollisionShape;
+import com.jme3.bullet.control.GhostControl;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.bullet.joints.Point2PointJoint;
+import com.jme3.bullet.joints.PhysicsJoint;
+import com.jme3.bullet.objects.PhysicsGhostObject;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.export.binary.BinaryImporter;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+
+/**
+ * Binary snapshot of an entire PhysicsSpace, for fast level loading.
+ * <p>
+ * The snapshot contains the rigid bodies and ghost objects with their
+ * dynamic state and collision groups, the collision shapes (each shared shape
+ * is written once) and the point-to-point joints. Primitive shapes are stored
+ * as a few floats, the other shapes fall back to the jME binary format.
+ * <p>
+ * On restore, objects that belonged to a named Spatial are re-attached to
+ * the Spatial with the same name in the given scene through a
+ * RigidBodyControl or GhostControl.
+ *
+ * @author capdevon
+ */
+public class PhysicsWorldSnapshot {
+
+    private static final Logger logger = Logger.getLogger(PhysicsWorldSnapshot.class.getName());
+
+    private static final int MAGIC = 0x5057534E; // "PWSN"
+    private static final int VERSION = 1;
+
+    // shape kinds
+    private static final byte SHAPE_BOX = 0;
+    private static final byte SHAPE_SPHERE = 1;
+    private static final byte SHAPE_CAPSULE = 2;
+    private static final byte SHAPE_CYLINDER = 3;
+    private static final byte SHAPE_SAVABLE = 127;
+
+    // object kinds
+    private static final byte RIGID_BODY = 0;
+    private static final byte GHOST_OBJECT = 1;
+
+    // joint kinds
+    private static final byte JOINT_POINT2POINT = 0;
+
+    private PhysicsWorldSnapshot() {
+        // private constructor.
+    }
+
+    /**
+     * Writes all the objects of the PhysicsSpace.
+     *
+     * @param space - The PhysicsSpace to save.
+     * @param out   - The stream to write to (not closed).
+     * @throws IOException
+     */
+    public static void write(PhysicsSpace space, OutputStream out) throws IOException {
+        List<PhysicsCollisionObject> objects = new ArrayList<>();
+        for (PhysicsCollisionObject pco : space.getRigidBodyList()) {
+            addIfOwned(pco, objects);
+        }
+        for (PhysicsCollisionObject pco : space.getGhostObjectList()) {
+            addIfOwned(pco, objects);
+        }
+
+        // deduplicate the shapes
+        Map<CollisionShape, Integer> shapeIndex = new IdentityHashMap<>();
+        List<CollisionShape> shapes = new ArrayList<>();
+        for (PhysicsCollisionObject pco : objects) {
+            CollisionShape shape = pco.getCollisionShape();
+            if (!shapeIndex.containsKey(shape)) {
+                shapeIndex.put(shape, shapes.size());
+                shapes.add(shape);
+            }
+        }
+
+        Map<PhysicsCollisionObject, Integer> objectIndex = new IdentityHashMap<>();
+        for (int i = 0; i < objects.size(); i++) {
+            objectIndex.put(objects.get(i), i);
+        }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+
+        dos.writeInt(shapes.size());
+        for (CollisionShape shape : shapes) {
+            writeShape(dos, shape);
+        }
+
+        Vector3f vec = new Vector3f();
+        Quaternion rot = new Quaternion();
+
+        dos.writeInt(objects.size());
+        for (PhysicsCollisionObject pco : objects) {
+            Object userObj = pco.getUserObject();
+            String name = (userObj instanceof Spatial) ? ((Spatial) userObj).getName() : null;
+
+            dos.writeByte(pco instanceof PhysicsRigidBody ? RIGID_BODY : GHOST_OBJECT);
+            dos.writeUTF(name != null ? name : "");
+            dos.writeInt(shapeIndex.get(pco.getCollisionShape()));
+            dos.writeInt(pco.getCollisionGroup());
+            dos.writeInt(pco.getCollideWithGroups());
+            writeVector(dos, pco.getPhysicsLocation(vec));
+            writeQuaternion(dos, pco.getPhysicsRotation(rot));
+
+            if (pco instanceof PhysicsRigidBody) {
+                PhysicsRigidBody rb = (PhysicsRigidBody) pco;
+                dos.writeFloat(rb.getMass());
+                dos.writeBoolean(rb.isKinematic());
+                dos.writeBoolean(rb.isActive());
+                dos.writeFloat(rb.getFriction());
+                dos.writeFloat(rb.getRestitution());
+                dos.writeFloat(rb.getLinearDamping());
+                dos.writeFloat(rb.getAngularDamping());
+                dos.writeFloat(rb.getCcdMotionThreshold());
+                dos.writeFloat(rb.getCcdSweptSphereRadius());
+                writeVector(dos, rb.getGravity(vec));
+                writeVector(dos, rb.getLinearVelocity(vec));
+                writeVector(dos, rb.getAngularVelocity(vec));
+            }
+        }
+
+        List<Point2PointJoint> joints = new ArrayList<>();
+        for (PhysicsJoint joint : space.getJointList()) {
+            if (joint instanceof Point2PointJoint
+                    && objectIndex.containsKey(joint.getBodyA())
+                    && objectIndex.containsKey(joint.getBodyB())) {
+                joints.add((Point2PointJoint) joint);
+            } else {
+                logger.log(Level.WARNING, "Unsupported joint skipped: {0}", joint);
+            }
+        }
+
+        dos.writeInt(joints.size());
+        for (Point2PointJoint joint : joints) {
+            dos.writeByte(JOINT_POINT2POINT);
+            dos.writeInt(objectIndex.get(joint.getBodyA()));
+            dos.writeInt(objectIndex.get(joint.getBodyB()));
+            writeVector(dos, joint.getPivotA(vec));
+            writeVector(dos, joint.getPivotB(vec));
+        }
+
+        dos.flush();
+    }
+
+    /**
+     * Reads a snapshot and adds all its objects to the PhysicsSpace.
+     *
+     * @param in    - The stream to read from (not closed).
+     * @param space - The PhysicsSpace to populate.
+     * @param scene - The scene containing the Spatials to re-attach the objects to (may be null).
+     * @return Returns the restored collision objects.
+     * @throws IOException
+     */
+    public static List<PhysicsCollisionObject> restore(InputStream in, PhysicsSpace space, Node scene) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a physics snapshot");
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported physics snapshot version: " + version);
+        }
+
+        int numShapes = dis.readInt();
+        CollisionShape[] shapes = new CollisionShape[numShapes];
+        for (int i = 0; i < numShapes; i++) {
+            shapes[i] = readShape(dis);
+        }
+
+        Map<String, Spatial> spatials = (scene != null) ? collectSpatials(scene) : new HashMap<>();
+        Vector3f vec = new Vector3f();
+        Quaternion rot = new Quaternion();
+
+        int numObjects = dis.readInt();
+        List<PhysicsCollisionObject> objects = new ArrayList<>(numObjects);
+        for (int i = 0; i < numObjects; i++) {
+            byte kind = dis.readByte();
+            String name = dis.readUTF();
+            CollisionShape shape = shapes[dis.readInt()];
+            int group = dis.readInt();
+            int collideWith = dis.readInt();
+            Vector3f location = readVector(dis, new Vector3f());
+            Quaternion rotation = readQuaternion(dis, rot);
+            Spatial sp = spatials.get(name);
+
+            PhysicsCollisionObject pco;
+            if (kind == RIGID_BODY) {
+                float mass = dis.readFloat();
+                PhysicsRigidBody rb;
+                if (sp != null) {
+                    RigidBodyControl rgb = new RigidBodyControl(shape, mass);
+                    sp.addControl(rgb);
+                    rb = rgb;
+                } else {
+                    rb = new PhysicsRigidBody(shape, mass);
+                }
+                rb.setKinematic(dis.readBoolean());
+                boolean active = dis.readBoolean();
+                rb.setFriction(dis.readFloat());
+                rb.setRestitution(dis.readFloat());
+                rb.setDamping(dis.readFloat(), dis.readFloat());
+                rb.setCcdMotionThreshold(dis.readFloat());
+                rb.setCcdSweptSphereRadius(dis.readFloat());
+                Vector3f gravity = readVector(dis, new Vector3f());
+                rb.setPhysicsLocation(location);
+                rb.setPhysicsRotation(rotation);
+
+                Vector3f linearVelocity = readVector(dis, vec);
+                Vector3f angularVelocity = readVector(dis, new Vector3f());
+                if (rb.isDynamic()) {
+                    rb.setLinearVelocity(linearVelocity);
+                    rb.setAngularVelocity(angularVelocity);
+                    if (!active) {
+                        PhysicsBaker.deactivate(rb);
+                    }
+                }
+                placeSpatial(sp, location, rotation);
+                space.add(rb);
+                // the PhysicsSpace overrides the gravity of the bodies added to it.
+                rb.setGravity(gravity);
+                pco = rb;
+
+            } else {
+                PhysicsGhostObject ghost;
+                if (sp != null) {
+                    GhostControl gc = new GhostControl(shape);
+                    sp.addControl(gc);
+                    ghost = gc;
+                } else {
+                    ghost = new PhysicsGhostObject(shape);
+                }
+                ghost.setPhysicsLocation(location);
+                ghost.setPhysicsRotation(rotation);
+                placeSpatial(sp, location, rotation);
+                space.add(ghost);
+                pco = ghost;
+            }
+
+            pco.setCollisionGroup(group);
+            pco.setCollideWithGroups(collideWith);
+            objects.add(pco);
+        }
+
+        int numJoints = dis.readInt();
+        for (int i = 0; i < numJoints; i++) {
+            byte kind = dis.readByte();
+            if (kind != JOINT_POINT2POINT) {
+                throw new IOException("Unknown joint kind: " + kind);
+            }
+            PhysicsRigidBody bodyA = (PhysicsRigidBody) objects.get(dis.readInt());
+            PhysicsRigidBody bodyB = (PhysicsRigidBody) objects.get(dis.readInt());
+            Vector3f pivotA = readVector(dis, new Vector3f());
+            Vector3f pivotB = readVector(dis, new Vector3f());
+            space.addJoint(new Point2PointJoint(bodyA, bodyB, pivotA, pivotB));
+        }
+
+        logger.log(Level.FINE, "Restored {0} shapes, {1} objects, {2} joints", new Object[]{numShapes, numObjects, numJoints});
+        return objects;
+    }
+
+    /**
+     * Objects that belong to a Spatial are restored through a
+     * RigidBodyControl or a GhostControl: the bodies managed by other controls
+     * (eg: BetterCharacterControl) are left to their owners.
+     */
+    private static void addIfOwned(PhysicsCollisionObject pco, List<PhysicsCollisionObject> objects) {
+        if (!(pco.getUserObject() instanceof Spatial) || pco instanceof RigidBodyControl || pco instanceof GhostControl) {
+            objects.add(pco);
+        } else {
+            logger.log(Level.FINE, "Object managed by another control skipped: {0}", pco);
+        }
+    }
+
+    private static void writeShape(DataOutputStream dos, CollisionShape shape) throws IOException {
+        Vector3f vec = new Vector3f();
+
+        if (shape instanceof BoxCollisionShape) {
+            dos.writeByte(SHAPE_BOX);
+            writeVector(dos, ((BoxCollisionShape) shape).getHalfExtents(vec));
+
+        } else if (shape instanceof SphereCollisionShape) {
+            dos.writeByte(SHAPE_SPHERE);
+            dos.writeFloat(((SphereCollisionShape) shape).getRadius());
+
+        } else if (shape instanceof CapsuleCollisionShape) {
+            CapsuleCollisionShape capsule = (CapsuleCollisionShape) shape;
+            dos.writeByte(SHAPE_CAPSULE);
+            dos.writeFloat(capsule.getRadius());
+            dos.writeFloat(capsule.getHeight());
+            dos.writeInt(capsule.getAxis());
+
+        } else if (shape instanceof CylinderCollisionShape) {
+            CylinderCollisionShape cylinder = (CylinderCollisionShape) shape;
+            dos.writeByte(SHAPE_CYLINDER);
+            writeVector(dos, cylinder.getHalfExtents(vec));
+            dos.writeInt(cylinder.getAxis());
+
+        } else {
+            // mesh, hull, compound, heightfield...
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            BinaryExporter.getInstance().save(shape, baos);
+            dos.writeByte(SHAPE_SAVABLE);
+            dos.writeInt(baos.size());
+            baos.writeTo(dos);
+            return;
+        }
+
+        writeVector(dos, shape.getScale(vec));
+        dos.writeFloat(shape.getMargin());
+    }
+
+    private static CollisionShape readShape(DataInputStream dis) throws IOException {
+        byte kind = dis.readByte();
+        CollisionShape shape;
+
+        switch (kind) {
+            case SHAPE_BOX:
+                shape = new BoxCollisionShape(readVector(dis, new Vector3f()));
+                break;
+            case SHAPE_SPHERE:
+                shape = new SphereCollisionShape(dis.readFloat());
+                break;
+            case SHAPE_CAPSULE:
+                shape = new CapsuleCollisionShape(dis.readFloat(), dis.readFloat(), dis.readInt());
+                break;
+            case SHAPE_CYLINDER:
+                shape = new CylinderCollisionShape(readVector(dis, new Vector3f()), dis.readInt());
+                break;
+            case SHAPE_SAVABLE:
+                byte[] data = new byte[dis.readInt()];
+                dis.readFully(data);
+                return (CollisionShape) BinaryImporter.getInstance().load(new ByteArrayInputStream(data));
+            default:
+                throw new IOException("Unknown shape kind: " + kind);
+        }
+
+        shape.setScale(readVector(dis, new Vector3f()));
+        float margin = dis.readFloat();
+        // the margin of a sphere or a capsule is fixed: Minie warns if it is set.
+        if (shape.getMargin() != margin) {
+            shape.setMargin(margin);
+        }
+        return shape;
+    }
+
+    /**
+     * The controls copy the Spatial transform into the body when they are
+     * added to the PhysicsSpace, so the Spatial is moved first.
+     */
+    private static void placeSpatial(Spatial sp, Vector3f location, Quaternion rotation) {
+        if (sp == null) {
+            return;
+        }
+        Node parent = sp.getParent();
+        if (parent != null) {
+            sp.setLocalTranslation(parent.worldToLocal(location, null));
+            sp.setLocalRotation(parent.getWorldRotation().inverse().multLocal(rotation));
+        } else {
+            sp.setLocalTranslation(location);
+            sp.setLocalRotation(rotation);
+        }
+    }
+
+    private static Map<String, Spatial> collectSpatials(Node scene) {
+        final Map<String, Spatial> map = new HashMap<>();
+        scene.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                map.putIfAbsent(geom.getName(), geom);
+            }
+
+            @Override
+            public void visit(Node node) {
+                map.putIfAbsent(node.getName(), node);
+            }
+        });
+        return map;
+    }
+
+    private static void writeVector(DataOutputStream dos, Vector3f v) throws IOException {
+        dos.writeFloat(v.x);
+        dos.writeFloat(v.y);
+        dos.writeFloat(v.z);
+    }
+
+    private static Vector3f readVector(DataInputStream dis, Vector3f store) throws IOException {
+        return store.set(dis.readFloat(), dis.readFloat(), dis.readFloat());
+    }
+
+    private static void writeQuaternion(DataOutputStream dos, Quaternion q) throws IOException {
+        dos.writeFloat(q.getX());
+        dos.writeFloat(q.getY());
+        dos.writeFloat(q.getZ());
+        dos.writeFloat(q.getW());
+    }
+
+    private static Quaternion readQuaternion(DataInputStream dis, Quaternion store) throws IOException {
+        return store.set(dis.readFloat(), dis.readFloat(), dis.readFloat(), dis.readFloat());
+    }
+
+}
@@ -9,9 +9,14 @@ import com.jme3.bullet.PhysicsSpace;
 import com.jme3.bullet.collision.PhysicsCollisionEvent;
 import com.jme3.bullet.collision.PhysicsCollisionListener;
 import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
+import com.jme3.bullet.collision.shapes.CollisionShape;
 import com.jme3.bullet.collision.shapes.SphereCollisionShape;
 import com.jme3.bullet.objects.PhysicsGhostObject;
 import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Spatial;
 import java.util.ArrayList;
@@ -81,7 +86,8 @@ public class PhysxQuery {
     }
 
     /**
-     * Computes and stores colliders inside the sphere.
+     * Computes and stores colliders touching or inside the sphere. The test is
+     * exact against the collision shapes, not only the body centres.
      *
      * @param position	- Center of the sphere.
      * @param radius	- Radius of the sphere.
@@ -91,19 +97,9 @@ public class PhysxQuery {
      * sphere.
      */
     public static List<PhysicsRigidBody> overlapSphere(Vector3f position, float radius, int layerMask, Function<PhysicsRigidBody, Boolean> func) {
-
-        List<PhysicsRigidBody> results = new ArrayList<>(10);
-        for (PhysicsRigidBody pco : PhysicsSpace.getPhysicsSpace().getRigidBodyList()) {
-
-            if (applyMask(layerMask, pco.getCollisionGroup()) && func.apply(pco)) {
-                Vector3f distance = pco.getPhysicsLocation().subtract(position);
-
-                if (distance.length() < radius) {
-                    results.add(pco);
-                }
-            }
-        }
-        return results;
+        OverlapQuery query = overlapQuery.get();
+        query.setSphere(position, radius);
+        return query.run(layerMask, func);
     }
     
     public static List<PhysicsRigidBody> overlapSphere(Vector3f position, float radius, int layerMask) {
@@ -115,8 +111,9 @@ public class PhysxQuery {
     }
   
     /**
-     * Computes and stores colliders inside the sphere into the provided buffer.
-     * Does not attempt to grow the buffer if it runs out of space.
+     * Computes and stores colliders touching or inside the sphere into the
+     * provided buffer. Does not attempt to grow the buffer if it runs out of
+     * space.
      *
      * @param position  - Center of the sphere.
      * @param radius    - Radius of the sphere.
@@ -126,22 +123,9 @@ public class PhysxQuery {
      * @return Returns the amount of colliders stored into the results buffer.
      */
     public static int overlapSphereNonAlloc(Vector3f position, float radius, PhysicsRigidBody[] results, int layerMask, Function<PhysicsRigidBody, Boolean> func) {
-
-        int numColliders = 0;
-        for (PhysicsRigidBody pco : PhysicsSpace.getPhysicsSpace().getRigidBodyList()) {
-
-            if (applyMask(layerMask, pco.getCollisionGroup()) && func.apply(pco)) {
-                Vector3f distance = pco.getPhysicsLocation().subtract(position);
-
-                if (distance.length() < radius) {
-                    results[numColliders++] = pco;
-                    if (numColliders == results.length) {
-                        break;
-                    }
-                }
-            }
-        }
-        return numColliders;
+        OverlapQuery query = overlapQuery.get();
+        query.setSphere(position, radius);
+        return query.run(results, layerMask, func);
     }
 
     public static int overlapSphereNonAlloc(Vector3f position, float radius, PhysicsRigidBody[] results, int layerMask) {
@@ -152,6 +136,114 @@ public class PhysxQuery {
         return overlapSphereNonAlloc(position, radius, results, DefaultRaycastLayers, IdentityFunction);
     }
 
+    /**
+     * Computes and stores colliders touching or inside the box.
+     *
+     * @param center      - Center of the box.
+     * @param halfExtents - Half of the size of the box in each dimension.
+     * @param orientation - Rotation of the box.
+     * @param layerMask   - A Layer mask defines which layers of colliders to include in the query.
+     * @param func        - Specifies a function to filter colliders.
+     * @return Returns an array with all PhysicsRigidBody touching or inside the
+     * box.
+     */
+    public static List<PhysicsRigidBody> overlapBox(Vector3f center, Vector3f halfExtents, Quaternion orientation, int layerMask, Function<PhysicsRigidBody, Boolean> func) {
+        OverlapQuery query = overlapQuery.get();
+        query.setBox(center, halfExtents, orientation);
+        return query.run(layerMask, func);
+    }
+
+    public static List<PhysicsRigidBody> overlapBox(Vector3f center, Vector3f halfExtents, Quaternion orientation, int layerMask) {
+        return overlapBox(center, halfExtents, orientation, layerMask, IdentityFunction);
+    }
+
+    public static List<PhysicsRigidBody> overlapBox(Vector3f center, Vector3f halfExtents, Quaternion orientation) {
+        return overlapBox(center, halfExtents, orientation, DefaultRaycastLayers, IdentityFunction);
+    }
+
+    public static List<PhysicsRigidBody> overlapBox(Vector3f center, Vector3f halfExtents) {
+        return overlapBox(center, halfExtents, Quaternion.IDENTITY, DefaultRaycastLayers, IdentityFunction);
+    }
+
+    /**
+     * Computes and stores colliders touching or inside the box into the
+     * provided buffer. Does not attempt to grow the buffer if it runs out of
+     * space.
+     *
+     * @param center      - Center of the box.
+     * @param halfExtents - Half of the size of the box in each dimension.
+     * @param orientation - Rotation of the box.
+     * @param results     - The buffer to store the results into.
+     * @param layerMask   - A Layer mask defines which layers of colliders to include in the query.
+     * @param func        - Specifies a function to filter colliders.
+     * @return Returns the amount of colliders stored into the results buffer.
+     */
+    public static int overlapBoxNonAlloc(Vector3f center, Vector3f halfExtents, Quaternion orientation, PhysicsRigidBody[] results, int layerMask, Function<PhysicsRigidBody, Boolean> func) {
+        OverlapQuery query = overlapQuery.get();
+        query.setBox(center, halfExtents, orientation);
+        return query.run(results, layerMask, func);
+    }
+
+    public static int overlapBoxNonAlloc(Vector3f center, Vector3f halfExtents, Quaternion orientation, PhysicsRigidBody[] results, int layerMask) {
+        return overlapBoxNonAlloc(center, halfExtents, orientation, results, layerMask, IdentityFunction);
+    }
+
+    public static int overlapBoxNonAlloc(Vector3f center, Vector3f halfExtents, Quaternion orientation, PhysicsRigidBody[] results) {
+        return overlapBoxNonAlloc(center, halfExtents, orientation, results, DefaultRaycastLayers, IdentityFunction);
+    }
+
+    /**
+     * Computes and stores colliders touching or inside the capsule.
+     *
+     * @param point0    - The center of the sphere at the start of the capsule.
+     * @param point1    - The center of the sphere at the end of the capsule.
+     * @param radius    - The radius of the capsule.
+     * @param layerMask - A Layer mask defines which layers of colliders to include in the query.
+     * @param func      - Specifies a function to filter colliders.
+     * @return Returns an array with all PhysicsRigidBody touching or inside the
+     * capsule.
+     */
+    public static List<PhysicsRigidBody> overlapCapsule(Vector3f point0, Vector3f point1, float radius, int layerMask, Function<PhysicsRigidBody, Boolean> func) {
+        OverlapQuery query = overlapQuery.get();
+        query.setCapsule(point0, point1, radius);
+        return query.run(layerMask, func);
+    }
+
+    public static List<PhysicsRigidBody> overlapCapsule(Vector3f point0, Vector3f point1, float radius, int layerMask) {
+        return overlapCapsule(point0, point1, radius, layerMask, IdentityFunction);
+    }
+
+    public static List<PhysicsRigidBody> overlapCapsule(Vector3f point0, Vector3f point1, float radius) {
+        return overlapCapsule(point0, point1, radius, DefaultRaycastLayers, IdentityFunction);
+    }
+
+    /**
+     * Computes and stores colliders touching or inside the capsule into the
+     * provided buffer. Does not attempt to grow the buffer if it runs out of
+     * space.
+     *
+     * @param point0    - The center of the sphere at the start of the capsule.
+     * @param point1    - The center of the sphere at the end of the capsule.
+     * @param radius    - The radius of the capsule.
+     * @param results   - The buffer to store the results into.
+     * @param layerMask - A Layer mask defines which layers of colliders to include in the query.
+     * @param func      - Specifies a function to filter colliders.
+     * @return Returns the amount of colliders stored into the results buffer.
+     */
+    public static int overlapCapsuleNonAlloc(Vector3f point0, Vector3f point1, float radius, PhysicsRigidBody[] results, int layerMask, Function<PhysicsRigidBody, Boolean> func) {
+        OverlapQuery query = overlapQuery.get();
+        query.setCapsule(point0, point1, radius);
+        return query.run(results, layerMask, func);
+    }
+
+    public static int overlapCapsuleNonAlloc(Vector3f point0, Vector3f point1, float radius, PhysicsRigidBody[] results, int layerMask) {
+        return overlapCapsuleNonAlloc(point0, point1, radius, results, layerMask, IdentityFunction);
+    }
+
+    public static int overlapCapsuleNonAlloc(Vector3f point0, Vector3f point1, float radius, PhysicsRigidBody[] results) {
+        return overlapCapsuleNonAlloc(point0, point1, radius, results, DefaultRaycastLayers, IdentityFunction);
+    }
+
     /**
      * Check if a collisionGroup is in a layerMask
      *
@@ -163,4 +255,150 @@ public class PhysxQuery {
         return layerMask == (layerMask | collisionGroup);
     }
 
+    /**
+     * One reusable query object per thread: the PhysicsSpace is thread-local
+     * as well.
+     */
+    private static final ThreadLocal<OverlapQuery> overlapQuery = ThreadLocal.withInitial(OverlapQuery::new);
+
+    /**
+     * ---- @class OverlapQuery ----
+     * 
+     * Runs PhysicsSpace.contactTest with a ghost object and reusable shapes.
+     * Bullet first collects the candidates whose AABB overlaps the ghost from
+     * the broadphase tree, then runs the exact narrowphase on those only, so
+     * the cost does not grow with the number of bodies in the space.
+     */
+    private static class OverlapQuery implements PhysicsCollisionListener {
+
+        // unit shapes, sized with setScale()
+        private final SphereCollisionShape sphere = new SphereCollisionShape(1f);
+        private final BoxCollisionShape box = new BoxCollisionShape(1f);
+        // capsules can only be scaled uniformly, the last one is kept
+        private CapsuleCollisionShape capsule;
+        private final PhysicsGhostObject ghost = new PhysicsGhostObject(sphere);
+
+        private final Vector3f tmpScale = new Vector3f();
+        private final Vector3f tmpAxis = new Vector3f();
+        private final Quaternion tmpRotation = new Quaternion();
+
+        // per-query state
+        private List<PhysicsRigidBody> list;
+        private PhysicsRigidBody[] buffer;
+        private int numColliders;
+        private int layerMask;
+        private Function<PhysicsRigidBody, Boolean> func;
+        private PhysicsCollisionObject lastObject;
+
+        void setSphere(Vector3f position, float radius) {
+            sphere.setScale(tmpScale.set(radius, radius, radius));
+            setShape(sphere, position, Quaternion.IDENTITY);
+        }
+
+        void setBox(Vector3f center, Vector3f halfExtents, Quaternion orientation) {
+            box.setScale(halfExtents);
+            setShape(box, center, orientation);
+        }
+
+        void setCapsule(Vector3f point0, Vector3f point1, float radius) {
+            tmpAxis.set(point1).subtractLocal(point0);
+            float height = tmpAxis.length();
+            if (capsule == null || capsule.getRadius() != radius || capsule.getHeight() != height) {
+                capsule = new CapsuleCollisionShape(radius, height);
+            }
+
+            // rotate the Y axis of the capsule onto the segment point0-point1
+            if (height > FastMath.ZERO_TOLERANCE) {
+                tmpAxis.divideLocal(height);
+                float dot = FastMath.clamp(tmpAxis.y, -1f, 1f);
+                if (dot < -0.9999f) {
+                    tmpRotation.fromAngleNormalAxis(FastMath.PI, Vector3f.UNIT_X);
+                } else {
+                    Vector3f axis = Vector3f.UNIT_Y.cross(tmpAxis, tmpScale);
+                    float length = axis.length();
+                    if (length > FastMath.ZERO_TOLERANCE) {
+                        tmpRotation.fromAngleNormalAxis(FastMath.acos(dot), axis.divideLocal(length));
+                    } else {
+                        tmpRotation.loadIdentity();
+                    }
+                }
+            } else {
+                tmpRotation.loadIdentity();
+            }
+
+            tmpScale.set(point0).addLocal(point1).multLocal(0.5f);
+            setShape(capsule, tmpScale, tmpRotation);
+        }
+
+        private void setShape(CollisionShape shape, Vector3f location, Quaternion rotation) {
+            if (ghost.getCollisionShape() != shape) {
+                ghost.setCollisionShape(shape);
+            }
+            ghost.setPhysicsLocation(location);
+            ghost.setPhysicsRotation(rotation);
+        }
+
+        List<PhysicsRigidBody> run(int layerMask, Function<PhysicsRigidBody, Boolean> func) {
+            List<PhysicsRigidBody> results = new ArrayList<>(10);
+            try {
+                list = results;
+                begin(layerMask, func);
+                PhysicsSpace.getPhysicsSpace().contactTest(ghost, this);
+            } finally {
+                end();
+            }
+            return results;
+        }
+
+        int run(PhysicsRigidBody[] results, int layerMask, Function<PhysicsRigidBody, Boolean> func) {
+            try {
+                buffer = results;
+                begin(layerMask, func);
+                PhysicsSpace.getPhysicsSpace().contactTest(ghost, this);
+                return numColliders;
+            } finally {
+                end();
+            }
+        }
+
+        private void begin(int layerMask, Function<PhysicsRigidBody, Boolean> func) {
+            this.layerMask = layerMask;
+            this.func = func;
+            this.numColliders = 0;
+            this.lastObject = null;
+        }
+
+        private void end() {
+            list = null;
+            buffer = null;
+            func = null;
+            lastObject = null;
+        }
+
+        @Override
+        public void collision(PhysicsCollisionEvent event) {
+            PhysicsCollisionObject pco = (event.getObjectA() == ghost) ? event.getObjectB() : event.getObjectA();
+
+            // Bullet reports every contact point of a body in a row:
+            // test each candidate only once.
+            if (pco == lastObject) {
+                return;
+            }
+            lastObject = pco;
+
+            if (!(pco instanceof PhysicsRigidBody) || !applyMask(layerMask, pco.getCollisionGroup())) {
+                return;
+            }
+
+            PhysicsRigidBody rb = (PhysicsRigidBody) pco;
+            if (list != null) {
+                if (func.apply(rb)) {
+                    list.add(rb);
+                }
+            } else if (numColliders < buffer.length && func.apply(rb)) {
+                buffer[numColliders++] = rb;
+            }
+        }
+    }
+
 }
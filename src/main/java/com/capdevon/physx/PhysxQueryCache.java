@@ -0,0 +1,443 @@
+package com.capdevon.physx;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Vector3f;
+
+/**
+ * Opt-in, frame-coherent cache in front of {@link Physics#Raycast},
+ * {@link Physics#Linecast} and {@link PhysxQuery#overlapSphere}.
+ * <p>
+ * Queries are keyed on their quantized parameters plus the layer mask, so
+ * systems asking the same question in the same frame (camera, AI, animation)
+ * share one physics query. All the entries are dropped at the beginning of
+ * each frame. An entry is dropped earlier when, during a physics tick, a body
+ * referenced by the result changes activation state or an active body
+ * overlaps the region swept by the query.
+ *
+ * @author capdevon
+ */
+public class PhysxQueryCache extends BaseAppState implements PhysicsTickListener {
+
+    private static final Logger logger = Logger.getLogger(PhysxQueryCache.class.getName());
+
+    /**
+     * DefaultRaycastLayers ALL LAYERS
+     */
+    private static final int DefaultRaycastLayers = ~0;
+
+    private static final int RAYCAST = 0;
+    private static final int LINECAST = 1;
+    private static final int OVERLAP_SPHERE = 2;
+
+    private PhysicsSpace physicsSpace;
+    // cell size used to quantize positions and distances (in world units).
+    private float positionQuantum = 0.01f;
+    // step used to quantize the components of direction vectors.
+    private float directionQuantum = 0.001f;
+
+    private final Map<QueryKey, CacheEntry> entries = new HashMap<>();
+    // reusable key used for lookups, never stored in the map.
+    private final QueryKey probe = new QueryKey();
+    private final BoundingBox tmpBox = new BoundingBox();
+    private final Vector3f tmpMin = new Vector3f();
+    private final Vector3f tmpMax = new Vector3f();
+
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    @Override
+    protected void initialize(Application app) {
+        this.physicsSpace = getState(BulletAppState.class, true).getPhysicsSpace();
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        logger.log(Level.INFO, "{0}", this);
+    }
+
+    @Override
+    protected void onEnable() {
+        physicsSpace.addTickListener(this);
+    }
+
+    @Override
+    protected void onDisable() {
+        physicsSpace.removeTickListener(this);
+        clear();
+    }
+
+    @Override
+    public void update(float tpf) {
+        // results are valid for the current frame only.
+        clear();
+    }
+
+    @Override
+    public void prePhysicsTick(PhysicsSpace space, float timeStep) {
+    }
+
+    @Override
+    public synchronized void physicsTick(PhysicsSpace space, float timeStep) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().hasActivationChanged()) {
+                it.remove();
+                invalidations++;
+            }
+        }
+
+        for (PhysicsRigidBody body : space.getRigidBodyList()) {
+            if (entries.isEmpty()) {
+                break;
+            }
+            if (body.isActive()) {
+                body.boundingBox(tmpBox);
+                invalidateRegion(tmpBox);
+            }
+        }
+    }
+
+    /**
+     * Cached version of {@link Physics#Raycast(Vector3f, Vector3f, RaycastHit, float, int)}.
+     *
+     * @param origin      - The starting point of the ray in world coordinates. (not null, unaffected)
+     * @param direction   - The direction of the ray. (not null, unaffected)
+     * @param hitInfo     - If true is returned, hitInfo will contain more information about where the closest collider was hit.
+     * @param maxDistance - The max distance the ray should check for collisions.
+     * @param layerMask   - A Layer mask that is used to selectively ignore Colliders when casting a ray.
+     * @return Returns true if the ray intersects with a Collider, otherwise false.
+     */
+    public synchronized boolean raycast(Vector3f origin, Vector3f direction, RaycastHit hitInfo, float maxDistance, int layerMask) {
+        probe.set(RAYCAST, layerMask,
+                quantize(origin.x, positionQuantum), quantize(origin.y, positionQuantum), quantize(origin.z, positionQuantum),
+                quantize(direction.x, directionQuantum), quantize(direction.y, directionQuantum), quantize(direction.z, directionQuantum),
+                quantize(maxDistance, positionQuantum));
+
+        CacheEntry entry = lookup();
+        if (entry == null) {
+            RaycastHit result = new RaycastHit();
+            Physics.Raycast(origin, direction, result, maxDistance, layerMask);
+
+            Vector3f end = direction.mult(maxDistance).addLocal(origin);
+            entry = store(result, toArray(result.rigidBody));
+            entry.setRegion(origin, end, 0);
+        }
+        return copyHit((RaycastHit) entry.result, hitInfo);
+    }
+
+    public boolean raycast(Vector3f origin, Vector3f direction, RaycastHit hitInfo, float maxDistance) {
+        return raycast(origin, direction, hitInfo, maxDistance, DefaultRaycastLayers);
+    }
+
+    /**
+     * Cached version of {@link Physics#Linecast(Vector3f, Vector3f, RaycastHit, int)}.
+     *
+     * @param beginVec  - (not null, unaffected)
+     * @param finalVec  - (not null, unaffected)
+     * @param hitInfo   - If true is returned, hitInfo will contain more information about where the closest collider was hit.
+     * @param layerMask - A Layer mask that is used to selectively ignore Colliders when casting a ray.
+     * @return Returns true if the ray intersects with a Collider, otherwise false.
+     */
+    public synchronized boolean linecast(Vector3f beginVec, Vector3f finalVec, RaycastHit hitInfo, int layerMask) {
+        probe.set(LINECAST, layerMask,
+                quantize(beginVec.x, positionQuantum), quantize(beginVec.y, positionQuantum), quantize(beginVec.z, positionQuantum),
+                quantize(finalVec.x, positionQuantum), quantize(finalVec.y, positionQuantum), quantize(finalVec.z, positionQuantum),
+                0);
+
+        CacheEntry entry = lookup();
+        if (entry == null) {
+            RaycastHit result = new RaycastHit();
+            Physics.Linecast(beginVec, finalVec, result, layerMask);
+
+            entry = store(result, toArray(result.rigidBody));
+            entry.setRegion(beginVec, finalVec, 0);
+        }
+        return copyHit((RaycastHit) entry.result, hitInfo);
+    }
+
+    public boolean linecast(Vector3f beginVec, Vector3f finalVec, RaycastHit hitInfo) {
+        return linecast(beginVec, finalVec, hitInfo, DefaultRaycastLayers);
+    }
+
+    /**
+     * Cached version of {@link PhysxQuery#overlapSphere(Vector3f, float, int)}.
+     *
+     * @param position  - Center of the sphere.
+     * @param radius    - Radius of the sphere.
+     * @param layerMask - A Layer mask defines which layers of colliders to include in the query.
+     * @return Returns an unmodifiable list with all PhysicsRigidBody touching or inside the sphere.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<PhysicsRigidBody> overlapSphere(Vector3f position, float radius, int layerMask) {
+        probe.set(OVERLAP_SPHERE, layerMask,
+                quantize(position.x, positionQuantum), quantize(position.y, positionQuantum), quantize(position.z, positionQuantum),
+                0, 0, 0,
+                quantize(radius, positionQuantum));
+
+        CacheEntry entry = lookup();
+        if (entry == null) {
+            List<PhysicsRigidBody> result = PhysxQuery.overlapSphere(position, radius, layerMask);
+
+            entry = store(Collections.unmodifiableList(result), result.toArray(new PhysicsCollisionObject[0]));
+            entry.setRegion(position, position, radius);
+        }
+        return (List<PhysicsRigidBody>) entry.result;
+    }
+
+    public List<PhysicsRigidBody> overlapSphere(Vector3f position, float radius) {
+        return overlapSphere(position, radius, DefaultRaycastLayers);
+    }
+
+    /**
+     * Discards all the cached results.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Resets the hit/miss counters.
+     */
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        invalidations = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Returns the fraction of the queries answered from the cache.
+     *
+     * @return the hit rate (between 0 and 1)
+     */
+    public synchronized float getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0f : (float) hits / total;
+    }
+
+    public float getPositionQuantum() {
+        return positionQuantum;
+    }
+
+    /**
+     * Alter the cell size used to quantize positions and distances. Queries
+     * whose parameters fall in the same cells share the same result.
+     *
+     * @param positionQuantum (in world units, &gt;0)
+     */
+    public synchronized void setPositionQuantum(float positionQuantum) {
+        if (positionQuantum <= 0) {
+            throw new IllegalArgumentException("positionQuantum must be positive: " + positionQuantum);
+        }
+        this.positionQuantum = positionQuantum;
+        entries.clear();
+    }
+
+    public float getDirectionQuantum() {
+        return directionQuantum;
+    }
+
+    /**
+     * Alter the step used to quantize the components of the ray directions.
+     *
+     * @param directionQuantum (&gt;0)
+     */
+    public synchronized void setDirectionQuantum(float directionQuantum) {
+        if (directionQuantum <= 0) {
+            throw new IllegalArgumentException("directionQuantum must be positive: " + directionQuantum);
+        }
+        this.directionQuantum = directionQuantum;
+        entries.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PhysxQueryCache [hits=" + hits +
+            ", misses=" + misses +
+            ", invalidations=" + invalidations +
+            ", hitRate=" + getHitRate() +
+            ", entries=" + entries.size() +
+            "]";
+    }
+
+    private CacheEntry lookup() {
+        CacheEntry entry = entries.get(probe);
+        if (entry != null && entry.hasActivationChanged()) {
+            entries.remove(probe);
+            invalidations++;
+            entry = null;
+        }
+
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    private CacheEntry store(Object result, PhysicsCollisionObject[] bodies) {
+        CacheEntry entry = new CacheEntry(result, bodies);
+        entries.put(probe.copy(), entry);
+        return entry;
+    }
+
+    private void invalidateRegion(BoundingBox box) {
+        Vector3f min = box.getMin(tmpMin);
+        Vector3f max = box.getMax(tmpMax);
+
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().intersects(min, max)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    private static boolean copyHit(RaycastHit source, RaycastHit target) {
+        if (source.rigidBody == null) {
+            target.clear();
+            return false;
+        }
+        target.rigidBody   = source.rigidBody;
+        target.collider    = source.collider;
+        target.gameObject  = source.gameObject;
+        target.distance    = source.distance;
+        target.normal.set(source.normal);
+        target.point.set(source.point);
+        return true;
+    }
+
+    private static PhysicsCollisionObject[] toArray(PhysicsCollisionObject pco) {
+        return pco == null ? new PhysicsCollisionObject[0] : new PhysicsCollisionObject[] { pco };
+    }
+
+    private static int quantize(float value, float quantum) {
+        return Math.round(value / quantum);
+    }
+
+    /**
+     * ------------------------------------------------------------
+     * @class QueryKey
+     * ------------------------------------------------------------
+     */
+    private static class QueryKey {
+
+        final int[] values = new int[9];
+        int hash;
+
+        void set(int type, int layerMask, int a, int b, int c, int d, int e, int f, int g) {
+            values[0] = type;
+            values[1] = layerMask;
+            values[2] = a;
+            values[3] = b;
+            values[4] = c;
+            values[5] = d;
+            values[6] = e;
+            values[7] = f;
+            values[8] = g;
+            hash = Arrays.hashCode(values);
+        }
+
+        QueryKey copy() {
+            QueryKey key = new QueryKey();
+            System.arraycopy(values, 0, key.values, 0, values.length);
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey other = (QueryKey) obj;
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+    }
+
+    /**
+     * ------------------------------------------------------------
+     * @class CacheEntry
+     * ------------------------------------------------------------
+     */
+    private static class CacheEntry {
+
+        final Object result;
+        final PhysicsCollisionObject[] bodies;
+        final boolean[] activeStates;
+        final Vector3f regionMin = new Vector3f();
+        final Vector3f regionMax = new Vector3f();
+
+        CacheEntry(Object result, PhysicsCollisionObject[] bodies) {
+            this.result = result;
+            this.bodies = bodies;
+            this.activeStates = new boolean[bodies.length];
+            for (int i = 0; i < bodies.length; i++) {
+                activeStates[i] = bodies[i].isActive();
+            }
+        }
+
+        void setRegion(Vector3f a, Vector3f b, float margin) {
+            regionMin.set(Math.min(a.x, b.x) - margin, Math.min(a.y, b.y) - margin, Math.min(a.z, b.z) - margin);
+            regionMax.set(Math.max(a.x, b.x) + margin, Math.max(a.y, b.y) + margin, Math.max(a.z, b.z) + margin);
+        }
+
+        boolean intersects(Vector3f min, Vector3f max) {
+            return min.x <= regionMax.x && max.x >= regionMin.x
+                && min.y <= regionMax.y && max.y >= regionMin.y
+                && min.z <= regionMax.z && max.z >= regionMin.z;
+        }
+
+        boolean hasActivationChanged() {
+            for (int i = 0; i < bodies.length; i++) {
+                if (bodies[i].isActive() != activeStates[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,405 @@
+package com.capdevon.physx;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.HeightfieldCollisionShape;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+/**
+ * Streams the collision of a large heightmap as a grid of
+ * HeightfieldCollisionShape tiles around a focus Spatial.
+ * <p>
+ * The shapes are prepared on a background thread; the render thread only
+ * adds and removes static bodies, a few tiles per frame. Bodies are pooled and
+ * the shapes of the recently released tiles are kept in a bounded cache, so
+ * the physics memory used by the terrain depends on the streaming radius, not
+ * on the size of the world. The tiles are ordinary static rigid bodies, so
+ * {@link Physics#Raycast} and {@link PhysxQuery} see them with no changes.
+ *
+ * @author capdevon
+ */
+public class TerrainCollisionStreamer extends BaseAppState {
+
+    private static final Logger logger = Logger.getLogger(TerrainCollisionStreamer.class.getName());
+
+    /**
+     * Provides the height samples of the world.
+     */
+    public interface HeightSource {
+
+        /**
+         * @param x - The sample column (0 to width-1).
+         * @param z - The sample row (0 to depth-1).
+         * @return the height of the sample (unscaled)
+         */
+        public float getHeight(int x, int z);
+    }
+
+    private PhysicsSpace physicsSpace;
+    private ExecutorService executor;
+
+    private final HeightSource heightSource;
+    private final int width;
+    private final int depth;
+    private final int tileSize;
+    private final Vector3f scale;
+    private final Vector3f origin = new Vector3f();
+
+    private Spatial focus;
+    // the streaming radius (in world units).
+    private float radius = 128f;
+    // extra distance before a loaded tile is released.
+    private float hysteresis = 16f;
+    private int maxTilesPerFrame = 2;
+    private int maxCachedShapes = 64;
+
+    private final Map<Long, PreparedTile> loadedTiles = new HashMap<>();
+    private final Map<Long, Future<PreparedTile>> pendingTiles = new HashMap<>();
+    private final ArrayDeque<PhysicsRigidBody> bodyPool = new ArrayDeque<>();
+    private final LinkedHashMap<Long, PreparedTile> shapeCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<Long> wantedTiles = new ArrayList<>();
+    private final Vector3f focusLocation = new Vector3f();
+
+    /**
+     * Constructor.
+     *
+     * @param heightSource - The height samples of the world.
+     * @param width        - The number of sample columns.
+     * @param depth        - The number of sample rows.
+     * @param tileSize     - The number of sample intervals per tile side (it
+     *                     must divide width-1 and depth-1, eg: 64 for a
+     *                     1025x1025 heightmap).
+     * @param scale        - The scale of the samples (horizontal spacing and height multiplier).
+     * @param focus        - The Spatial around which the tiles are streamed.
+     */
+    public TerrainCollisionStreamer(HeightSource heightSource, int width, int depth, int tileSize, Vector3f scale, Spatial focus) {
+        if (tileSize < 2) {
+            throw new IllegalArgumentException("tileSize must be at least 2: " + tileSize);
+        }
+        // the tiles are square: the last columns and rows would not be covered.
+        if ((width - 1) % tileSize != 0 || (depth - 1) % tileSize != 0) {
+            throw new IllegalArgumentException("tileSize " + tileSize + " does not divide the sample intervals: "
+                    + (width - 1) + "x" + (depth - 1));
+        }
+        this.heightSource = heightSource;
+        this.width = width;
+        this.depth = depth;
+        this.tileSize = tileSize;
+        this.scale = scale.clone();
+        this.focus = focus;
+    }
+
+    /**
+     * Creates a streamer for a square row-major heightmap (eg: from a
+     * jME HeightMap).
+     *
+     * @param heightMap - The height samples (size*size).
+     * @param tileSize  - The number of sample intervals per tile side.
+     * @param scale     - The scale of the samples.
+     * @param focus     - The Spatial around which the tiles are streamed.
+     */
+    public TerrainCollisionStreamer(float[] heightMap, int tileSize, Vector3f scale, Spatial focus) {
+        this(createSource(heightMap), sideLength(heightMap), sideLength(heightMap), tileSize, scale, focus);
+    }
+
+    private static int sideLength(float[] heightMap) {
+        int size = (int) Math.sqrt(heightMap.length);
+        if (size * size != heightMap.length) {
+            throw new IllegalArgumentException("The heightmap must be square: " + heightMap.length);
+        }
+        return size;
+    }
+
+    private static HeightSource createSource(float[] heightMap) {
+        final int size = sideLength(heightMap);
+        return (x, z) -> heightMap[z * size + x];
+    }
+
+    @Override
+    protected void initialize(Application app) {
+        this.physicsSpace = getState(BulletAppState.class, true).getPhysicsSpace();
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        shapeCache.clear();
+        bodyPool.clear();
+    }
+
+    @Override
+    protected void onEnable() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "TerrainCollisionStreamer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    protected void onDisable() {
+        executor.shutdownNow();
+        pendingTiles.clear();
+        for (Long key : new ArrayList<>(loadedTiles.keySet())) {
+            releaseTile(key);
+        }
+    }
+
+    @Override
+    public void update(float tpf) {
+        if (focus == null) {
+            return;
+        }
+
+        focusLocation.set(focus.getWorldTranslation()).subtractLocal(origin);
+        float tileWorldX = tileSize * scale.x;
+        float tileWorldZ = tileSize * scale.z;
+        int tilesX = (width - 1) / tileSize;
+        int tilesZ = (depth - 1) / tileSize;
+
+        // release the tiles out of range
+        float releaseRadius = radius + hysteresis;
+        Iterator<Long> it = loadedTiles.keySet().iterator();
+        while (it.hasNext()) {
+            long key = it.next();
+            if (distanceToTile(tileX(key), tileZ(key), tileWorldX, tileWorldZ) > releaseRadius) {
+                PreparedTile tile = loadedTiles.get(key);
+                it.remove();
+                recycle(key, tile);
+            }
+        }
+
+        // cancel the requests out of range
+        Iterator<Map.Entry<Long, Future<PreparedTile>>> pit = pendingTiles.entrySet().iterator();
+        while (pit.hasNext()) {
+            Map.Entry<Long, Future<PreparedTile>> entry = pit.next();
+            long key = entry.getKey();
+            if (distanceToTile(tileX(key), tileZ(key), tileWorldX, tileWorldZ) > releaseRadius) {
+                entry.getValue().cancel(false);
+                pit.remove();
+            }
+        }
+
+        // request the tiles in range
+        wantedTiles.clear();
+        int minX = Math.max(0, (int) Math.floor((focusLocation.x - radius) / tileWorldX));
+        int maxX = Math.min(tilesX - 1, (int) Math.floor((focusLocation.x + radius) / tileWorldX));
+        int minZ = Math.max(0, (int) Math.floor((focusLocation.z - radius) / tileWorldZ));
+        int maxZ = Math.min(tilesZ - 1, (int) Math.floor((focusLocation.z + radius) / tileWorldZ));
+
+        for (int tz = minZ; tz <= maxZ; tz++) {
+            for (int tx = minX; tx <= maxX; tx++) {
+                long key = tileKey(tx, tz);
+                if (!loadedTiles.containsKey(key) && distanceToTile(tx, tz, tileWorldX, tileWorldZ) <= radius) {
+                    wantedTiles.add(key);
+                }
+            }
+        }
+
+        int attached = 0;
+        for (long key : wantedTiles) {
+            if (attached >= maxTilesPerFrame) {
+                break;
+            }
+
+            PreparedTile tile = shapeCache.remove(key);
+            if (tile == null) {
+                Future<PreparedTile> future = pendingTiles.get(key);
+                if (future == null) {
+                    final int tx = tileX(key);
+                    final int tz = tileZ(key);
+                    pendingTiles.put(key, executor.submit(() -> prepareTile(tx, tz)));
+                    continue;
+                }
+                if (!future.isDone()) {
+                    continue;
+                }
+                pendingTiles.remove(key);
+                tile = getResult(future);
+                if (tile == null) {
+                    continue;
+                }
+            }
+
+            attachTile(key, tile);
+            attached++;
+        }
+    }
+
+    /**
+     * Samples the heights of a tile and creates its shape. Runs on the
+     * background thread.
+     */
+    private PreparedTile prepareTile(int tx, int tz) {
+        int samples = tileSize + 1;
+        float[] heights = new float[samples * samples];
+
+        int x0 = tx * tileSize;
+        int z0 = tz * tileSize;
+        for (int z = 0; z < samples; z++) {
+            for (int x = 0; x < samples; x++) {
+                heights[z * samples + x] = heightSource.getHeight(x0 + x, z0 + z);
+            }
+        }
+
+        PreparedTile tile = new PreparedTile();
+        tile.shape = new HeightfieldCollisionShape(heights, scale);
+        // the shape is centered on the tile horizontally; its min and max
+        // heights are symmetric around 0, so height 0 is at the local origin.
+        tile.center = new Vector3f(
+                (x0 + tileSize * 0.5f) * scale.x,
+                0,
+                (z0 + tileSize * 0.5f) * scale.z).addLocal(origin);
+        return tile;
+    }
+
+    private PreparedTile getResult(Future<PreparedTile> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Cannot prepare terrain tile", e.getCause());
+        }
+        return null;
+    }
+
+    private void attachTile(long key, PreparedTile tile) {
+        PhysicsRigidBody body = bodyPool.poll();
+        if (body == null) {
+            body = new PhysicsRigidBody(tile.shape, 0f);
+        } else {
+            body.setCollisionShape(tile.shape);
+        }
+        body.setPhysicsLocation(tile.center);
+        physicsSpace.addCollisionObject(body);
+        tile.body = body;
+        loadedTiles.put(key, tile);
+
+        logger.log(Level.FINE, "Terrain tile attached: {0},{1}", new Object[]{tileX(key), tileZ(key)});
+    }
+
+    private void releaseTile(long key) {
+        PreparedTile tile = loadedTiles.remove(key);
+        if (tile != null) {
+            recycle(key, tile);
+        }
+    }
+
+    private void recycle(long key, PreparedTile tile) {
+        physicsSpace.removeCollisionObject(tile.body);
+        bodyPool.push(tile.body);
+        tile.body = null;
+
+        shapeCache.put(key, tile);
+        if (shapeCache.size() > maxCachedShapes) {
+            Iterator<Long> it = shapeCache.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+
+        logger.log(Level.FINE, "Terrain tile released: {0},{1}", new Object[]{tileX(key), tileZ(key)});
+    }
+
+    private float distanceToTile(int tx, int tz, float tileWorldX, float tileWorldZ) {
+        // distance from the focus to the closest point of the tile (XZ plane)
+        float minX = tx * tileWorldX;
+        float minZ = tz * tileWorldZ;
+        float dx = Math.max(Math.max(minX - focusLocation.x, 0), focusLocation.x - (minX + tileWorldX));
+        float dz = Math.max(Math.max(minZ - focusLocation.z, 0), focusLocation.z - (minZ + tileWorldZ));
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
+
+    private static long tileKey(int tx, int tz) {
+        return ((long) tx << 32) | (tz & 0xFFFFFFFFL);
+    }
+
+    private static int tileX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int tileZ(long key) {
+        return (int) key;
+    }
+
+    public Spatial getFocus() {
+        return focus;
+    }
+
+    public void setFocus(Spatial focus) {
+        this.focus = focus;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    /**
+     * Alter the streaming radius.
+     *
+     * @param radius (in world units, &gt;0)
+     */
+    public void setRadius(float radius) {
+        this.radius = radius;
+    }
+
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    public void setMaxTilesPerFrame(int maxTilesPerFrame) {
+        this.maxTilesPerFrame = maxTilesPerFrame;
+    }
+
+    public void setMaxCachedShapes(int maxCachedShapes) {
+        this.maxCachedShapes = maxCachedShapes;
+    }
+
+    /**
+     * Alter the world location of the first sample of the heightmap.
+     *
+     * @param origin (not null, unaffected)
+     */
+    public void setOrigin(Vector3f origin) {
+        this.origin.set(origin);
+    }
+
+    public int getLoadedTileCount() {
+        return loadedTiles.size();
+    }
+
+    public int getCachedShapeCount() {
+        return shapeCache.size();
+    }
+
+    /**
+     * ------------------------------------------------------------
+     * @class PreparedTile
+     * ------------------------------------------------------------
+     */
+    private static class PreparedTile {
+
+        HeightfieldCollisionShape shape;
+        Vector3f center;
+        // the pooled body using the shape, while the tile is loaded.
+        PhysicsRigidBody body;
+    }
+
+}
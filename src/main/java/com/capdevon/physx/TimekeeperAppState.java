@@ -0,0 +1,519 @@
+package com.capdevon.physx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.capdevon.control.TimekeeperControl;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.input.controls.ActionListener;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+/**
+ * Records the full dynamic state (position, rotation, linear and angular
+ * velocity) of all the registered bodies after every physics step, and
+ * rewinds them together.
+ * <p>
+ * The history is a ring of samples stored as struct-of-arrays: one float
+ * array per channel, each sample being a contiguous row of all the bodies,
+ * so a step is recorded or replayed with a single sequential loop. While
+ * rewinding, the bodies are kinematic and the playback time moves at
+ * {@link #setRewindSpeed rewindSpeed} (negative values replay forward) or is
+ * set directly with {@link #scrubTo}. When the rewind stops, the bodies get
+ * back the velocities recorded at that instant and the history newer than
+ * that instant is discarded.
+ * <p>
+ * With {@link #setCompression} or {@link #setHistory} the positions and
+ * rotations are kept in a {@link TransformHistory} instead: a
+ * {@link CompressedHistory} holds minutes of history for thousands of bodies,
+ * a {@link MappedHistory} a whole match outside the heap. The velocities
+ * restored at the end of the rewind are then derived from the two samples
+ * around the playback time.
+ * <p>
+ * Bound to {@link TimekeeperControl#INPUT_TOGGLE_REWIND}: hold to rewind.
+ *
+ * @author capdevon
+ */
+public class TimekeeperAppState extends BaseAppState implements PhysicsTickListener, ActionListener {
+
+    private static final Logger logger = Logger.getLogger(TimekeeperAppState.class.getName());
+
+    // channels: position, rotation, linear velocity, angular velocity
+    private static final int PX = 0, PY = 1, PZ = 2;
+    private static final int QX = 3, QY = 4, QZ = 5, QW = 6;
+    private static final int LX = 7, LY = 8, LZ = 9;
+    private static final int AX = 10, AY = 11, AZ = 12;
+    private static final int NUM_CHANNELS = 13;
+
+    // frames between two keyframes of the compressed history.
+    private static final int KEYFRAME_INTERVAL = 30;
+
+    private PhysicsSpace physicsSpace;
+
+    private final float historySeconds;
+    private int capacity;
+    private float sampleInterval;
+
+    // registered bodies: modified on the physics thread only.
+    private final List<PhysicsRigidBody> bodies = new ArrayList<>();
+    private final Queue<PhysicsRigidBody> pendingBodies = new ConcurrentLinkedQueue<>();
+    private boolean[] kinematicSpatial = new boolean[0];
+    // the column count of the channels.
+    private int stride = 16;
+    private final float[][] channels = new float[NUM_CHANNELS][];
+
+    // the compressed storage (null = full precision channels).
+    private float compressionPrecision;
+    private TransformHistory history;
+    private float[] posA = new float[0], rotA = new float[0];
+    private float[] posB = new float[0], rotB = new float[0];
+
+    // index of the row for the next sample.
+    private int head;
+    // number of valid samples.
+    private int count;
+
+    // requests from the render thread, applied in prePhysicsTick.
+    private volatile boolean rewindRequested;
+    private volatile float rewindSpeed = 1f;
+    private volatile float scrubTarget = Float.NaN;
+
+    private boolean isRewinding;
+    // playback: seconds back from the newest sample.
+    private volatile float rewindTime;
+
+    private final Vector3f tmpVec = new Vector3f();
+    private final Quaternion tmpRotA = new Quaternion();
+    private final Quaternion tmpRotB = new Quaternion();
+
+    /**
+     * Records 5 seconds.
+     */
+    public TimekeeperAppState() {
+        this(5f);
+    }
+
+    /**
+     * @param historySeconds - the length of the history (in seconds, &gt;0)
+     */
+    public TimekeeperAppState(float historySeconds) {
+        if (historySeconds <= 0) {
+            throw new IllegalArgumentException("historySeconds must be positive: " + historySeconds);
+        }
+        this.historySeconds = historySeconds;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+        this.physicsSpace = getState(BulletAppState.class, true).getPhysicsSpace();
+        // one sample per physics step.
+        this.sampleInterval = physicsSpace.getAccuracy();
+        this.capacity = (int) FastMath.ceil(historySeconds / sampleInterval) + 1;
+        if (compressionPrecision > 0) {
+            history = new CompressedHistory(capacity, KEYFRAME_INTERVAL, compressionPrecision);
+        } else if (history == null) {
+            for (int c = 0; c < NUM_CHANNELS; c++) {
+                channels[c] = new float[capacity * stride];
+            }
+        }
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        if (history instanceof MappedHistory) {
+            // flush the segments, they stay on disk for a replay.
+            ((MappedHistory) history).close();
+        }
+    }
+
+    @Override
+    protected void onEnable() {
+        physicsSpace.addTickListener(this);
+    }
+
+    @Override
+    protected void onDisable() {
+        physicsSpace.removeTickListener(this);
+        if (isRewinding) {
+            endRewind();
+        }
+    }
+
+    /**
+     * Keep the positions and the rotations in a {@link CompressedHistory}
+     * (to be called before the state is attached).
+     *
+     * @param precision - the quantization step of the positions (in world
+     *                  units, &gt;0)
+     */
+    public void setCompression(float precision) {
+        if (isInitialized()) {
+            throw new IllegalStateException("The history is already allocated");
+        }
+        if (precision <= 0) {
+            throw new IllegalArgumentException("precision must be positive: " + precision);
+        }
+        this.compressionPrecision = precision;
+        this.history = null;
+    }
+
+    /**
+     * Keep the positions and the rotations in the given storage (to be
+     * called before the state is attached).
+     *
+     * @param history - the storage (not null)
+     */
+    public void setHistory(TransformHistory history) {
+        if (isInitialized()) {
+            throw new IllegalStateException("The history is already allocated");
+        }
+        this.history = history;
+        this.compressionPrecision = 0;
+    }
+
+    /**
+     * @return the storage, or null if the history is kept at full precision
+     */
+    public TransformHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Adds a body to the recording, from the next physics step. Its past is
+     * filled with its current state.
+     *
+     * @param body - the body to record
+     */
+    public void register(PhysicsRigidBody body) {
+        pendingBodies.add(body);
+    }
+
+    @Override
+    public void onAction(String action, boolean isPressed, float tpf) {
+        if (action.equals(TimekeeperControl.INPUT_TOGGLE_REWIND)) {
+            if (isPressed) {
+                startRewind();
+            } else {
+                stopRewind();
+            }
+        }
+    }
+
+    public void startRewind() {
+        rewindRequested = true;
+    }
+
+    public void stopRewind() {
+        rewindRequested = false;
+        scrubTarget = Float.NaN;
+    }
+
+    /**
+     * Rewinds (if needed) and freezes the playback at the given time.
+     *
+     * @param secondsAgo - the time before the newest sample
+     */
+    public void scrubTo(float secondsAgo) {
+        scrubTarget = secondsAgo;
+        rewindRequested = true;
+    }
+
+    @Override
+    public void prePhysicsTick(PhysicsSpace space, float timeStep) {
+        PhysicsRigidBody pending;
+        while ((pending = pendingBodies.poll()) != null) {
+            addBody(pending);
+        }
+
+        if (rewindRequested && !isRewinding) {
+            beginRewind();
+        } else if (!rewindRequested && isRewinding) {
+            endRewind();
+        }
+
+        if (isRewinding && count > 0) {
+            float target = scrubTarget;
+            float time = Float.isNaN(target) ? rewindTime + timeStep * rewindSpeed : target;
+            rewindTime = FastMath.clamp(time, 0f, getHistoryLength());
+            applySample(rewindTime, false);
+        }
+    }
+
+    @Override
+    public void physicsTick(PhysicsSpace space, float timeStep) {
+        if (!isRewinding) {
+            record();
+        }
+    }
+
+    private void record() {
+        int n = bodies.size();
+        if (history != null) {
+            for (int i = 0; i < n; i++) {
+                PhysicsRigidBody body = bodies.get(i);
+                body.getPhysicsLocation(tmpVec);
+                posA[i * 3] = tmpVec.x;
+                posA[i * 3 + 1] = tmpVec.y;
+                posA[i * 3 + 2] = tmpVec.z;
+                body.getPhysicsRotation(tmpRotA);
+                rotA[i * 4] = tmpRotA.getX();
+                rotA[i * 4 + 1] = tmpRotA.getY();
+                rotA[i * 4 + 2] = tmpRotA.getZ();
+                rotA[i * 4 + 3] = tmpRotA.getW();
+            }
+            history.record(n, posA, rotA);
+            // a MappedHistory may hold more than historySeconds.
+            count = Math.min(history.getFrameCount(), capacity);
+            return;
+        }
+
+        int row = head * stride;
+        for (int i = 0; i < n; i++) {
+            writeBody(row + i, bodies.get(i));
+        }
+        head = (head + 1) % capacity;
+        if (count < capacity) {
+            count++;
+        }
+    }
+
+    private void writeBody(int index, PhysicsRigidBody body) {
+        body.getPhysicsLocation(tmpVec);
+        channels[PX][index] = tmpVec.x;
+        channels[PY][index] = tmpVec.y;
+        channels[PZ][index] = tmpVec.z;
+        body.getPhysicsRotation(tmpRotA);
+        channels[QX][index] = tmpRotA.getX();
+        channels[QY][index] = tmpRotA.getY();
+        channels[QZ][index] = tmpRotA.getZ();
+        channels[QW][index] = tmpRotA.getW();
+        body.getLinearVelocity(tmpVec);
+        channels[LX][index] = tmpVec.x;
+        channels[LY][index] = tmpVec.y;
+        channels[LZ][index] = tmpVec.z;
+        body.getAngularVelocity(tmpVec);
+        channels[AX][index] = tmpVec.x;
+        channels[AY][index] = tmpVec.y;
+        channels[AZ][index] = tmpVec.z;
+    }
+
+    /**
+     * Moves all the bodies to the state interpolated at the given time.
+     */
+    private void applySample(float secondsAgo, boolean withVelocity) {
+        float position = secondsAgo / sampleInterval;
+        int k = Math.min((int) position, count - 1);
+        int next = Math.min(k + 1, count - 1);
+        float t = position - k;
+        if (history != null) {
+            applyHistory(k, next, t, withVelocity);
+            return;
+        }
+
+        int a = slot(k) * stride;
+        int b = slot(next) * stride;
+        int n = bodies.size();
+        for (int i = 0; i < n; i++) {
+            PhysicsRigidBody body = bodies.get(i);
+            int ia = a + i, ib = b + i;
+
+            body.setPhysicsLocation(tmpVec.set(
+                    lerp(t, PX, ia, ib), lerp(t, PY, ia, ib), lerp(t, PZ, ia, ib)));
+            tmpRotA.set(channels[QX][ia], channels[QY][ia], channels[QZ][ia], channels[QW][ia]);
+            tmpRotB.set(channels[QX][ib], channels[QY][ib], channels[QZ][ib], channels[QW][ib]);
+            tmpRotA.slerp(tmpRotB, t);
+            body.setPhysicsRotation(tmpRotA);
+
+            if (withVelocity) {
+                body.setLinearVelocity(tmpVec.set(
+                        lerp(t, LX, ia, ib), lerp(t, LY, ia, ib), lerp(t, LZ, ia, ib)));
+                body.setAngularVelocity(tmpVec.set(
+                        lerp(t, AX, ia, ib), lerp(t, AY, ia, ib), lerp(t, AZ, ia, ib)));
+            }
+        }
+    }
+
+    private void applyHistory(int k, int next, float t, boolean withVelocity) {
+        // the older frame first: the newer one is decoded on top of it.
+        int numB = history.decode(next, posB, rotB);
+        int numA = history.decode(k, posA, rotA);
+        // the bodies registered after these frames stay where they are.
+        int n = Math.min(Math.min(numA, numB), bodies.size());
+
+        for (int i = 0; i < n; i++) {
+            PhysicsRigidBody body = bodies.get(i);
+            int p = i * 3, r = i * 4;
+
+            body.setPhysicsLocation(tmpVec.set(
+                    FastMath.interpolateLinear(t, posA[p], posB[p]),
+                    FastMath.interpolateLinear(t, posA[p + 1], posB[p + 1]),
+                    FastMath.interpolateLinear(t, posA[p + 2], posB[p + 2])));
+            tmpRotA.set(rotA[r], rotA[r + 1], rotA[r + 2], rotA[r + 3]);
+            tmpRotB.set(rotB[r], rotB[r + 1], rotB[r + 2], rotB[r + 3]);
+            if (withVelocity) {
+                // finite differences between the two frames.
+                float invDt = (k == next) ? 0f : 1f / sampleInterval;
+                body.setLinearVelocity(tmpVec.set(
+                        posA[p] - posB[p], posA[p + 1] - posB[p + 1], posA[p + 2] - posB[p + 2]).multLocal(invDt));
+                Quaternion delta = tmpRotA.mult(tmpRotB.inverse());
+                float angle = delta.toAngleAxis(tmpVec);
+                if (angle > FastMath.PI) {
+                    angle -= FastMath.TWO_PI;
+                }
+                body.setAngularVelocity(tmpVec.multLocal(angle * invDt));
+            }
+            tmpRotA.slerp(tmpRotB, t);
+            body.setPhysicsRotation(tmpRotA);
+        }
+    }
+
+    private float lerp(float t, int channel, int ia, int ib) {
+        float[] ch = channels[channel];
+        return ch[ia] + (ch[ib] - ch[ia]) * t;
+    }
+
+    private void beginRewind() {
+        isRewinding = true;
+        rewindTime = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            PhysicsRigidBody body = bodies.get(i);
+            if (body instanceof RigidBodyControl) {
+                // the spatial follows the kinematic body.
+                RigidBodyControl rgb = (RigidBodyControl) body;
+                kinematicSpatial[i] = rgb.isKinematicSpatial();
+                rgb.setKinematicSpatial(false);
+            }
+            body.setKinematic(true);
+        }
+    }
+
+    private void endRewind() {
+        isRewinding = false;
+        for (int i = 0; i < bodies.size(); i++) {
+            PhysicsRigidBody body = bodies.get(i);
+            body.setKinematic(false);
+            if (body instanceof RigidBodyControl) {
+                ((RigidBodyControl) body).setKinematicSpatial(kinematicSpatial[i]);
+            }
+            body.activate();
+        }
+
+        if (count > 0) {
+            applySample(rewindTime, true);
+            // forget the rewound samples: the history resumes from here.
+            int rewound = Math.min((int) (rewindTime / sampleInterval), count - 1);
+            if (history != null) {
+                history.truncate(rewound);
+                count = Math.min(history.getFrameCount(), capacity);
+                if (history instanceof CompressedHistory) {
+                    CompressedHistory compressed = (CompressedHistory) history;
+                    logger.log(Level.INFO, "Rewind history: compression ratio {0}, decode {1} ns/sample",
+                            new Object[]{compressed.getCompressionRatio(), compressed.getDecodeNanosPerSample()});
+                    compressed.resetStats();
+                }
+            } else {
+                head = (head - rewound + capacity) % capacity;
+                count -= rewound;
+            }
+        }
+        rewindTime = 0;
+    }
+
+    private void addBody(PhysicsRigidBody body) {
+        int index = bodies.size();
+        bodies.add(body);
+        kinematicSpatial = Arrays.copyOf(kinematicSpatial, bodies.size());
+        if (history != null) {
+            // the next frame starts a new keyframe.
+            if (posA.length < bodies.size() * 3) {
+                int size = Math.max(bodies.size(), posA.length / 3 * 2);
+                posA = new float[size * 3];
+                posB = new float[size * 3];
+                rotA = new float[size * 4];
+                rotB = new float[size * 4];
+            }
+            return;
+        }
+
+        if (index == stride) {
+            resize(stride * 2);
+        }
+
+        for (int k = 0; k < count; k++) {
+            writeBody(slot(k) * stride + index, body);
+        }
+    }
+
+    /**
+     * Changes the number of columns of every channel, keeping the samples.
+     */
+    private void resize(int newStride) {
+        for (int c = 0; c < NUM_CHANNELS; c++) {
+            float[] old = channels[c];
+            float[] ch = new float[capacity * newStride];
+            for (int row = 0; row < capacity; row++) {
+                System.arraycopy(old, row * stride, ch, row * newStride, stride);
+            }
+            channels[c] = ch;
+        }
+        stride = newStride;
+    }
+
+    /**
+     * @param k - the age of the sample (0 = newest)
+     * @return the row in the ring
+     */
+    private int slot(int k) {
+        return (head - 1 - k + capacity) % capacity;
+    }
+
+    public boolean isRewinding() {
+        return rewindRequested;
+    }
+
+    /**
+     * @return the playback time (seconds before the newest sample)
+     */
+    public float getRewindTime() {
+        return rewindTime;
+    }
+
+    public float getRewindSpeed() {
+        return rewindSpeed;
+    }
+
+    /**
+     * Alter the playback speed of the rewind (negative values replay
+     * forward).
+     *
+     * @param rewindSpeed (default=1)
+     */
+    public void setRewindSpeed(float rewindSpeed) {
+        this.rewindSpeed = rewindSpeed;
+        this.scrubTarget = Float.NaN;
+    }
+
+    /**
+     * @return the time covered by the recorded samples (in seconds)
+     */
+    public float getHistoryLength() {
+        return Math.max(0, count - 1) * sampleInterval;
+    }
+
+    public float getHistorySeconds() {
+        return historySeconds;
+    }
+
+}
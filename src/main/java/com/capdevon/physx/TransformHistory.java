@@ -0,0 +1,43 @@
+package com.capdevon.physx;
+
+/**
+ * Storage of the transforms of a group of bodies, one frame per physics
+ * step, used by the {@link TimekeeperAppState}.
+ *
+ * @author capdevon
+ */
+public interface TransformHistory {
+
+    /**
+     * Appends a frame.
+     *
+     * @param count     - the number of bodies
+     * @param positions - the positions (x, y, z for each body)
+     * @param rotations - the rotations (x, y, z, w for each body)
+     */
+    public void record(int count, float[] positions, float[] rotations);
+
+    /**
+     * Reads a frame.
+     *
+     * @param age       - the age of the frame (0 = newest, &lt;{@link #getFrameCount()})
+     * @param positions - storage for the positions (x, y, z for each body)
+     * @param rotations - storage for the rotations (x, y, z, w for each body)
+     * @return the number of bodies in the frame
+     */
+    public int decode(int age, float[] positions, float[] rotations);
+
+    /**
+     * Discards the newest frames; the next frame is recorded after the
+     * frames that are left.
+     *
+     * @param frames - the number of frames to discard
+     */
+    public void truncate(int frames);
+
+    /**
+     * @return the number of frames available
+     */
+    public int getFrameCount();
+
+}
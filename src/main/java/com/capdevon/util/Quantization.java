@@ -0,0 +1,122 @@
+package com.capdevon.util;
+
+import java.nio.ByteBuffer;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+
+/**
+ * Compact encodings shared by the replication packets and the rewind
+ * history: fixed-precision quantization, smallest-three rotations packed in
+ * 32 bits (2 bits for the index of the largest component, 10 bits for each of
+ * the other three), zigzag and variable-length integers.
+ *
+ * @author capdevon
+ */
+public final class Quantization {
+
+    private static final int ROTATION_BITS = 10;
+    private static final int ROTATION_MASK = (1 << ROTATION_BITS) - 1;
+    private static final float ROTATION_SCALE = ROTATION_MASK;
+
+    private Quantization() {
+        // private constructor.
+    }
+
+    public static int quantize(float value, float precision) {
+        return Math.round(value / precision);
+    }
+
+    public static int packRotation(Quaternion q) {
+        return packRotation(q.getX(), q.getY(), q.getZ(), q.getW());
+    }
+
+    /**
+     * Smallest-three encoding: the largest component is dropped (and made
+     * positive, since q and -q are the same rotation) and recomputed from the
+     * unit length on decode.
+     */
+    public static int packRotation(float x, float y, float z, float w) {
+        float ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z), aw = Math.abs(w);
+        int largest = 0;
+        float max = ax;
+        if (ay > max) { largest = 1; max = ay; }
+        if (az > max) { largest = 2; max = az; }
+        if (aw > max) { largest = 3; }
+
+        float sign = 1f;
+        switch (largest) {
+            case 0: sign = Math.signum(x); break;
+            case 1: sign = Math.signum(y); break;
+            case 2: sign = Math.signum(z); break;
+            default: sign = Math.signum(w); break;
+        }
+        if (sign == 0) {
+            sign = 1f;
+        }
+
+        int packed = largest << (ROTATION_BITS * 3);
+        int shift = ROTATION_BITS * 2;
+        for (int i = 0; i < 4; i++) {
+            if (i == largest) {
+                continue;
+            }
+            float c = (i == 0 ? x : i == 1 ? y : i == 2 ? z : w) * sign;
+            // [-1/sqrt(2), 1/sqrt(2)] -> [0, ROTATION_MASK]
+            float normalized = (c * FastMath.sqrt(2f) + 1f) * 0.5f;
+            int bits = Math.round(FastMath.clamp(normalized, 0f, 1f) * ROTATION_SCALE);
+            packed |= bits << shift;
+            shift -= ROTATION_BITS;
+        }
+        return packed;
+    }
+
+    public static Quaternion unpackRotation(int packed, Quaternion store) {
+        int largest = packed >>> (ROTATION_BITS * 3);
+        float a = unpackComponent(packed, ROTATION_BITS * 2);
+        float b = unpackComponent(packed, ROTATION_BITS);
+        float c = unpackComponent(packed, 0);
+        float m = FastMath.sqrt(Math.max(0f, 1f - a * a - b * b - c * c));
+
+        switch (largest) {
+            case 0: return store.set(m, a, b, c);
+            case 1: return store.set(a, m, b, c);
+            case 2: return store.set(a, b, m, c);
+            default: return store.set(a, b, c, m);
+        }
+    }
+
+    private static float unpackComponent(int packed, int shift) {
+        float normalized = ((packed >>> shift) & ROTATION_MASK) / ROTATION_SCALE;
+        return (normalized * 2f - 1f) / FastMath.sqrt(2f);
+    }
+
+    public static void writeVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    public static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    public static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+}